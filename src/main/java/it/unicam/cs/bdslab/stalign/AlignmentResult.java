@@ -32,11 +32,18 @@ public class AlignmentResult {
 
     private final Tree<String> t1;
     private final Tree<String> t2;
-    private final TreeAlignResult<String, String> result;
+    private final CompactStructuralTree compactTree1;
+    private final CompactStructuralTree compactTree2;
+    private final ScoringFunction f;
+    private Tree<AlignedNode<String, String>> alignedTree;
     private final double distance;
+    private final boolean aboveMaxDistance;
 
     /**
-     * Align two structural RNA/Protein trees and construct the result.
+     * Align two structural RNA/Protein trees and construct the result. Trees
+     * whose nodes have at most two children, as the structural trees, are
+     * aligned by {@link BinaryTreeAligner}, the others by the
+     * {@code TreeAlign} of VARNA. Both give the same distance.
      *
      * @param t1 first structural RNA/Protein tree to align
      * @param t2 second structural RNA/Protein tree to align
@@ -45,25 +52,163 @@ public class AlignmentResult {
      */
     public AlignmentResult(Tree<String> t1, Tree<String> t2,
 	    ScoringFunction f) throws TreeAlignException {
+	this(t1, t2, f, false, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Align two array encoded structural RNA/Protein trees, as built by
+     * {@link TERSAlignTree#getCompactStructuralTree()}, and construct the
+     * result. The trees are aligned by {@link BinaryTreeAligner} without
+     * creating their {@code Tree<String>} views, which are only created for
+     * the aligned tree, if requested.
+     *
+     * @param t1 first structural RNA/Protein tree to align
+     * @param t2 second structural RNA/Protein tree to align
+     *
+     * @throws TreeAlignException alignment exception
+     */
+    public AlignmentResult(CompactStructuralTree t1, CompactStructuralTree t2,
+	    ScoringFunction f) throws TreeAlignException {
+	this(t1, t2, f, false, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Align two structural RNA/Protein trees when only the distance is
+     * needed. The structural trees are aligned without keeping the tables
+     * needed to reconstruct the alignment, which is then computed again by
+     * {@link #getAlignedTree()} only if requested. Trees with nodes with more
+     * than two children are always fully aligned by the {@code TreeAlign} of
+     * VARNA.
+     *
+     * @param t1 first structural RNA/Protein tree to align
+     * @param t2 second structural RNA/Protein tree to align
+     * @param f  the scoring function
+     *
+     * @return the result of the alignment
+     *
+     * @throws TreeAlignException alignment exception
+     */
+    public static AlignmentResult distanceOnly(Tree<String> t1,
+	    Tree<String> t2, ScoringFunction f) throws TreeAlignException {
+	return new AlignmentResult(t1, t2, f, true, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Align two array encoded structural RNA/Protein trees when only the
+     * distance is needed, as {@link #distanceOnly(Tree, Tree, ScoringFunction)}
+     * does.
+     *
+     * @param t1 first structural RNA/Protein tree to align
+     * @param t2 second structural RNA/Protein tree to align
+     * @param f  the scoring function
+     *
+     * @return the result of the alignment
+     *
+     * @throws TreeAlignException alignment exception
+     */
+    public static AlignmentResult distanceOnly(CompactStructuralTree t1,
+	    CompactStructuralTree t2, ScoringFunction f)
+	    throws TreeAlignException {
+	return new AlignmentResult(t1, t2, f, true, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Align two structural RNA/Protein trees for the distance only, telling
+     * if it exceeds the given maximum distance instead of computing it
+     * exactly. The alignment of the structural trees stops as soon as the
+     * part already aligned costs more than the maximum distance. The aligned
+     * tree of a result above the maximum distance is not available.
+     *
+     * @param t1          first structural RNA/Protein tree to align
+     * @param t2          second structural RNA/Protein tree to align
+     * @param f           the scoring function
+     * @param maxDistance the maximum distance of interest
+     *
+     * @return the result of the alignment
+     *
+     * @throws TreeAlignException alignment exception
+     */
+    public static AlignmentResult withinDistance(Tree<String> t1,
+	    Tree<String> t2, ScoringFunction f, double maxDistance)
+	    throws TreeAlignException {
+	return new AlignmentResult(t1, t2, f, true, maxDistance);
+    }
+
+    /**
+     * Align two array encoded structural RNA/Protein trees for the distance
+     * only, telling if it exceeds the given maximum distance, as
+     * {@link #withinDistance(Tree, Tree, ScoringFunction, double)} does.
+     *
+     * @param t1          first structural RNA/Protein tree to align
+     * @param t2          second structural RNA/Protein tree to align
+     * @param f           the scoring function
+     * @param maxDistance the maximum distance of interest
+     *
+     * @return the result of the alignment
+     *
+     * @throws TreeAlignException alignment exception
+     */
+    public static AlignmentResult withinDistance(CompactStructuralTree t1,
+	    CompactStructuralTree t2, ScoringFunction f, double maxDistance)
+	    throws TreeAlignException {
+	return new AlignmentResult(t1, t2, f, true, maxDistance);
+    }
+
+    private AlignmentResult(CompactStructuralTree t1,
+	    CompactStructuralTree t2, ScoringFunction f, boolean distanceOnly,
+	    double maxDistance) throws TreeAlignException {
+	this.t1 = null;
+	this.t2 = null;
+	this.compactTree1 = t1;
+	this.compactTree2 = t2;
+	this.f = f;
+	BinaryTreeAligner al = new BinaryTreeAligner(t1, t2, f, distanceOnly,
+		maxDistance);
+	if (!distanceOnly)
+	    this.alignedTree = al.getAlignment();
+	this.distance = al.getDistance();
+	this.aboveMaxDistance = al.isAboveMaxDistance();
+    }
+
+    private AlignmentResult(Tree<String> t1, Tree<String> t2,
+	    ScoringFunction f, boolean distanceOnly, double maxDistance)
+	    throws TreeAlignException {
 	this.t1 = t1;
 	this.t2 = t2;
-	TreeAlign<String, String> al = new TreeAlign<>(f);
-	this.result = al.align(t1, t2);
-	this.distance = result.getDistance();
+	this.compactTree1 = null;
+	this.compactTree2 = null;
+	this.f = f;
+	if (BinaryTreeAligner.canAlign(t1, t2)) {
+	    BinaryTreeAligner al = new BinaryTreeAligner(t1, t2, f,
+		    distanceOnly, maxDistance);
+	    if (!distanceOnly)
+		this.alignedTree = al.getAlignment();
+	    this.distance = al.getDistance();
+	    this.aboveMaxDistance = al.isAboveMaxDistance();
+	} else {
+	    TreeAlign<String, String> al = new TreeAlign<>(f);
+	    TreeAlignResult<String, String> result = al.align(t1, t2);
+	    this.alignedTree = result.getAlignment();
+	    this.aboveMaxDistance = result.getDistance() > maxDistance;
+	    this.distance = this.aboveMaxDistance ? Double.POSITIVE_INFINITY
+		    : result.getDistance();
+	}
     }
 
     /**
-     * @return the first structural RNA/Protein tree
+     * @return the first structural RNA/Protein tree, a new view of it if it
+     *         was given in array encoded form
      */
     public Tree<String> getT1() {
-	return t1;
+	return t1 != null ? t1 : compactTree1.toTree();
     }
 
     /**
-     * @return the second structural RNA/Protein tree
+     * @return the second structural RNA/Protein tree, a new view of it if it
+     *         was given in array encoded form
      */
     public Tree<String> getT2() {
-	return t2;
+	return t2 != null ? t2 : compactTree2.toTree();
     }
 
     /**
@@ -71,18 +216,40 @@ public class AlignmentResult {
      * Return the distance of the aligned trees, i.e. the minimum cost of the
      * operations to align them.
      *
-     * @return the distance
+     * @return the distance, or infinity if it exceeds the maximum distance
      */
     public double getDistance() {
 	return distance;
     }
 
+    /**
+     *
+     * @return true if the distance exceeds the maximum distance given when
+     *         aligning the trees
+     */
+    public boolean isAboveMaxDistance() {
+	return aboveMaxDistance;
+    }
+
     /**
      *
      * @return the alignment of the original structural RNA trees
+     *
+     * @throws IllegalStateException if the distance exceeds the maximum
+     *                               distance given when aligning the trees
      */
     public Tree<AlignedNode<String, String>> getAlignedTree() {
-	return this.result.getAlignment();
+	if (this.aboveMaxDistance)
+	    throw new IllegalStateException(
+		    "The distance exceeds the maximum distance, no alignment available");
+	if (this.alignedTree == null)
+	    this.alignedTree = this.t1 != null
+		    ? new BinaryTreeAligner(this.t1, this.t2, this.f, false)
+			    .getAlignment()
+		    : new BinaryTreeAligner(this.compactTree1,
+			    this.compactTree2, this.f, false,
+			    Double.POSITIVE_INFINITY).getAlignment();
+	return this.alignedTree;
     }
 
 }
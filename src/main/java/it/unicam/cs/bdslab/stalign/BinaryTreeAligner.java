@@ -0,0 +1,860 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import fr.orsay.lri.varna.models.treealign.AlignedNode;
+import fr.orsay.lri.varna.models.treealign.Tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Alignment of two trees whose nodes have at most two children, as the
+ * structural trees built by {@link TERSAlignTree}. The distance is the one of
+ * the tree alignment of Jiang, Wang and Zhang, the same used by the
+ * {@code TreeAlign} of VARNA, but the trees are encoded in arrays numbered in
+ * post-order and the dynamic programming tables are arrays of doubles indexed
+ * by pairs of nodes. Since a node has at most two children, the forests of
+ * siblings of a node are at most three, and only the alignments of the forest
+ * of all the children of a node with the forests of siblings of the other
+ * node are kept for each pair. The alignments of the other forests of a pair
+ * are computed again when needed, in constant time. The tables are stored by
+ * rows, one for each node of the first tree. If only the distance is needed,
+ * the rows of the children of a node are released as soon as the row of the
+ * node is filled, and no alignment can be reconstructed.
+ *
+ * A maximum distance can be given when only the trees within it are of
+ * interest. The cost of aligning the subtree of a node of the first tree,
+ * either deleted or aligned with a subtree or a forest of siblings of the
+ * second tree, is part of the cost of aligning the whole trees, so the
+ * minimum of the row of the node bounds the distance from below. The
+ * alignment stops as soon as the minimum of a row exceeds the maximum
+ * distance.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+class BinaryTreeAligner {
+
+    /*
+     * Forests of siblings of a node are given as the range [start,end) of the
+     * indexes of its children, so there are at most SIBLINGS ranges with
+     * start < end and FORESTS ranges including the empty ones
+     */
+    private static final int SIBLINGS = 3;
+    private static final int FORESTS = 9;
+
+    /*
+     * Cases of the alignment of two trees: the roots are aligned together,
+     * or the root of the second or of the first tree is aligned with a gap
+     */
+    private static final int MATCH = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+
+    /*
+     * Cases of the alignment of two forests, on their rightmost trees: the
+     * first is deleted, the second is inserted, they are aligned together,
+     * the root of the first one is aligned with a gap and its children with
+     * some of the rightmost trees of the second forest, or vice versa
+     */
+    private static final int DELETE_TREE = 0;
+    private static final int INSERT_TREE = 1;
+    private static final int ALIGN_TREES = 2;
+    private static final int DELETE_ROOT = 3;
+    private static final int INSERT_ROOT = 4;
+
+    private final ScoringFunction f;
+    private final EncodedTree t1;
+    private final EncodedTree t2;
+    private final int n2;
+    private final boolean distanceOnly;
+
+    // costs of deleting a node, its subtree and the forest of its children
+    // from the first tree
+    private final double[] deletes;
+    private final double[] treeDeletes;
+    private final double[] forestDeletes;
+    // costs of inserting a node, its subtree and the forest of its children
+    // of the second tree
+    private final double[] inserts;
+    private final double[] treeInserts;
+    private final double[] forestInserts;
+
+    // distance of the subtrees of each pair of nodes
+    private final double[][] trees;
+    // distances of the forest of the children of the node of the first tree
+    // with the forests of siblings of the node of the second tree, and vice
+    // versa
+    private final double[][] firstForests;
+    private final double[][] secondForests;
+
+    private final double distance;
+    private final boolean aboveMaxDistance;
+
+    // nodes of the trees referred by the alignment, in the order of the
+    // encoded trees
+    private Tree<String>[] nodes1;
+    private Tree<String>[] nodes2;
+
+    /**
+     * Tells if two trees can be aligned by this class, i.e. if all their
+     * nodes have at most two children and the tables fit into arrays.
+     *
+     * @param t1 the first tree
+     * @param t2 the second tree
+     * @return true if the trees can be aligned by this class
+     */
+    static boolean canAlign(Tree<String> t1, Tree<String> t2) {
+        int n1 = countBinaryNodes(t1);
+        int n2 = countBinaryNodes(t2);
+        return n1 > 0 && n2 > 0
+                && (long) n2 * SIBLINGS <= Integer.MAX_VALUE - 8;
+    }
+
+    /*
+     * Returns the number of nodes of the given tree, or 0 if a node has more
+     * than two children
+     */
+    private static int countBinaryNodes(Tree<String> t) {
+        ArrayDeque<Tree<String>> stack = new ArrayDeque<>();
+        stack.push(t);
+        int count = 0;
+        while (!stack.isEmpty()) {
+            Tree<String> node = stack.pop();
+            List<Tree<String>> children = node.getChildren();
+            if (children.size() > 2)
+                return 0;
+            for (Tree<String> child : children)
+                stack.push(child);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Aligns two trees whose nodes have at most two children.
+     *
+     * @param t1           the first tree
+     * @param t2           the second tree
+     * @param f            the scoring function giving the costs of the
+     *                     alignment
+     * @param distanceOnly true if only the distance is needed, so that the
+     *                     tables can be released while they are filled
+     */
+    BinaryTreeAligner(Tree<String> t1, Tree<String> t2, ScoringFunction f,
+            boolean distanceOnly) {
+        this(t1, t2, f, distanceOnly, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Aligns two trees whose nodes have at most two children, stopping as
+     * soon as their distance is known to exceed the given maximum.
+     *
+     * @param t1           the first tree
+     * @param t2           the second tree
+     * @param f            the scoring function giving the costs of the
+     *                     alignment
+     * @param distanceOnly true if only the distance is needed, so that the
+     *                     tables can be released while they are filled
+     * @param maxDistance  the maximum distance of interest
+     */
+    BinaryTreeAligner(Tree<String> t1, Tree<String> t2, ScoringFunction f,
+            boolean distanceOnly, double maxDistance) {
+        this(new EncodedTree(t1, f), new EncodedTree(t2, f), f, distanceOnly,
+                maxDistance);
+    }
+
+    /**
+     * Aligns two array encoded structural trees, stopping as soon as their
+     * distance is known to exceed the given maximum. The nodes of the
+     * {@code Tree<String>} views referred by the alignment are only created
+     * if the alignment is requested.
+     *
+     * @param t1           the first tree
+     * @param t2           the second tree
+     * @param f            the scoring function giving the costs of the
+     *                     alignment
+     * @param distanceOnly true if only the distance is needed, so that the
+     *                     tables can be released while they are filled
+     * @param maxDistance  the maximum distance of interest
+     */
+    BinaryTreeAligner(CompactStructuralTree t1, CompactStructuralTree t2,
+            ScoringFunction f, boolean distanceOnly, double maxDistance) {
+        this(new EncodedTree(t1), new EncodedTree(t2), f, distanceOnly,
+                maxDistance);
+    }
+
+    private BinaryTreeAligner(EncodedTree t1, EncodedTree t2,
+            ScoringFunction f, boolean distanceOnly, double maxDistance) {
+        this.f = f;
+        this.distanceOnly = distanceOnly;
+        this.t1 = t1;
+        this.t2 = t2;
+        int n1 = this.t1.size();
+        this.n2 = this.t2.size();
+        this.deletes = new double[n1];
+        this.treeDeletes = new double[n1];
+        this.forestDeletes = new double[n1];
+        for (int i = 0; i < n1; i++) {
+            this.deletes[i] = f.f(this.t1.opcodes[i], this.t1.crossings[i],
+                    ScoringFunction.GAP_OPCODE, 0);
+            for (int c = 0; c < this.t1.degree(i); c++)
+                this.forestDeletes[i] += this.treeDeletes[this.t1.child(i, c)];
+            this.treeDeletes[i] = this.deletes[i] + this.forestDeletes[i];
+        }
+        this.inserts = new double[this.n2];
+        this.treeInserts = new double[this.n2];
+        this.forestInserts = new double[this.n2];
+        for (int j = 0; j < this.n2; j++) {
+            this.inserts[j] = f.f(ScoringFunction.GAP_OPCODE, 0,
+                    this.t2.opcodes[j], this.t2.crossings[j]);
+            for (int c = 0; c < this.t2.degree(j); c++)
+                this.forestInserts[j] += this.treeInserts[this.t2.child(j, c)];
+            this.treeInserts[j] = this.inserts[j] + this.forestInserts[j];
+        }
+        this.trees = new double[n1][];
+        this.firstForests = new double[n1][];
+        this.secondForests = new double[n1][];
+        // children come before their parents in post-order
+        double[] forests = new double[FORESTS * FORESTS];
+        ArrayDeque<double[]> releasedTrees = new ArrayDeque<>();
+        ArrayDeque<double[]> releasedForests = new ArrayDeque<>();
+        boolean above = false;
+        for (int i = 0; i < n1 && !above; i++) {
+            double[] treesRow = row(releasedTrees, this.n2);
+            double[] firstRow = row(releasedForests, this.n2 * SIBLINGS);
+            double[] secondRow = row(releasedForests, this.n2 * SIBLINGS);
+            this.trees[i] = treesRow;
+            this.firstForests[i] = firstRow;
+            this.secondForests[i] = secondRow;
+            int k1 = this.t1.degree(i);
+            // lower bound of the distance, the subtree of i being deleted
+            // or aligned with a subtree or a forest of siblings
+            double min = this.treeDeletes[i];
+            for (int j = 0; j < this.n2; j++) {
+                alignForests(i, j, forests);
+                int k2 = this.t2.degree(j);
+                for (int s = 0; s < k2; s++)
+                    for (int e = s + 1; e <= k2; e++) {
+                        firstRow[j * SIBLINGS + siblings(s, e)]
+                                = forests[forest(0, k1, s, e)];
+                        min = Math.min(min, forests[forest(0, k1, s, e)]);
+                    }
+                for (int s = 0; s < k1; s++)
+                    for (int e = s + 1; e <= k1; e++)
+                        secondRow[j * SIBLINGS + siblings(s, e)]
+                                = forests[forest(s, e, 0, k2)];
+                double d = treeCase(i, j, forests, MATCH, 0);
+                for (int c = 0; c < k2; c++)
+                    d = Math.min(d, treeCase(i, j, forests, INSERT, c));
+                for (int c = 0; c < k1; c++)
+                    d = Math.min(d, treeCase(i, j, forests, DELETE, c));
+                treesRow[j] = d;
+                min = Math.min(min, d);
+            }
+            above = min > maxDistance;
+            // the rows of the children are only used by their parent
+            if (distanceOnly)
+                for (int c = 0; c < k1; c++) {
+                    int a = this.t1.child(i, c);
+                    releasedTrees.push(this.trees[a]);
+                    releasedForests.push(this.firstForests[a]);
+                    releasedForests.push(this.secondForests[a]);
+                    this.trees[a] = null;
+                    this.firstForests[a] = null;
+                    this.secondForests[a] = null;
+                }
+        }
+        this.aboveMaxDistance = above
+                || this.trees[n1 - 1][this.n2 - 1] > maxDistance;
+        this.distance = this.aboveMaxDistance ? Double.POSITIVE_INFINITY
+                : this.trees[n1 - 1][this.n2 - 1];
+    }
+
+    /*
+     * Returns a released row, or a new one of the given length
+     */
+    private static double[] row(ArrayDeque<double[]> released, int length) {
+        double[] row = released.poll();
+        return row != null ? row : new double[length];
+    }
+
+    /**
+     * @return the distance of the aligned trees, or infinity if it exceeds the
+     *         maximum distance
+     */
+    double getDistance() {
+        return this.distance;
+    }
+
+    /**
+     * @return true if the distance of the trees exceeds the maximum distance
+     */
+    boolean isAboveMaxDistance() {
+        return this.aboveMaxDistance;
+    }
+
+    /**
+     * Constructs an optimal alignment of the trees, with the distance given
+     * by {@link #getDistance()}.
+     *
+     * @return the alignment of the trees
+     * @throws IllegalStateException if only the distance was computed, or if
+     *                               the distance exceeds the maximum one
+     */
+    Tree<AlignedNode<String, String>> getAlignment() {
+        if (this.distanceOnly || this.aboveMaxDistance)
+            throw new IllegalStateException(
+                    "The alignment was not kept, only the distance");
+        this.nodes1 = this.t1.getNodes();
+        this.nodes2 = this.t2.getNodes();
+        List<Tree<AlignedNode<String, String>>> root = new ArrayList<>(1);
+        ArrayDeque<Step> steps = new ArrayDeque<>();
+        steps.push(Step.trees(this.t1.size() - 1, this.n2 - 1, root));
+        while (!steps.isEmpty()) {
+            Step step = steps.pop();
+            switch (step.kind) {
+            case Step.ALIGNED_TREES:
+                alignedTrees(step.i, step.j, step.aligned, steps);
+                break;
+            case Step.ALIGNED_FORESTS:
+                alignedForests(step.i, step.s1, step.e1, step.j, step.s2,
+                        step.e2, step.forests, step.aligned, steps);
+                break;
+            case Step.DELETED_TREE:
+                deletedTree(step.i, step.aligned, steps);
+                break;
+            case Step.INSERTED_TREE:
+                insertedTree(step.j, step.aligned, steps);
+                break;
+            case Step.DELETED_ROOT:
+                deletedRoot(step.i, step.j, step.s2, step.e2, step.aligned,
+                        steps);
+                break;
+            default:
+                insertedRoot(step.i, step.s1, step.e1, step.j, step.aligned,
+                        steps);
+            }
+        }
+        return root.get(0);
+    }
+
+    /*
+     * Index of the range [s,e) of the children of a node among the ranges
+     * with s < e
+     */
+    private static int siblings(int s, int e) {
+        return e - s == 2 ? 2 : s;
+    }
+
+    /*
+     * Index of the distance of the forests [s1,e1) of the children of a node
+     * of the first tree and [s2,e2) of the children of a node of the second
+     * tree in the table of the forests of a pair
+     */
+    private static int forest(int s1, int e1, int s2, int e2) {
+        return (s1 * 3 + e1) * FORESTS + s2 * 3 + e2;
+    }
+
+    /*
+     * Fills the table of the distances of the forests of siblings of the
+     * children of i and of j. The smaller forests come first.
+     */
+    private void alignForests(int i, int j, double[] forests) {
+        int k1 = this.t1.degree(i);
+        int k2 = this.t2.degree(j);
+        for (int e1 = 0; e1 <= k1; e1++)
+            for (int s1 = e1; s1 >= 0; s1--)
+                for (int e2 = 0; e2 <= k2; e2++)
+                    for (int s2 = e2; s2 >= 0; s2--)
+                        forests[forest(s1, e1, s2, e2)]
+                                = alignForests(i, s1, e1, j, s2, e2, forests);
+    }
+
+    private double alignForests(int i, int s1, int e1, int j, int s2, int e2,
+            double[] forests) {
+        if (s1 == e1) {
+            double d = 0;
+            for (int c = s2; c < e2; c++)
+                d += this.treeInserts[this.t2.child(j, c)];
+            return d;
+        }
+        if (s2 == e2) {
+            double d = 0;
+            for (int c = s1; c < e1; c++)
+                d += this.treeDeletes[this.t1.child(i, c)];
+            return d;
+        }
+        double d = forestCase(i, s1, e1, j, s2, e2, forests, DELETE_TREE, 0);
+        d = Math.min(d, forestCase(i, s1, e1, j, s2, e2, forests, INSERT_TREE,
+                0));
+        d = Math.min(d, forestCase(i, s1, e1, j, s2, e2, forests, ALIGN_TREES,
+                0));
+        for (int k = s2; k <= e2; k++)
+            d = Math.min(d, forestCase(i, s1, e1, j, s2, e2, forests,
+                    DELETE_ROOT, k));
+        for (int k = s1; k <= e1; k++)
+            d = Math.min(d, forestCase(i, s1, e1, j, s2, e2, forests,
+                    INSERT_ROOT, k));
+        return d;
+    }
+
+    /*
+     * Returns the cost of the given case of the alignment of the non empty
+     * forests [s1,e1) of the children of i and [s2,e2) of the children of j.
+     * For the cases of a root aligned with a gap, k is where the children of
+     * the root start to be aligned in the other forest. The same expressions
+     * are used to fill the tables and to reconstruct the alignment.
+     */
+    private double forestCase(int i, int s1, int e1, int j, int s2, int e2,
+            double[] forests, int alignmentCase, int k) {
+        int a = this.t1.child(i, e1 - 1);
+        int b = this.t2.child(j, e2 - 1);
+        switch (alignmentCase) {
+        case DELETE_TREE:
+            return forests[forest(s1, e1 - 1, s2, e2)] + this.treeDeletes[a];
+        case INSERT_TREE:
+            return forests[forest(s1, e1, s2, e2 - 1)] + this.treeInserts[b];
+        case ALIGN_TREES:
+            return forests[forest(s1, e1 - 1, s2, e2 - 1)]
+                    + this.trees[a][b];
+        case DELETE_ROOT:
+            return this.deletes[a] + forests[forest(s1, e1 - 1, s2, k)]
+                    + (k == e2 ? this.forestDeletes[a]
+                            : this.firstForests[a][j * SIBLINGS
+                                    + siblings(k, e2)]);
+        default:
+            return this.inserts[b] + forests[forest(s1, k, s2, e2 - 1)]
+                    + (k == e1 ? this.forestInserts[b]
+                            : this.secondForests[i][b * SIBLINGS
+                                    + siblings(k, e1)]);
+        }
+    }
+
+    /*
+     * Returns the cost of the given case of the alignment of the subtrees of
+     * i and j. For the cases of a root aligned with a gap, c is the index of
+     * the child of the root aligned with the other subtree, and the costs of
+     * the other children are added rather than subtracting the one of c from
+     * the whole subtree, which would give NaN for infinite costs.
+     */
+    private double treeCase(int i, int j, double[] forests, int alignmentCase,
+            int c) {
+        switch (alignmentCase) {
+        case MATCH:
+            return forests[forest(0, this.t1.degree(i), 0, this.t2.degree(j))]
+                    + this.f.f(this.t1.opcodes[i], this.t1.crossings[i],
+                            this.t2.opcodes[j], this.t2.crossings[j]);
+        case INSERT:
+            double d = this.inserts[j] + this.trees[i][this.t2.child(j, c)];
+            for (int other = 0; other < this.t2.degree(j); other++)
+                if (other != c)
+                    d += this.treeInserts[this.t2.child(j, other)];
+            return d;
+        default:
+            d = this.deletes[i] + this.trees[this.t1.child(i, c)][j];
+            for (int other = 0; other < this.t1.degree(i); other++)
+                if (other != c)
+                    d += this.treeDeletes[this.t1.child(i, other)];
+            return d;
+        }
+    }
+
+    /*
+     * Reconstructs an optimal alignment of the subtrees of i and j, choosing
+     * the first case whose cost is the one in the table. The aligned node is
+     * added to the given list, and the steps aligning its children are pushed
+     * in reverse order, so that they add them in order.
+     */
+    private void alignedTrees(int i, int j,
+            List<Tree<AlignedNode<String, String>>> aligned,
+            ArrayDeque<Step> steps) {
+        double[] forests = new double[FORESTS * FORESTS];
+        alignForests(i, j, forests);
+        double d = this.trees[i][j];
+        int k1 = this.t1.degree(i);
+        int k2 = this.t2.degree(j);
+        if (treeCase(i, j, forests, MATCH, 0) == d) {
+            List<Tree<AlignedNode<String, String>>> children
+                    = alignedNode(i, j, aligned);
+            steps.push(Step.forests(i, 0, k1, j, 0, k2, forests, children));
+            return;
+        }
+        for (int c = 0; c < k2; c++)
+            if (treeCase(i, j, forests, INSERT, c) == d) {
+                List<Tree<AlignedNode<String, String>>> children
+                        = alignedNode(EncodedTree.NONE, j, aligned);
+                for (int other = k2 - 1; other >= 0; other--)
+                    steps.push(other == c
+                            ? Step.trees(i, this.t2.child(j, other), children)
+                            : Step.inserted(this.t2.child(j, other),
+                                    children));
+                return;
+            }
+        for (int c = 0; c < k1; c++)
+            if (treeCase(i, j, forests, DELETE, c) == d) {
+                List<Tree<AlignedNode<String, String>>> children
+                        = alignedNode(i, EncodedTree.NONE, aligned);
+                for (int other = k1 - 1; other >= 0; other--)
+                    steps.push(other == c
+                            ? Step.trees(this.t1.child(i, other), j, children)
+                            : Step.deleted(this.t1.child(i, other),
+                                    children));
+                return;
+            }
+        throw new IllegalStateException("No alignment of cost " + d
+                + " for the subtrees of the nodes " + i + " and " + j);
+    }
+
+    /*
+     * Reconstructs an optimal alignment of the forests [s1,e1) of the
+     * children of i and [s2,e2) of the children of j, given the table of the
+     * forests of i and j. The alignment of the rightmost trees is pushed
+     * first, so that it is added after the alignment of the rest of the
+     * forests.
+     */
+    private void alignedForests(int i, int s1, int e1, int j, int s2, int e2,
+            double[] forests, List<Tree<AlignedNode<String, String>>> aligned,
+            ArrayDeque<Step> steps) {
+        if (s1 == e1 || s2 == e2) {
+            for (int c = e2 - 1; c >= s2; c--)
+                steps.push(Step.inserted(this.t2.child(j, c), aligned));
+            for (int c = e1 - 1; c >= s1; c--)
+                steps.push(Step.deleted(this.t1.child(i, c), aligned));
+            return;
+        }
+        double d = forests[forest(s1, e1, s2, e2)];
+        int a = this.t1.child(i, e1 - 1);
+        int b = this.t2.child(j, e2 - 1);
+        if (forestCase(i, s1, e1, j, s2, e2, forests, DELETE_TREE, 0) == d) {
+            steps.push(Step.deleted(a, aligned));
+            steps.push(Step.forests(i, s1, e1 - 1, j, s2, e2, forests,
+                    aligned));
+            return;
+        }
+        if (forestCase(i, s1, e1, j, s2, e2, forests, INSERT_TREE, 0) == d) {
+            steps.push(Step.inserted(b, aligned));
+            steps.push(Step.forests(i, s1, e1, j, s2, e2 - 1, forests,
+                    aligned));
+            return;
+        }
+        if (forestCase(i, s1, e1, j, s2, e2, forests, ALIGN_TREES, 0) == d) {
+            steps.push(Step.trees(a, b, aligned));
+            steps.push(Step.forests(i, s1, e1 - 1, j, s2, e2 - 1, forests,
+                    aligned));
+            return;
+        }
+        for (int k = s2; k <= e2; k++)
+            if (forestCase(i, s1, e1, j, s2, e2, forests, DELETE_ROOT,
+                    k) == d) {
+                steps.push(Step.deletedRoot(a, j, k, e2, aligned));
+                steps.push(Step.forests(i, s1, e1 - 1, j, s2, k, forests,
+                        aligned));
+                return;
+            }
+        for (int k = s1; k <= e1; k++)
+            if (forestCase(i, s1, e1, j, s2, e2, forests, INSERT_ROOT,
+                    k) == d) {
+                steps.push(Step.insertedRoot(i, k, e1, b, aligned));
+                steps.push(Step.forests(i, s1, k, j, s2, e2 - 1, forests,
+                        aligned));
+                return;
+            }
+        throw new IllegalStateException("No alignment of cost " + d
+                + " for the forests of the nodes " + i + " and " + j);
+    }
+
+    /*
+     * Aligns the root a with a gap and its children with the forest [s2,e2)
+     * of the children of j
+     */
+    private void deletedRoot(int a, int j, int s2, int e2,
+            List<Tree<AlignedNode<String, String>>> aligned,
+            ArrayDeque<Step> steps) {
+        double[] rootForests = new double[FORESTS * FORESTS];
+        alignForests(a, j, rootForests);
+        List<Tree<AlignedNode<String, String>>> children
+                = alignedNode(a, EncodedTree.NONE, aligned);
+        steps.push(Step.forests(a, 0, this.t1.degree(a), j, s2, e2,
+                rootForests, children));
+    }
+
+    /*
+     * Aligns a gap with the root b and its children with the forest [s1,e1)
+     * of the children of i
+     */
+    private void insertedRoot(int i, int s1, int e1, int b,
+            List<Tree<AlignedNode<String, String>>> aligned,
+            ArrayDeque<Step> steps) {
+        double[] rootForests = new double[FORESTS * FORESTS];
+        alignForests(i, b, rootForests);
+        List<Tree<AlignedNode<String, String>>> children
+                = alignedNode(EncodedTree.NONE, b, aligned);
+        steps.push(Step.forests(i, s1, e1, b, 0, this.t2.degree(b),
+                rootForests, children));
+    }
+
+    /*
+     * Aligns the whole subtree of i with gaps
+     */
+    private void deletedTree(int i,
+            List<Tree<AlignedNode<String, String>>> aligned,
+            ArrayDeque<Step> steps) {
+        List<Tree<AlignedNode<String, String>>> children
+                = alignedNode(i, EncodedTree.NONE, aligned);
+        for (int c = this.t1.degree(i) - 1; c >= 0; c--)
+            steps.push(Step.deleted(this.t1.child(i, c), children));
+    }
+
+    /*
+     * Aligns gaps with the whole subtree of j
+     */
+    private void insertedTree(int j,
+            List<Tree<AlignedNode<String, String>>> aligned,
+            ArrayDeque<Step> steps) {
+        List<Tree<AlignedNode<String, String>>> children
+                = alignedNode(EncodedTree.NONE, j, aligned);
+        for (int c = this.t2.degree(j) - 1; c >= 0; c--)
+            steps.push(Step.inserted(this.t2.child(j, c), children));
+    }
+
+    /*
+     * Adds to the given list a new node aligning i and j, and returns the
+     * list of its children, still empty
+     */
+    private List<Tree<AlignedNode<String, String>>> alignedNode(int i, int j,
+            List<Tree<AlignedNode<String, String>>> aligned) {
+        AlignedNode<String, String> value = new AlignedNode<>();
+        if (i != EncodedTree.NONE)
+            value.setLeftNode(this.nodes1[i]);
+        if (j != EncodedTree.NONE)
+            value.setRightNode(this.nodes2[j]);
+        List<Tree<AlignedNode<String, String>>> children = new ArrayList<>(2);
+        Tree<AlignedNode<String, String>> node = new Tree<>();
+        node.setValue(value);
+        node.replaceChildrenListBy(children);
+        aligned.add(node);
+        return children;
+    }
+
+    /*
+     * Service class for holding a step of the reconstruction of an alignment
+     * still to be done, and the list where it adds the aligned nodes
+     */
+    private static class Step {
+        private static final int ALIGNED_TREES = 0;
+        private static final int ALIGNED_FORESTS = 1;
+        private static final int DELETED_TREE = 2;
+        private static final int INSERTED_TREE = 3;
+        private static final int DELETED_ROOT = 4;
+        private static final int INSERTED_ROOT = 5;
+
+        private final int kind;
+        private final int i;
+        private final int s1;
+        private final int e1;
+        private final int j;
+        private final int s2;
+        private final int e2;
+        private final double[] forests;
+        private final List<Tree<AlignedNode<String, String>>> aligned;
+
+        private Step(int kind, int i, int s1, int e1, int j, int s2, int e2,
+                double[] forests,
+                List<Tree<AlignedNode<String, String>>> aligned) {
+            this.kind = kind;
+            this.i = i;
+            this.s1 = s1;
+            this.e1 = e1;
+            this.j = j;
+            this.s2 = s2;
+            this.e2 = e2;
+            this.forests = forests;
+            this.aligned = aligned;
+        }
+
+        private static Step trees(int i, int j,
+                List<Tree<AlignedNode<String, String>>> aligned) {
+            return new Step(ALIGNED_TREES, i, 0, 0, j, 0, 0, null,
+                    aligned);
+        }
+
+        private static Step forests(int i, int s1, int e1, int j, int s2,
+                int e2, double[] forests,
+                List<Tree<AlignedNode<String, String>>> aligned) {
+            return new Step(ALIGNED_FORESTS, i, s1, e1, j, s2, e2, forests,
+                    aligned);
+        }
+
+        private static Step deleted(int i,
+                List<Tree<AlignedNode<String, String>>> aligned) {
+            return new Step(DELETED_TREE, i, 0, 0, EncodedTree.NONE, 0, 0,
+                    null, aligned);
+        }
+
+        private static Step inserted(int j,
+                List<Tree<AlignedNode<String, String>>> aligned) {
+            return new Step(INSERTED_TREE, EncodedTree.NONE, 0, 0, j, 0, 0,
+                    null, aligned);
+        }
+
+        private static Step deletedRoot(int a, int j, int s2, int e2,
+                List<Tree<AlignedNode<String, String>>> aligned) {
+            return new Step(DELETED_ROOT, a, 0, 0, j, s2, e2, null, aligned);
+        }
+
+        private static Step insertedRoot(int i, int s1, int e1, int b,
+                List<Tree<AlignedNode<String, String>>> aligned) {
+            return new Step(INSERTED_ROOT, i, s1, e1, b, 0, 0, null, aligned);
+        }
+    }
+
+    /*
+     * Service class for holding a tree with at most two children per node,
+     * numbered in post-order, so the root is the last node and every node
+     * comes after its children. The nodes are scored by their opcodes and
+     * numbers of crossings. The tree is encoded either from a Tree<String>,
+     * whose nodes are kept and whose labels are classified once by the
+     * scoring function, or from an array encoded structural tree, whose
+     * Tree<String> view is only created when its nodes are requested.
+     */
+    private static class EncodedTree {
+        private static final int NONE = -1;
+
+        private final byte[] opcodes;
+        private final int[] crossings;
+        private final int[] children;
+        private final int[] degrees;
+        private final Tree<String>[] nodes;
+        private final CompactStructuralTree compactTree;
+        private final int[] compactNodes;
+
+        @SuppressWarnings("unchecked")
+        private EncodedTree(Tree<String> root, ScoringFunction f) {
+            // reversing a pre-order visit that visits the right child first
+            // gives the post-order
+            ArrayList<Tree<String>> order = new ArrayList<>();
+            ArrayDeque<Tree<String>> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Tree<String> node = stack.pop();
+                order.add(node);
+                for (Tree<String> child : node.getChildren())
+                    stack.push(child);
+            }
+            int size = order.size();
+            this.nodes = new Tree[size];
+            this.opcodes = new byte[size];
+            this.crossings = new int[size];
+            this.children = new int[2 * size];
+            this.degrees = new int[size];
+            this.compactTree = null;
+            this.compactNodes = null;
+            // the subtree of a node is the range of the nodes before it of
+            // its size, and the last child of a node comes just before it
+            int[] sizes = new int[size];
+            for (int node = 0; node < size; node++) {
+                this.nodes[node] = order.get(size - 1 - node);
+                String label = this.nodes[node].getValue();
+                this.opcodes[node] = f.getOpcode(label);
+                this.crossings[node] = f.getCrossings(label);
+                this.degrees[node] = this.nodes[node].getChildren().size();
+                int child = node - 1;
+                for (int c = this.degrees[node] - 1; c >= 0; c--) {
+                    this.children[2 * node + c] = child;
+                    child -= sizes[child];
+                }
+                sizes[node] = node - child;
+            }
+        }
+
+        private EncodedTree(CompactStructuralTree tree) {
+            int size = tree.size();
+            this.nodes = null;
+            this.opcodes = new byte[size];
+            this.crossings = new int[size];
+            this.children = new int[2 * size];
+            this.degrees = new int[size];
+            this.compactTree = tree;
+            this.compactNodes = new int[size];
+            // reversing a pre-order visit that visits the right child first
+            // gives the post-order
+            int[] stack = new int[size];
+            int top = 0;
+            stack[top++] = tree.getRoot();
+            int next = size;
+            while (top > 0) {
+                int node = stack[--top];
+                this.compactNodes[--next] = node;
+                if (!tree.isLeaf(node)) {
+                    stack[top++] = tree.getLeftChild(node);
+                    stack[top++] = tree.getRightChild(node);
+                }
+            }
+            // the indexes of the encoded nodes, by compact node
+            int[] indexes = new int[size];
+            for (int node = 0; node < size; node++)
+                indexes[this.compactNodes[node]] = node;
+            for (int node = 0; node < size; node++) {
+                int compactNode = this.compactNodes[node];
+                this.opcodes[node] = tree.getOpcode(compactNode);
+                if (this.opcodes[node] == Operators.CROSSING_OPCODE)
+                    this.crossings[node] = tree.getCrossings(compactNode);
+                if (!tree.isLeaf(compactNode)) {
+                    this.degrees[node] = 2;
+                    this.children[2 * node] = indexes[tree
+                            .getLeftChild(compactNode)];
+                    this.children[2 * node + 1] = indexes[tree
+                            .getRightChild(compactNode)];
+                }
+            }
+        }
+
+        private int size() {
+            return this.degrees.length;
+        }
+
+        private int degree(int node) {
+            return this.degrees[node];
+        }
+
+        private int child(int node, int c) {
+            return this.children[2 * node + c];
+        }
+
+        /*
+         * Returns the nodes of the tree, creating the view of an array
+         * encoded tree
+         */
+        @SuppressWarnings("unchecked")
+        private Tree<String>[] getNodes() {
+            if (this.nodes != null)
+                return this.nodes;
+            Tree<String>[] views = this.compactTree.toTreeNodes();
+            Tree<String>[] nodes = new Tree[views.length];
+            for (int node = 0; node < nodes.length; node++)
+                nodes[node] = views[this.compactNodes[node]];
+            return nodes;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.contact.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Growable buffer of bonds stored as pairs of primitive ints. The distance kernels stream the bonds they find into the
+ * buffer, so that the memory needed to find the bond list is proportional to the number of bonds instead of to the
+ * size of the contact matrix.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class BondBuffer {
+
+    private int[] pairs;
+    private int size;
+
+    /**
+     * Creates a new empty buffer.
+     */
+    public BondBuffer() {
+        this.pairs = new int[32];
+        this.size = 0;
+    }
+
+    /**
+     * Appends a bond to the buffer.
+     * @param i first index of the bond
+     * @param j second index of the bond
+     */
+    public void add(int i, int j) {
+        if (2 * this.size == this.pairs.length)
+            this.pairs = Arrays.copyOf(this.pairs, 2 * this.pairs.length);
+        this.pairs[2 * this.size] = i;
+        this.pairs[2 * this.size + 1] = j;
+        this.size++;
+    }
+
+    /**
+     * Appends all the bonds of another buffer, in the same order.
+     * @param bonds the buffer whose bonds are appended
+     */
+    public void addAll(BondBuffer bonds) {
+        int length = 2 * (this.size + bonds.size);
+        if (length > this.pairs.length)
+            this.pairs = Arrays.copyOf(this.pairs, Math.max(length, 2 * this.pairs.length));
+        System.arraycopy(bonds.pairs, 0, this.pairs, 2 * this.size, 2 * bonds.size);
+        this.size += bonds.size;
+    }
+
+    /**
+     * @return the number of bonds in the buffer
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param k position of the bond in the buffer
+     * @return the first index of the k-th bond
+     */
+    public int getFirst(int k) {
+        return this.pairs[2 * k];
+    }
+
+    /**
+     * @param k position of the bond in the buffer
+     * @return the second index of the k-th bond
+     */
+    public int getSecond(int k) {
+        return this.pairs[2 * k + 1];
+    }
+
+    /**
+     * Returns the bonds of the buffer as a bond list, in the order they were added.
+     * @return the bond list
+     */
+    public ArrayList<Pair<Integer>> toBondList() {
+        ArrayList<Pair<Integer>> bondList = new ArrayList<>(this.size);
+        for (int k = 0; k < this.size; k++)
+            bondList.add(new Pair<>(this.pairs[2 * k], this.pairs[2 * k + 1]));
+        return bondList;
+    }
+
+}
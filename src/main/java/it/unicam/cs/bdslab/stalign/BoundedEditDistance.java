@@ -0,0 +1,157 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import at.unisalzburg.dbresearch.apted.costmodel.PerEditOperationStringNodeDataCostModel;
+import at.unisalzburg.dbresearch.apted.distance.APTED;
+import at.unisalzburg.dbresearch.apted.node.Node;
+import at.unisalzburg.dbresearch.apted.node.StringNodeData;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Edit distance of two structural trees, in the APTED input format, that
+ * tells if the distance exceeds a maximum distance instead of computing it
+ * exactly. Since the dynamic programming of APTED cannot be stopped, the
+ * trees are first compared by the occurrences of their labels: every node
+ * whose label has fewer occurrences in the other tree must be renamed,
+ * deleted or inserted, and if this already costs more than the maximum
+ * distance APTED is not run at all.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+class BoundedEditDistance {
+
+    private final float distance;
+    private final boolean aboveMaxDistance;
+    private final boolean computed;
+
+    /**
+     * Computes the edit distance of two trees with the edit distance costs of
+     * the given scoring function.
+     *
+     * @param t1          first tree
+     * @param t2          second tree
+     * @param f           the scoring function
+     * @param maxDistance the maximum distance of interest
+     */
+    BoundedEditDistance(Node<StringNodeData> t1, Node<StringNodeData> t2,
+            ScoringFunction f, double maxDistance) {
+        float deleteCost = (float) f.getEditdistanceDeleteCost();
+        float insertCost = (float) f.getEditdistanceInsertCost();
+        float renameCost = (float) f.getEditdistanceRenameCost();
+        if (lowerBound(t1, t2, deleteCost, insertCost,
+                renameCost) > maxDistance) {
+            this.computed = false;
+            this.aboveMaxDistance = true;
+            this.distance = Float.POSITIVE_INFINITY;
+            return;
+        }
+        APTED<PerEditOperationStringNodeDataCostModel, StringNodeData> apted = new APTED<>(
+                new PerEditOperationStringNodeDataCostModel(deleteCost,
+                        insertCost, renameCost));
+        float d = apted.computeEditDistance(t1, t2);
+        this.computed = true;
+        this.aboveMaxDistance = d > maxDistance;
+        this.distance = this.aboveMaxDistance ? Float.POSITIVE_INFINITY : d;
+    }
+
+    /**
+     * @return the edit distance, or infinity if it exceeds the maximum
+     *         distance
+     */
+    float getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return true if the edit distance exceeds the maximum distance
+     */
+    boolean isAboveMaxDistance() {
+        return aboveMaxDistance;
+    }
+
+    /**
+     * @return true if APTED was run, false if the lower bound was enough to
+     *         tell that the distance exceeds the maximum distance
+     */
+    boolean isComputed() {
+        return computed;
+    }
+
+    /*
+     * Returns a lower bound of the edit distance: at most as many nodes as
+     * the common occurrences of the labels are mapped at no cost, the other
+     * nodes of the smaller tree are at best renamed, or deleted and inserted
+     * if it is cheaper, and the remaining ones are deleted or inserted.
+     */
+    static double lowerBound(Node<StringNodeData> t1,
+            Node<StringNodeData> t2, float deleteCost, float insertCost,
+            float renameCost) {
+        if (deleteCost < 0 || insertCost < 0 || renameCost < 0)
+            return 0;
+        Map<String, Integer> labels1 = countLabels(t1);
+        Map<String, Integer> labels2 = countLabels(t2);
+        int n1 = 0;
+        for (int count : labels1.values())
+            n1 += count;
+        int n2 = 0;
+        for (int count : labels2.values())
+            n2 += count;
+        int common = 0;
+        for (Map.Entry<String, Integer> e : labels1.entrySet())
+            common += Math.min(e.getValue(),
+                    labels2.getOrDefault(e.getKey(), 0));
+        int renamed = Math.min(n1, n2) - common;
+        double replace = Math.min((double) renameCost,
+                (double) deleteCost + insertCost);
+        return cost(renamed, replace)
+                + cost(n1 - common - renamed, deleteCost)
+                + cost(n2 - common - renamed, insertCost);
+    }
+
+    /*
+     * Returns the cost of the given number of operations, which is zero if
+     * there are no operations even if the cost of one of them is infinite
+     */
+    private static double cost(int operations, double cost) {
+        return operations == 0 ? 0 : operations * cost;
+    }
+
+    /*
+     * Returns the number of occurrences of each label in a tree
+     */
+    private static Map<String, Integer> countLabels(Node<StringNodeData> t) {
+        Map<String, Integer> labels = new HashMap<>();
+        ArrayDeque<Node<StringNodeData>> stack = new ArrayDeque<>();
+        stack.push(t);
+        while (!stack.isEmpty()) {
+            Node<StringNodeData> node = stack.pop();
+            labels.merge(node.getNodeData().getLabel(), 1, Integer::sum);
+            for (Node<StringNodeData> child : node.getChildren())
+                stack.push(child);
+        }
+        return labels;
+    }
+}
@@ -85,7 +85,10 @@ public interface CommandLineMessages {
             + "in folder \"tRNA\" as above but produce the description"
             + " of processed structures in file \"structs.csv\" and comparison "
             + "results in file \"cmpr.csv\". Instead of using \"STAlign-config.txt\" "
-            + "default configuration file, use \"my-config.txt\" as configuration file.\n\n";
+            + "default configuration file, use \"my-config.txt\" as configuration file.\n\n"
+            + LAUNCH_COMMAND_WB + " -f examples/tRNA -md 500\n\nProcesses all the files "
+            + "in folder \"tRNA\" as above but outputs only the pairs whose ASA Distance is "
+            + "at most 500. The pairs whose distance certainly exceeds it are not aligned.\n\n";
 
     public static String COPYRIGHT = "STAlign Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino,"
             + " Italy - http://www.emanuelamerelli.eu/bigdata/\n\n";
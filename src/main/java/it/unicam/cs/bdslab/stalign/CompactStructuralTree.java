@@ -0,0 +1,329 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import fr.orsay.lri.varna.models.treealign.Tree;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Array encoded structural tree, as built by {@link TERSAlignTree}. Every node
+ * is identified by an index, and the nodes are numbered in pre-order, so the
+ * root is the node 0 and every node comes before its children. The operator
+ * of a node is stored as one of the byte opcodes of {@link Operators}, and its
+ * arguments as plain ints: the endpoints of the hairpin for hairpin nodes and
+ * the number of crossings for crossing nodes. Every node is either a hairpin,
+ * which is a leaf, or an operator with a left and a right child. Labels are
+ * only created on request. The alignment, statistics and output classes take
+ * this tree directly, and {@link #toTree()} creates a {@code Tree<String>}
+ * view of it only for the code that needs one.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class CompactStructuralTree {
+
+    /**
+     * Index used for missing parents and children.
+     */
+    public static final int NONE = -1;
+
+    private static final String[] LABELS = { Operators.CONCATENATION_LABEL,
+            Operators.CROSSING_LABEL, Operators.NESTING_LABEL,
+            Operators.MEETING_LABEL, Operators.ENDING_LABEL,
+            Operators.STARTING_LABEL, Operators.DIAMOND_LABEL,
+            Operators.ALGEBRAIC_TREE_ROOT_LABEL, Operators.HAIRPIN_LABEL };
+
+    private final byte[] opcodes;
+    private final int[] parents;
+    private final int[] leftChildren;
+    private final int[] rightChildren;
+    private final int[] firstArguments;
+    private final int[] secondArguments;
+
+    private CompactStructuralTree(int size) {
+        this.opcodes = new byte[size];
+        this.parents = new int[size];
+        this.leftChildren = new int[size];
+        this.rightChildren = new int[size];
+        this.firstArguments = new int[size];
+        this.secondArguments = new int[size];
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int size() {
+        return this.opcodes.length;
+    }
+
+    /**
+     * @return the index of the root
+     */
+    public int getRoot() {
+        return 0;
+    }
+
+    /**
+     * @param node a node
+     * @return the opcode of the node
+     */
+    public byte getOpcode(int node) {
+        return this.opcodes[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the parent of the node, or {@link #NONE} for the root
+     */
+    public int getParent(int node) {
+        return this.parents[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the left child of the node, or {@link #NONE} for a leaf
+     */
+    public int getLeftChild(int node) {
+        return this.leftChildren[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the right child of the node, or {@link #NONE} for a leaf
+     */
+    public int getRightChild(int node) {
+        return this.rightChildren[node];
+    }
+
+    /**
+     * @param node a node
+     * @return true if the node has no children
+     */
+    public boolean isLeaf(int node) {
+        return this.leftChildren[node] == NONE;
+    }
+
+    /**
+     * @param node a hairpin node
+     * @return the left endpoint of the hairpin
+     */
+    public int getHairpinStart(int node) {
+        return this.firstArguments[node];
+    }
+
+    /**
+     * @param node a hairpin node
+     * @return the right endpoint of the hairpin
+     */
+    public int getHairpinEnd(int node) {
+        return this.secondArguments[node];
+    }
+
+    /**
+     * @param node a crossing node
+     * @return the number of crossings of the node
+     */
+    public int getCrossings(int node) {
+        return this.firstArguments[node];
+    }
+
+    /**
+     * Returns the label of a node in the {@code Tree<String>} form, e.g.
+     * "L(12,87)" for a hairpin or "(CROS,3)" for a crossing.
+     * 
+     * @param node a node
+     * @return the label of the node
+     */
+    public String getLabel(int node) {
+        byte opcode = this.opcodes[node];
+        if (opcode == Operators.HAIRPIN_OPCODE)
+            return Operators.HAIRPIN_LABEL + "(" + this.firstArguments[node]
+                    + "," + this.secondArguments[node] + ")";
+        if (opcode == Operators.CROSSING_OPCODE)
+            return "(" + Operators.CROSSING_LABEL + ","
+                    + this.firstArguments[node] + ")";
+        return LABELS[opcode];
+    }
+
+    /**
+     * Creates a {@code Tree<String>} with the same structure and the labels
+     * of this tree. The children of an operator are its left and its right
+     * child, in this order. A new tree is created at each call.
+     * 
+     * @return the tree
+     */
+    public Tree<String> toTree() {
+        return toTreeNodes()[getRoot()];
+    }
+
+    /*
+     * Creates a {@code Tree<String>} as toTree() does, returning all its nodes
+     * indexed as the nodes of this tree
+     */
+    @SuppressWarnings("unchecked")
+    Tree<String>[] toTreeNodes() {
+        int size = size();
+        Tree<String>[] nodes = new Tree[size];
+        for (int node = 0; node < size; node++) {
+            nodes[node] = new Tree<>();
+            nodes[node].setValue(getLabel(node));
+        }
+        // parents come before their children, so every node already exists
+        for (int node = 0; node < size; node++)
+            if (!isLeaf(node)) {
+                ArrayList<Tree<String>> children = new ArrayList<>(2);
+                children.add(nodes[this.leftChildren[node]]);
+                children.add(nodes[this.rightChildren[node]]);
+                nodes[node].replaceChildrenListBy(children);
+            }
+        return nodes;
+    }
+
+    /*
+     * Builder of a structural tree. Nodes are allocated with an atomic
+     * counter, so that different threads can build disjoint subtrees, each
+     * one writing only its own nodes. The capacity must be at least the
+     * number of allocated nodes. A builder can be reset and used again for
+     * another tree, reusing its arrays.
+     */
+    static class Builder {
+
+        private final AtomicInteger size = new AtomicInteger();
+        private byte[] opcodes = new byte[0];
+        private int[] leftChildren = new int[0];
+        private int[] rightChildren = new int[0];
+        private int[] firstArguments = new int[0];
+        private int[] secondArguments = new int[0];
+        private int[] stack = new int[0];
+        private int[] parents = new int[0];
+
+        void reset(int capacity) {
+            this.size.set(0);
+            if (this.opcodes.length < capacity) {
+                this.opcodes = new byte[capacity];
+                this.leftChildren = new int[capacity];
+                this.rightChildren = new int[capacity];
+                this.firstArguments = new int[capacity];
+                this.secondArguments = new int[capacity];
+                this.stack = new int[capacity];
+                this.parents = new int[capacity];
+            }
+        }
+
+        int newNode() {
+            int node = this.size.getAndIncrement();
+            if (node >= this.opcodes.length)
+                throw new IllegalStateException(
+                        "Structural tree capacity exceeded");
+            setOperator(node, (byte) 0, NONE, NONE);
+            return node;
+        }
+
+        void setOperator(int node, byte opcode, int left, int right) {
+            this.opcodes[node] = opcode;
+            this.leftChildren[node] = left;
+            this.rightChildren[node] = right;
+            this.firstArguments[node] = 0;
+            this.secondArguments[node] = 0;
+        }
+
+        void setCrossing(int node, int crossings, int left, int right) {
+            setOperator(node, Operators.CROSSING_OPCODE, left, right);
+            this.firstArguments[node] = crossings;
+        }
+
+        void setHairpin(int node, int start, int end) {
+            setOperator(node, Operators.HAIRPIN_OPCODE, NONE, NONE);
+            this.firstArguments[node] = start;
+            this.secondArguments[node] = end;
+        }
+
+        /*
+         * Sets the given node to a copy of the subtree of another tree rooted
+         * in the given source node, allocating the nodes of the copy
+         */
+        void copySubtree(int node, CompactStructuralTree source,
+                int sourceNode, int sourceSize) {
+            // the subtree is numbered in pre-order from the source node, so
+            // the other nodes are allocated as a block in the same order
+            int base = this.size.getAndAdd(sourceSize - 1) - 1;
+            if (base + sourceSize > this.opcodes.length)
+                throw new IllegalStateException(
+                        "Structural tree capacity exceeded");
+            for (int k = 0; k < sourceSize; k++) {
+                int i = sourceNode + k;
+                int j = k == 0 ? node : base + k;
+                this.opcodes[j] = source.opcodes[i];
+                this.firstArguments[j] = source.firstArguments[i];
+                this.secondArguments[j] = source.secondArguments[i];
+                int left = source.leftChildren[i];
+                int right = source.rightChildren[i];
+                this.leftChildren[j] = left == NONE ? NONE
+                        : base + left - sourceNode;
+                this.rightChildren[j] = right == NONE ? NONE
+                        : base + right - sourceNode;
+            }
+        }
+
+        /*
+         * Returns the tree rooted in the given node, with the nodes
+         * renumbered in pre-order
+         */
+        CompactStructuralTree build(int root) {
+            CompactStructuralTree tree = new CompactStructuralTree(
+                    this.size.get());
+            int[] stack = this.stack;
+            int[] parents = this.parents;
+            int top = 0;
+            stack[top] = root;
+            parents[top++] = NONE;
+            int next = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                int parent = parents[top];
+                int index = next++;
+                tree.opcodes[index] = this.opcodes[node];
+                tree.firstArguments[index] = this.firstArguments[node];
+                tree.secondArguments[index] = this.secondArguments[node];
+                tree.parents[index] = parent;
+                tree.leftChildren[index] = NONE;
+                tree.rightChildren[index] = NONE;
+                if (parent != NONE) {
+                    if (tree.leftChildren[parent] == NONE)
+                        tree.leftChildren[parent] = index;
+                    else
+                        tree.rightChildren[parent] = index;
+                }
+                if (this.leftChildren[node] != NONE) {
+                    // the left child is pushed last to be numbered first
+                    stack[top] = this.rightChildren[node];
+                    parents[top++] = index;
+                    stack[top] = this.leftChildren[node];
+                    parents[top++] = index;
+                }
+            }
+            return tree;
+        }
+    }
+
+}
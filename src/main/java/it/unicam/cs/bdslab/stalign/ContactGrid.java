@@ -0,0 +1,401 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.contact.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Uniform spatial grid (cell list) used to find all the pairs of points closer than a threshold without computing the
+ * whole distance matrix. Points are binned into cubic cells whose side is at least the threshold, so that every contact
+ * of a point lies in its own cell or in one of the 26 neighbouring ones. For globular structures each cell holds a
+ * bounded number of points and the bond list is found in roughly linear time. The scans can be split by rows among
+ * the workers of a {@link ForkJoinPool}: blocks of rows are scanned independently and concatenated in order, so the
+ * result does not depend on the number of workers.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class ContactGrid {
+
+    /*
+     * Upper bound to the average number of cells per point, to keep the grid small for sparse or elongated structures
+     */
+    private static final int MAX_CELLS_PER_POINT = 8;
+
+    /*
+     * Maximum number of rows scanned by a single task of a parallel scan
+     */
+    private static final int BLOCK_SIZE = 512;
+
+    private final CoordinateBuffer coordinates;
+    private final double cellSize;
+    private final double minX, minY, minZ;
+    private final double side;
+    private final int nx, ny, nz;
+    private final int[] cellStart;
+    private final int[] cellPoints;
+
+    /**
+     * Bins the given points into a grid whose cells can answer contact queries for every threshold up to
+     * {@code cellSize}.
+     * @param coordinates the points to bin
+     * @param cellSize the maximum threshold that will be queried on this grid
+     */
+    public ContactGrid(CoordinateBuffer coordinates, double cellSize) {
+        this.coordinates = coordinates;
+        this.cellSize = cellSize;
+        int n = coordinates.size();
+        double[] x = coordinates.getX(), y = coordinates.getY(), z = coordinates.getZ();
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, x[i]); maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]); maxY = Math.max(maxY, y[i]);
+            minZ = Math.min(minZ, z[i]); maxZ = Math.max(maxZ, z[i]);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        // a slightly larger side keeps pairs exactly at the threshold in adjacent cells despite rounding
+        double side = cellSize > 0 && cellSize < Double.POSITIVE_INFINITY ? cellSize * (1 + 1e-9) : 1;
+        long maxCells = Math.max(1L, (long) n * MAX_CELLS_PER_POINT);
+        boolean finiteExtent = n > 0 && Double.isFinite(maxX - minX) && Double.isFinite(maxY - minY) && Double.isFinite(maxZ - minZ);
+        int nx = 1, ny = 1, nz = 1;
+        if (finiteExtent) {
+            while (true) {
+                double cx = Math.floor((maxX - minX) / side) + 1;
+                double cy = Math.floor((maxY - minY) / side) + 1;
+                double cz = Math.floor((maxZ - minZ) / side) + 1;
+                if (cx * cy * cz <= maxCells) {
+                    nx = (int) cx;
+                    ny = (int) cy;
+                    nz = (int) cz;
+                    break;
+                }
+                side *= 2;
+            }
+        }
+        this.side = side;
+        this.nx = nx;
+        this.ny = ny;
+        this.nz = nz;
+        // counting sort of the points by cell, points of the same cell stay in increasing order
+        int[] cellOf = new int[n];
+        this.cellStart = new int[nx * ny * nz + 1];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = finiteExtent ? this.cellIndex(this.cellCoordinate(x[i], minX, nx), this.cellCoordinate(y[i], minY, ny), this.cellCoordinate(z[i], minZ, nz)) : 0;
+            this.cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < nx * ny * nz; c++)
+            this.cellStart[c + 1] += this.cellStart[c];
+        this.cellPoints = new int[n];
+        int[] next = Arrays.copyOf(this.cellStart, nx * ny * nz);
+        for (int i = 0; i < n; i++)
+            this.cellPoints[next[cellOf[i]]++] = i;
+    }
+
+    /**
+     * Returns the bond list of the points closer than (or exactly at) the threshold. Bonds are 1-based pairs
+     * {@code (i, j)} with {@code i < j}, sorted by {@code i} and then by {@code j}, i.e. the same list obtained by
+     * scanning the upper triangle of the contact matrix.
+     * @param threshold the contact threshold, must not exceed the cell size of the grid
+     * @return the bond list
+     */
+    public ArrayList<Pair<Integer>> getBondList(double threshold) {
+        return this.getBonds(threshold, false).toBondList();
+    }
+
+    /**
+     * Streams the bonds of the points closer than (or exactly at) the threshold into a {@link BondBuffer}, in the same
+     * order as {@link #getBondList(double)}.
+     * @param threshold the contact threshold, must not exceed the cell size of the grid
+     * @param floatPrecision true if the distances must be rounded to single precision, as in a
+     *                       {@link PackedDistanceMatrix} storing floats
+     * @return the buffer of the 1-based bonds
+     */
+    public BondBuffer getBonds(double threshold, boolean floatPrecision) {
+        return this.getBonds(threshold, floatPrecision, null);
+    }
+
+    /**
+     * Streams the bonds of the points closer than (or exactly at) the threshold into a {@link BondBuffer}, in the same
+     * order as {@link #getBondList(double)}, splitting the rows among the workers of the given pool.
+     * @param threshold the contact threshold, must not exceed the cell size of the grid
+     * @param floatPrecision true if the distances must be rounded to single precision, as in a
+     *                       {@link PackedDistanceMatrix} storing floats
+     * @param pool the pool running the scan, null to scan on the calling thread
+     * @return the buffer of the 1-based bonds
+     */
+    public BondBuffer getBonds(double threshold, boolean floatPrecision, ForkJoinPool pool) {
+        this.checkThreshold(threshold);
+        int n = this.coordinates.size();
+        if (pool == null || n <= BLOCK_SIZE)
+            return this.scanBonds(threshold, floatPrecision, 0, n);
+        return pool.invoke(new BondsTask(threshold, floatPrecision, 0, n));
+    }
+
+    /*
+     * Scans the rows [from, to) for bonds
+     */
+    private BondBuffer scanBonds(double threshold, boolean floatPrecision, int from, int to) {
+        BondBuffer bonds = new BondBuffer();
+        double[] x = this.coordinates.getX(), y = this.coordinates.getY(), z = this.coordinates.getZ();
+        int[] candidates = new int[16];
+        for (int i = from; i < to; i++) {
+            int cx = this.cellCoordinate(x[i], this.minX, this.nx);
+            int cy = this.cellCoordinate(y[i], this.minY, this.ny);
+            int cz = this.cellCoordinate(z[i], this.minZ, this.nz);
+            int count = 0;
+            for (int gz = Math.max(0, cz - 1); gz <= Math.min(this.nz - 1, cz + 1); gz++)
+                for (int gy = Math.max(0, cy - 1); gy <= Math.min(this.ny - 1, cy + 1); gy++)
+                    for (int gx = Math.max(0, cx - 1); gx <= Math.min(this.nx - 1, cx + 1); gx++) {
+                        int c = this.cellIndex(gx, gy, gz);
+                        for (int k = this.cellStart[c]; k < this.cellStart[c + 1]; k++) {
+                            int j = this.cellPoints[k];
+                            if (j <= i)
+                                continue;
+                            double distance = this.coordinates.getDistance(i, j);
+                            if (floatPrecision)
+                                distance = (float) distance;
+                            if (distance <= threshold) {
+                                if (count == candidates.length)
+                                    candidates = Arrays.copyOf(candidates, 2 * count);
+                                candidates[count++] = j;
+                            }
+                        }
+                    }
+            Arrays.sort(candidates, 0, count);
+            for (int k = 0; k < count; k++)
+                bonds.add(i + 1, candidates[k] + 1);
+        }
+        return bonds;
+    }
+
+    /**
+     * Returns the neighbour lists of all the points up to the threshold, each sorted by increasing distance and then by
+     * index.
+     * @param threshold the maximum threshold of the lists, must not exceed the cell size of the grid
+     * @param floatPrecision true if the distances must be rounded to single precision, as in a
+     *                       {@link PackedDistanceMatrix} storing floats
+     * @return the neighbour lists
+     */
+    public NeighbourList getNeighbourList(double threshold, boolean floatPrecision) {
+        return this.getNeighbourList(threshold, floatPrecision, null);
+    }
+
+    /**
+     * Returns the neighbour lists of all the points up to the threshold, each sorted by increasing distance and then by
+     * index, splitting the rows among the workers of the given pool.
+     * @param threshold the maximum threshold of the lists, must not exceed the cell size of the grid
+     * @param floatPrecision true if the distances must be rounded to single precision, as in a
+     *                       {@link PackedDistanceMatrix} storing floats
+     * @param pool the pool running the scan, null to scan on the calling thread
+     * @return the neighbour lists
+     */
+    public NeighbourList getNeighbourList(double threshold, boolean floatPrecision, ForkJoinPool pool) {
+        this.checkThreshold(threshold);
+        int n = this.coordinates.size();
+        Neighbours neighbours;
+        if (pool == null || n <= BLOCK_SIZE)
+            neighbours = this.scanNeighbours(threshold, floatPrecision, 0, n);
+        else
+            neighbours = pool.invoke(new NeighboursTask(threshold, floatPrecision, 0, n));
+        int[] rowStart = new int[n + 1];
+        System.arraycopy(neighbours.rowEnd, 0, rowStart, 1, n);
+        return new NeighbourList(threshold, rowStart, Arrays.copyOf(neighbours.columns, neighbours.count), Arrays.copyOf(neighbours.distances, neighbours.count));
+    }
+
+    /*
+     * Scans the rows [from, to) for neighbours
+     */
+    private Neighbours scanNeighbours(double threshold, boolean floatPrecision, int from, int to) {
+        Neighbours neighbours = new Neighbours(to - from, 16);
+        double[] x = this.coordinates.getX(), y = this.coordinates.getY(), z = this.coordinates.getZ();
+        for (int i = from; i < to; i++) {
+            int cx = this.cellCoordinate(x[i], this.minX, this.nx);
+            int cy = this.cellCoordinate(y[i], this.minY, this.ny);
+            int cz = this.cellCoordinate(z[i], this.minZ, this.nz);
+            for (int gz = Math.max(0, cz - 1); gz <= Math.min(this.nz - 1, cz + 1); gz++)
+                for (int gy = Math.max(0, cy - 1); gy <= Math.min(this.ny - 1, cy + 1); gy++)
+                    for (int gx = Math.max(0, cx - 1); gx <= Math.min(this.nx - 1, cx + 1); gx++) {
+                        int c = this.cellIndex(gx, gy, gz);
+                        for (int k = this.cellStart[c]; k < this.cellStart[c + 1]; k++) {
+                            int j = this.cellPoints[k];
+                            if (j <= i)
+                                continue;
+                            double distance = this.coordinates.getDistance(i, j);
+                            if (floatPrecision)
+                                distance = (float) distance;
+                            if (distance <= threshold)
+                                neighbours.add(j, distance);
+                        }
+                    }
+            sortRow(neighbours.columns, neighbours.distances, i == from ? 0 : neighbours.rowEnd[i - from - 1], neighbours.count);
+            neighbours.rowEnd[i - from] = neighbours.count;
+        }
+        return neighbours;
+    }
+
+    private void checkThreshold(double threshold) {
+        if (threshold > this.cellSize)
+            throw new IllegalArgumentException("Threshold " + threshold + " exceeds the grid cell size " + this.cellSize);
+    }
+
+    /*
+     * Sorts the neighbours in [from, to) by distance and then by index. Rows hold the few atoms within the
+     * threshold, so an insertion sort in place is enough.
+     */
+    private static void sortRow(int[] columns, double[] distances, int from, int to) {
+        for (int k = from + 1; k < to; k++) {
+            int column = columns[k];
+            double distance = distances[k];
+            int h = k - 1;
+            while (h >= from && (distances[h] > distance || distances[h] == distance && columns[h] > column)) {
+                columns[h + 1] = columns[h];
+                distances[h + 1] = distances[h];
+                h--;
+            }
+            columns[h + 1] = column;
+            distances[h + 1] = distance;
+        }
+    }
+
+    /*
+     * Index of the cell containing the given coordinate along one axis, clamped into the grid. Non-finite
+     * coordinates end up in the first cell, where they never match anything anyway.
+     */
+    private int cellCoordinate(double value, double min, int cells) {
+        int c = (int) ((value - min) / this.side);
+        return Math.max(0, Math.min(cells - 1, c));
+    }
+
+    private int cellIndex(int gx, int gy, int gz) {
+        return gx + this.nx * (gy + this.ny * gz);
+    }
+
+    /*
+     * Neighbours found in a block of consecutive rows, in compressed sparse row form
+     */
+    private static class Neighbours {
+
+        private final int[] rowEnd;
+        private int[] columns;
+        private double[] distances;
+        private int count;
+
+        Neighbours(int rows, int capacity) {
+            this.rowEnd = new int[rows];
+            this.columns = new int[capacity];
+            this.distances = new double[capacity];
+        }
+
+        void add(int column, double distance) {
+            if (this.count == this.columns.length) {
+                this.columns = Arrays.copyOf(this.columns, Math.max(16, 2 * this.count));
+                this.distances = Arrays.copyOf(this.distances, this.columns.length);
+            }
+            this.columns[this.count] = column;
+            this.distances[this.count++] = distance;
+        }
+
+        /*
+         * Returns the rows of this block followed by the rows of the next one
+         */
+        Neighbours append(Neighbours next) {
+            Neighbours merged = new Neighbours(this.rowEnd.length + next.rowEnd.length, this.count + next.count);
+            System.arraycopy(this.rowEnd, 0, merged.rowEnd, 0, this.rowEnd.length);
+            for (int k = 0; k < next.rowEnd.length; k++)
+                merged.rowEnd[this.rowEnd.length + k] = this.count + next.rowEnd[k];
+            System.arraycopy(this.columns, 0, merged.columns, 0, this.count);
+            System.arraycopy(this.distances, 0, merged.distances, 0, this.count);
+            System.arraycopy(next.columns, 0, merged.columns, this.count, next.count);
+            System.arraycopy(next.distances, 0, merged.distances, this.count, next.count);
+            merged.count = this.count + next.count;
+            return merged;
+        }
+    }
+
+    /*
+     * Scans the bonds of the rows [from, to), splitting them in halves until they fit in a block
+     */
+    private class BondsTask extends RecursiveTask<BondBuffer> {
+
+        private final double threshold;
+        private final boolean floatPrecision;
+        private final int from;
+        private final int to;
+
+        BondsTask(double threshold, boolean floatPrecision, int from, int to) {
+            this.threshold = threshold;
+            this.floatPrecision = floatPrecision;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BondBuffer compute() {
+            if (this.to - this.from <= BLOCK_SIZE)
+                return ContactGrid.this.scanBonds(this.threshold, this.floatPrecision, this.from, this.to);
+            int middle = (this.from + this.to) >>> 1;
+            BondsTask left = new BondsTask(this.threshold, this.floatPrecision, this.from, middle);
+            left.fork();
+            BondBuffer right = new BondsTask(this.threshold, this.floatPrecision, middle, this.to).compute();
+            BondBuffer bonds = left.join();
+            bonds.addAll(right);
+            return bonds;
+        }
+    }
+
+    /*
+     * Scans the neighbours of the rows [from, to), splitting them in halves until they fit in a block
+     */
+    private class NeighboursTask extends RecursiveTask<Neighbours> {
+
+        private final double threshold;
+        private final boolean floatPrecision;
+        private final int from;
+        private final int to;
+
+        NeighboursTask(double threshold, boolean floatPrecision, int from, int to) {
+            this.threshold = threshold;
+            this.floatPrecision = floatPrecision;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Neighbours compute() {
+            if (this.to - this.from <= BLOCK_SIZE)
+                return ContactGrid.this.scanNeighbours(this.threshold, this.floatPrecision, this.from, this.to);
+            int middle = (this.from + this.to) >>> 1;
+            NeighboursTask left = new NeighboursTask(this.threshold, this.floatPrecision, this.from, middle);
+            left.fork();
+            Neighbours right = new NeighboursTask(this.threshold, this.floatPrecision, middle, this.to).compute();
+            return left.join().append(right);
+        }
+    }
+
+}
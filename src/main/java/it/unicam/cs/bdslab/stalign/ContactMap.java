@@ -0,0 +1,105 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.contact.Pair;
+
+import java.util.ArrayList;
+
+/**
+ * Bit-packed contact map. Only the strict upper triangle is stored, one bit per pair of residues, since the map is
+ * symmetric and a residue is never in contact with itself.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class ContactMap {
+
+    private final int size;
+    private final long[] bits;
+
+    /**
+     * Builds the contact map of the given distances: two different residues are in contact if their distance is less
+     * than or equal to the threshold.
+     * @param distanceMatrix the distances between the residues
+     * @param threshold the contact threshold
+     */
+    public ContactMap(DistanceMatrix distanceMatrix, double threshold) {
+        this.size = distanceMatrix.size();
+        this.bits = new long[(int) ((PackedDistanceMatrix.packedLength(this.size) + 63) >>> 6)];
+        double[] row = new double[this.size];
+        long index = 0;
+        for (int i = 0; i < this.size; i++) {
+            distanceMatrix.getRow(i, i + 1, row);
+            for (int j = i + 1; j < this.size; j++, index++)
+                if (row[j - i - 1] <= threshold)
+                    this.bits[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    /**
+     * @return the number of rows (and columns) of the map
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Tells if two residues are in contact.
+     * @param i 0-based index of the first residue
+     * @param j 0-based index of the second residue
+     * @return true if the residues are different and in contact
+     */
+    public boolean get(int i, int j) {
+        if (i == j)
+            return false;
+        long index = i < j ? PackedDistanceMatrix.packedIndex(this.size, i, j) : PackedDistanceMatrix.packedIndex(this.size, j, i);
+        return (this.bits[(int) (index >>> 6)] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the 1-based bond list of the map, sorted by first and then by second index.
+     * @return bond list
+     */
+    public ArrayList<Pair<Integer>> getBondList() {
+        ArrayList<Pair<Integer>> bondList = new ArrayList<>();
+        for (int i = 0; i < this.size; i++)
+            for (int j = i + 1; j < this.size; j++)
+                if (this.get(i, j))
+                    bondList.add(new Pair<>(i + 1, j + 1));
+        return bondList;
+    }
+
+    /**
+     * Expands the map into a full square array, as returned by {@link TertiaryStructure#getContactMatrix()}.
+     * @return the full contact matrix
+     */
+    public boolean[][] toArray() {
+        boolean[][] matrix = new boolean[this.size][this.size];
+        for (int i = 0; i < this.size; i++)
+            for (int j = i + 1; j < this.size; j++) {
+                matrix[i][j] = this.get(i, j);
+                matrix[j][i] = matrix[i][j];
+            }
+        return matrix;
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.Calc;
+import org.biojava.nbio.structure.Group;
+
+import java.util.List;
+
+/**
+ * Struct-of-arrays copy of the coordinates of a set of atoms. The coordinates are extracted once from the BioJava atoms
+ * so that the distance kernels can work on contiguous primitive arrays instead of dereferencing an {@link Atom} per
+ * access.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class CoordinateBuffer {
+
+    /*
+     * The vector kernel is used if the module jdk.incubator.vector has been added at launch (java --add-modules
+     * jdk.incubator.vector) and it has not been disabled with -Dstalign.vector=false
+     */
+    private static final boolean VECTOR_KERNEL_ENABLED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equalsIgnoreCase(System.getProperty("stalign.vector"));
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+
+    /**
+     * Creates a new buffer holding the coordinates of the given atoms, in the same order.
+     * @param atoms the atoms whose coordinates are copied
+     */
+    public CoordinateBuffer(Atom[] atoms) {
+        this.x = new double[atoms.length];
+        this.y = new double[atoms.length];
+        this.z = new double[atoms.length];
+        for (int i = 0; i < atoms.length; i++) {
+            this.x[i] = atoms[i].getX();
+            this.y[i] = atoms[i].getY();
+            this.z[i] = atoms[i].getZ();
+        }
+    }
+
+    /**
+     * Creates a new buffer holding the centers of mass of the given groups, in the same order. Each center of mass is
+     * computed once with {@code Calc.centerOfMass}.
+     * @param groups the groups whose centers of mass are computed
+     * @return the buffer of the centers of mass
+     */
+    public static CoordinateBuffer ofCentersOfMass(List<Group> groups) {
+        Atom[] centers = new Atom[groups.size()];
+        for (int i = 0; i < centers.length; i++)
+            centers[i] = Calc.centerOfMass(groups.get(i).getAtoms().toArray(new Atom[0]));
+        return new CoordinateBuffer(centers);
+    }
+
+    /**
+     * @return the number of points in the buffer
+     */
+    public int size() {
+        return this.x.length;
+    }
+
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    public double[] getZ() {
+        return z;
+    }
+
+    /**
+     * Returns the euclidean distance between two points of the buffer. The arithmetic is the same as
+     * {@code Calc.getDistance}, so the two methods return exactly the same value.
+     * @param i index of the first point
+     * @param j index of the second point
+     * @return the distance between the two points
+     */
+    public double getDistance(int i, int j) {
+        double dx = this.x[i] - this.x[j];
+        double dy = this.y[i] - this.y[j];
+        double dz = this.z[i] - this.z[j];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Computes the distances between point {@code i} and the points in {@code [from, to)}, with the vector kernel
+     * when available. Values are the same as {@link #getDistance(int, int)}.
+     * @param i index of the point
+     * @param from first index of the range
+     * @param to end (exclusive) of the range
+     * @param distances array receiving the distance of point {@code from + k} at position {@code k}
+     */
+    public void getDistances(int i, int from, int to, double[] distances) {
+        if (VECTOR_KERNEL_ENABLED) {
+            VectorDistanceKernel.getDistances(this.x, this.y, this.z, i, from, to, distances);
+            return;
+        }
+        for (int j = from; j < to; j++)
+            distances[j - from] = this.getDistance(i, j);
+    }
+
+    /**
+     * Finds the points in {@code [from, to)} closer than (or exactly at) the threshold from point {@code i}, with the
+     * vector kernel when available.
+     * @param i index of the point
+     * @param from first index of the range
+     * @param to end (exclusive) of the range
+     * @param threshold the contact threshold
+     * @param contacts array receiving the indexes of the points in contact, in increasing order
+     * @return the number of points in contact
+     */
+    public int getContacts(int i, int from, int to, double threshold, int[] contacts) {
+        if (VECTOR_KERNEL_ENABLED)
+            return VectorDistanceKernel.getContacts(this.x, this.y, this.z, i, from, to, threshold, contacts);
+        int count = 0;
+        for (int j = from; j < to; j++)
+            if (this.getDistance(i, j) <= threshold)
+                contacts[count++] = j;
+        return count;
+    }
+
+    /**
+     * @return true if distances are computed with the {@link VectorDistanceKernel}
+     */
+    public static boolean isVectorKernelEnabled() {
+        return VECTOR_KERNEL_ENABLED;
+    }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import java.util.Arrays;
+
+/**
+ * Counting array of a structure, used by {@link TERSAlignTree} to find the
+ * boundaries of the pseudoloops. The array is backed by a lazy segment tree
+ * keeping the minimum and the maximum of each segment, so that a count can be
+ * added to a whole interval of positions, and the first or last zero or
+ * non-zero position of an interval can be found, in a logarithmic time. The
+ * counts are assumed to be never negative. A counting array can also hold a
+ * copy of a region of another one, in which case it is still accessed with
+ * the positions of the whole structure.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+class CountingArray {
+
+    private int offset;
+    private int length;
+    private int leaves;
+    private int[] min = new int[2];
+    private int[] max = new int[2];
+    private int[] pending = new int[2];
+
+    /**
+     * Creates an empty counting array, to be set by
+     * {@link #setCounts(int[], int)}.
+     */
+    CountingArray() {
+        this.leaves = 1;
+    }
+
+    /**
+     * Creates a counting array holding a copy of the counts of a region of
+     * another one.
+     * @param source the counting array to copy
+     * @param from the first position of the region
+     * @param to the position following the last one of the region
+     */
+    CountingArray(CountingArray source, int from, int to) {
+        int[] counts = source.toArray(from, to);
+        setCounts(counts, counts.length);
+        this.offset = from;
+    }
+
+    /**
+     * Sets this counting array to the given counts. The arrays of the former
+     * counts are reused when large enough.
+     * @param counts the counts of the positions
+     * @param length the number of counts to take
+     */
+    void setCounts(int[] counts, int length) {
+        this.offset = 0;
+        this.length = length;
+        int leaves = 1;
+        while (leaves < length)
+            leaves <<= 1;
+        this.leaves = leaves;
+        if (this.min.length < 2 * leaves) {
+            this.min = new int[2 * leaves];
+            this.max = new int[2 * leaves];
+            this.pending = new int[2 * leaves];
+        } else
+            Arrays.fill(this.pending, 0, 2 * leaves, 0);
+        for (int i = 0; i < length; i++) {
+            assert counts[i] >= 0 : "Negative count at position " + i;
+            this.min[leaves + i] = counts[i];
+            this.max[leaves + i] = counts[i];
+        }
+        Arrays.fill(this.min, leaves + length, 2 * leaves, 0);
+        Arrays.fill(this.max, leaves + length, 2 * leaves, 0);
+        for (int node = leaves - 1; node > 0; node--)
+            pull(node);
+    }
+
+    /**
+     * @return the number of positions
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * @param i a position
+     * @return the count of the position
+     */
+    int get(int i) {
+        i -= this.offset;
+        int node = 1;
+        int lo = 0;
+        int hi = this.leaves;
+        while (hi - lo > 1) {
+            push(node);
+            int mid = (lo + hi) >>> 1;
+            if (i < mid) {
+                node = 2 * node;
+                hi = mid;
+            } else {
+                node = 2 * node + 1;
+                lo = mid;
+            }
+        }
+        return this.min[node];
+    }
+
+    /**
+     * Adds a value to the counts of the positions in [from,to).
+     * @param from first position, inclusive
+     * @param to last position, exclusive
+     * @param value the value to add
+     */
+    void add(int from, int to, int value) {
+        if (from < to)
+            add(1, 0, this.leaves, from - this.offset, to - this.offset,
+                    value);
+    }
+
+    /**
+     * @param from first position, inclusive
+     * @param to last position, exclusive
+     * @return the first position in [from,to) with a zero count, or to if
+     * there is none
+     */
+    int nextZero(int from, int to) {
+        int i = find(1, 0, this.leaves, from - this.offset,
+                Math.min(to - this.offset, this.length), true, true);
+        return i < 0 ? to : i + this.offset;
+    }
+
+    /**
+     * @param from first position, inclusive
+     * @param to last position, exclusive
+     * @return the first position in [from,to) with a non-zero count, or to if
+     * there is none
+     */
+    int nextNonZero(int from, int to) {
+        int i = find(1, 0, this.leaves, from - this.offset,
+                Math.min(to - this.offset, this.length), false, true);
+        return i < 0 ? to : i + this.offset;
+    }
+
+    /**
+     * @param from first position, inclusive
+     * @param to last position, exclusive
+     * @return the last position in [from,to) with a zero count, or from - 1 if
+     * there is none
+     */
+    int lastZero(int from, int to) {
+        int i = find(1, 0, this.leaves, Math.max(from - this.offset, 0),
+                to - this.offset, true, false);
+        return i < 0 ? from - 1 : i + this.offset;
+    }
+
+    /**
+     * @param from first position, inclusive
+     * @param to last position, exclusive
+     * @return the last position in [from,to) with a non-zero count, or from -
+     * 1 if there is none
+     */
+    int lastNonZero(int from, int to) {
+        int i = find(1, 0, this.leaves, Math.max(from - this.offset, 0),
+                to - this.offset, false, false);
+        return i < 0 ? from - 1 : i + this.offset;
+    }
+
+    /*
+     * Returns the counts of the positions in [from,to)
+     */
+    private int[] toArray(int from, int to) {
+        int[] counts = new int[to - from];
+        for (int i = from; i < to; i++)
+            counts[i - from] = get(i);
+        return counts;
+    }
+
+    /*
+     * Adds a value to the positions in [from,to) covered by the node, which
+     * covers [lo,hi)
+     */
+    private void add(int node, int lo, int hi, int from, int to, int value) {
+        if (to <= lo || hi <= from)
+            return;
+        if (from <= lo && hi <= to) {
+            apply(node, value);
+            return;
+        }
+        push(node);
+        int mid = (lo + hi) >>> 1;
+        add(2 * node, lo, mid, from, to, value);
+        add(2 * node + 1, mid, hi, from, to, value);
+        pull(node);
+    }
+
+    /*
+     * Finds the first, or last, position in [from,to) covered by the node,
+     * which covers [lo,hi), whose count is zero, or non-zero. Returns -1 if
+     * there is none.
+     */
+    private int find(int node, int lo, int hi, int from, int to, boolean zero,
+            boolean first) {
+        if (to <= lo || hi <= from)
+            return -1;
+        if (zero ? this.min[node] != 0 : this.max[node] == 0)
+            return -1;
+        if (hi - lo == 1)
+            return lo;
+        push(node);
+        int mid = (lo + hi) >>> 1;
+        int i;
+        if (first) {
+            i = find(2 * node, lo, mid, from, to, zero, true);
+            if (i < 0)
+                i = find(2 * node + 1, mid, hi, from, to, zero, true);
+        } else {
+            i = find(2 * node + 1, mid, hi, from, to, zero, false);
+            if (i < 0)
+                i = find(2 * node, lo, mid, from, to, zero, false);
+        }
+        return i;
+    }
+
+    private void apply(int node, int value) {
+        this.min[node] += value;
+        this.max[node] += value;
+        if (node < this.leaves)
+            this.pending[node] += value;
+    }
+
+    private void push(int node) {
+        if (this.pending[node] != 0) {
+            apply(2 * node, this.pending[node]);
+            apply(2 * node + 1, this.pending[node]);
+            this.pending[node] = 0;
+        }
+    }
+
+    private void pull(int node) {
+        this.min[node] = Math.min(this.min[2 * node], this.min[2 * node + 1]);
+        this.max[node] = Math.max(this.max[2 * node], this.max[2 * node + 1]);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray(this.offset, this.offset + this.length));
+    }
+
+}
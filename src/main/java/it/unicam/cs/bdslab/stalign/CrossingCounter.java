@@ -0,0 +1,136 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import java.util.Arrays;
+
+/**
+ * Counter of the bonds crossing a position, used by {@link TERSAlignTree} to
+ * label crossing nodes. A bond (i,j), with i &lt; j, crosses the position k if
+ * i &lt; k &lt; j, so the number of bonds crossing k is the number of bonds
+ * starting before k minus the number of bonds ending at or before k. Both are
+ * kept in Fenwick trees over the positions, so that counting the crossings
+ * and removing a bond take a logarithmic time. A counter can be restricted
+ * to the bonds of a region of the positions, in which case only the
+ * positions of the region can be queried.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+class CrossingCounter {
+
+    private int offset;
+    private int size;
+    private int[] starts = new int[1];
+    private int[] ends = new int[1];
+
+    /**
+     * Creates an empty counter, to be set by {@link #setBonds(PartnerLists)}.
+     */
+    CrossingCounter() {
+        this.size = 1;
+    }
+
+    /**
+     * Creates a counter holding the bonds of the given partner lists having
+     * both indexes in a region of the positions.
+     * @param p the partner lists
+     * @param from the first position of the region
+     * @param to the position following the last one of the region
+     */
+    CrossingCounter(PartnerLists p, int from, int to) {
+        setBonds(p, from, to);
+    }
+
+    /**
+     * Sets this counter to the bonds of the given partner lists. A bond is
+     * counted once for each time it occurs in the partner list of its first
+     * index. The arrays of the former bonds are reused when large enough.
+     * @param p the partner lists
+     */
+    void setBonds(PartnerLists p) {
+        setBonds(p, 0, p.length());
+    }
+
+    private void setBonds(PartnerLists p, int from, int to) {
+        int length = to - from;
+        this.offset = from;
+        this.size = length + 1;
+        if (this.starts.length < this.size) {
+            this.starts = new int[this.size];
+            this.ends = new int[this.size];
+        } else {
+            Arrays.fill(this.starts, 0, this.size, 0);
+            Arrays.fill(this.ends, 0, this.size, 0);
+        }
+        for (int i = from; i < to; i++) {
+            this.starts[i - from + 1] += p.countPartnersBetween(i, i, to);
+            this.ends[i - from + 1] += p.countPartnersBetween(i, from - 1, i);
+        }
+        // build both trees in linear time
+        for (int k = 1; k <= length; k++) {
+            int parent = k + (k & -k);
+            if (parent <= length) {
+                this.starts[parent] += this.starts[k];
+                this.ends[parent] += this.ends[k];
+            }
+        }
+    }
+
+    /**
+     * @param k a position
+     * @return the number of bonds (i,j) such that i &lt; k &lt; j
+     */
+    int countCrossings(int k) {
+        return prefixSum(this.starts, k - this.offset - 1)
+                - prefixSum(this.ends, k - this.offset);
+    }
+
+    /**
+     * Removes one occurrence of a bond from the counter.
+     * @param i one index of the bond
+     * @param j the other index of the bond
+     */
+    void remove(int i, int j) {
+        add(this.starts, Math.min(i, j) - this.offset, -1);
+        add(this.ends, Math.max(i, j) - this.offset, -1);
+    }
+
+    /*
+     * Adds a value at the given position of a Fenwick tree
+     */
+    private void add(int[] tree, int position, int value) {
+        for (int k = position + 1; k < this.size; k += k & -k)
+            tree[k] += value;
+    }
+
+    /*
+     * Returns the sum of the values at the positions from 0 to the given one
+     * of a Fenwick tree
+     */
+    private int prefixSum(int[] tree, int position) {
+        int sum = 0;
+        for (int k = Math.min(position + 1, this.size - 1); k > 0; k -= k & -k)
+            sum += tree[k];
+        return sum;
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+/**
+ * Symmetric matrix of the distances between the residues of a structure. The diagonal is always zero, so
+ * implementations only need to store the strict upper triangle.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public interface DistanceMatrix {
+
+    /**
+     * @return the number of rows (and columns) of the matrix
+     */
+    int size();
+
+    /**
+     * Returns the distance between two residues.
+     * @param i 0-based index of the first residue
+     * @param j 0-based index of the second residue
+     * @return the distance, zero if {@code i == j}
+     */
+    double get(int i, int j);
+
+    /**
+     * Copies the distances between residue {@code i} and the residues {@code from, ..., size() - 1}. Row blocks are the
+     * way to scan the matrix when it is too large to be expanded, and implementations can copy the part above the
+     * diagonal, which they store contiguously, in bulk.
+     * @param i 0-based index of the residue
+     * @param from 0-based index of the first residue of the range
+     * @param row array receiving the distance of residue {@code from + k} at position {@code k}
+     */
+    default void getRow(int i, int from, double[] row) {
+        for (int j = from; j < this.size(); j++)
+            row[j - from] = this.get(i, j);
+    }
+
+    /**
+     * Expands the matrix into a full square array, as returned by {@link TertiaryStructure#getDistanceMatrix()}.
+     * @return the full distance matrix
+     */
+    default double[][] toArray() {
+        int n = this.size();
+        double[][] matrix = new double[n][n];
+        for (int i = 0; i < n; i++)
+            for (int j = i + 1; j < n; j++) {
+                matrix[i][j] = this.get(i, j);
+                matrix[j][i] = matrix[i][j];
+            }
+        return matrix;
+    }
+
+}
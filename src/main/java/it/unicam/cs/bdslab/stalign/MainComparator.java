@@ -27,6 +27,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import at.unisalzburg.dbresearch.apted.costmodel.PerEditOperationStringNodeDataCostModel;
 import at.unisalzburg.dbresearch.apted.distance.APTED;
@@ -104,8 +105,9 @@ public class MainComparator {
         options.addOption(o10);
         Option o14 = new Option("cm","centerofmass",false,"Calculate the distance matrix with center of mass method");
         options.addOption(o14);
-        Option o15 = new Option("t","threshold",true,"Set a threshold");
-        o15.setArgName("threshold");
+        Option o15 = new Option("t","threshold",true,"Set a threshold, or a list of thresholds to process the structures at each of them");
+        o15.setArgs(Option.UNLIMITED_VALUES);
+        o15.setArgName("threshold(s)");
         options.addOption(o15);
         Option o16 = new Option("p","selectchains",true,"Calculate only the specific chains of a structure");
         o16.setArgs(Option.UNLIMITED_VALUES);
@@ -125,6 +127,9 @@ public class MainComparator {
         o23.setArgs(2);
         o23.setArgName("input-file1 input-file2");
         options.addOption(o23);
+        Option o24 = new Option("j","threads",true,"Set the number of threads used to find the contacts of large structures, to calculate the distance matrix and to build the structural trees of long sequences, at least 1 (default: the common fork/join pool)");
+        o24.setArgName("threads");
+        options.addOption(o24);
 
         // Parse command line
         HelpFormatter formatter = new HelpFormatter();
@@ -162,6 +167,9 @@ public class MainComparator {
             return;
         }
 
+        // Manage Option j
+        int parallelism = parseParallelism(cmd);
+
         // Manage Option n
         String configurationFileName = ScoringFunction.DEFAULT_PROPERTY_FILE;
         if (cmd.hasOption("n")) {
@@ -204,11 +212,12 @@ public class MainComparator {
             }
 
             // Construct the TERSAtree
-            Tree<String> t;
+            CompactStructuralTree t;
             TERSAlignTree tree = new TERSAlignTree(secondaryStructure);
+            tree.setParallelism(parallelism);
 
             // get the structural RNA/Protein tree
-            t = tree.getStructuralTree();
+            t = tree.getCompactStructuralTree();
             // Produce Output
             String output;
             if (cmd.hasOption("l"))
@@ -268,35 +277,35 @@ public class MainComparator {
                 tertiaryStructure.setSpecifiedChains(chainIds);
             }
 
-            if (cmd.hasOption("t")) {
-                double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                tertiaryStructure.setThreshold(threshold);
-            }
-
             //manage option cm
             if(cmd.hasOption("cm"))
                 tertiaryStructure.setDistanceMatrixCalculationMethod("centerofmass");
 
-            // Construct the TERSAtree
-            Tree<String> t = null;
-            TERSAlignTree tree = new TERSAlignTree(tertiaryStructure);
-            if(custom)
-                tree.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure.getBondList()) + 1);
-            // get the structural RNA/Protein tree
-            try {
-                t = tree.getStructuralTree();
-            }catch (StackOverflowError e){
-                System.err.println("The molecule is too big, can't generate the associated tree");
-                System.exit(1);
+            //manage option j
+            tertiaryStructure.setParallelism(parallelism);
+
+            // Construct the TERSAtree for each threshold
+            double[] thresholds = parseThresholds(cmd);
+            List<String> outputs = new ArrayList<>();
+            for (TertiaryStructure thresholdStructure : applyThresholds(tertiaryStructure, thresholds)) {
+                CompactStructuralTree t = null;
+                TERSAlignTree tree = new TERSAlignTree(thresholdStructure);
+                tree.setParallelism(parallelism);
+                if(custom)
+                    tree.setSequenceLength(calculateLastSequenceIndex(thresholdStructure.getBondList()) + 1);
+                // get the structural RNA/Protein tree
+                t = tree.getCompactStructuralTree();
+                // Produce Output, labelled with the threshold if more than one is given
+                String thresholdOutput = isThresholdSweep(thresholds) ? "Threshold = " + thresholdStructure.getThreshold() + "\n" : "";
+                if (cmd.hasOption("l"))
+                    // produce LaTeX
+                    thresholdOutput += TreeOutputter.toLatex(t);
+                else
+                    // produce linearised tree
+                    thresholdOutput += TreeOutputter.treeToString(t);
+                outputs.add(thresholdOutput);
             }
-            // Produce Output
-            String output;
-            if (cmd.hasOption("l"))
-                // produce LaTeX
-                output = TreeOutputter.toLatex(t);
-            else
-                // produce linearised tree
-                output = TreeOutputter.treeToString(t);
+            String output = String.join("\n\n", outputs);
 
             // Write Output on proper file or on standard output
             if (cmd.hasOption("o")) {
@@ -319,9 +328,10 @@ public class MainComparator {
         if (cmd.hasOption("ac") || cmd.hasOption("af") || cmd.hasOption("am")) {
             boolean filePath = cmd.hasOption("af");
             boolean custom = cmd.hasOption("am");
-            // variables for structural RNA trees
-            Tree<String> t1 = null;
-            Tree<String> t2 = null;
+            double[] thresholds = parseThresholds(cmd);
+            // variables for structural RNA trees, one for each threshold
+            List<CompactStructuralTree> t1;
+            List<CompactStructuralTree> t2;
             // Parse the first input file for the secondary structure
             Structure struc;
             TertiaryStructure tertiaryStructure = null;
@@ -350,25 +360,15 @@ public class MainComparator {
                 tertiaryStructure.setSpecifiedChains(chainIds);
             }
 
-            if (cmd.hasOption("t")) {
-                double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                tertiaryStructure.setThreshold(threshold);
-            }
-
             //manage option cm
             if(cmd.hasOption("cm"))
                 tertiaryStructure.setDistanceMatrixCalculationMethod("centerofmass");
 
-            // Construct structural RNA/Protein tree 1
-            TERSAlignTree s1 = new TERSAlignTree(tertiaryStructure);
-            if(custom)
-                s1.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure.getBondList()) + 1);
-            try {
-                t1 = s1.getStructuralTree();
-            }catch (StackOverflowError e){
-                System.err.println("The molecule is too big, can't generate the associated tree");
-                System.exit(1);
-            }
+            //manage option j
+            tertiaryStructure.setParallelism(parallelism);
+
+            // Construct structural RNA/Protein tree 1 for each threshold
+            t1 = buildStructuralTrees(applyThresholds(tertiaryStructure, thresholds), custom, parallelism);
 
             // Parse the second input file for the secondary structure
             Structure struc2;
@@ -398,28 +398,19 @@ public class MainComparator {
                 tertiaryStructure2.setSpecifiedChains(chainIds);
             }
 
-            if (cmd.hasOption("t")) {
-                double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                tertiaryStructure2.setThreshold(threshold);
-            }
-
             //manage option cm
             if(cmd.hasOption("cm"))
                 tertiaryStructure2.setDistanceMatrixCalculationMethod("centerofmass");
 
-            // Construct structural RNA/Protein tree 2
-            TERSAlignTree s2 = new TERSAlignTree(tertiaryStructure2);
-            if(custom)
-                s2.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure2.getBondList()) + 1);
-            try {
-                t2 = s2.getStructuralTree();
-            }catch (StackOverflowError e){
-                System.err.println("The molecule is too big, can't generate the associated tree");
-                System.exit(1);
-            }
+            //manage option j
+            tertiaryStructure2.setParallelism(parallelism);
 
-            //Align tree
-            alignTrees(t1, t2, configurationFileName, cmd);
+            // Construct structural RNA/Protein tree 2 for each threshold
+            t2 = buildStructuralTrees(applyThresholds(tertiaryStructure2, thresholds), custom, parallelism);
+
+            //Align trees at each threshold
+            for (int k = 0; k < t1.size(); k++)
+                alignTrees(t1.get(k), t2.get(k), configurationFileName, cmd, isThresholdSweep(thresholds) ? "Threshold = " + thresholds[k] : null, k > 0);
             return;
         }
 
@@ -428,8 +419,8 @@ public class MainComparator {
             boolean filePath = cmd.hasOption("ssaf");
 
             // variables for structural RNA trees
-            Tree<String> t1 = null;
-            Tree<String> t2 = null;
+            CompactStructuralTree t1 = null;
+            CompactStructuralTree t2 = null;
             // Parse the first input file for the secondary structure
             Structure struc;
             SecondaryStructure secondaryStructure = null;
@@ -448,12 +439,8 @@ public class MainComparator {
 
             // Construct structural RNA/Protein tree 1
             TERSAlignTree s1 = new TERSAlignTree(secondaryStructure);
-            try {
-                t1 = s1.getStructuralTree();
-            }catch (StackOverflowError e){
-                System.err.println("The molecule is too big, can't generate the associated tree");
-                System.exit(1);
-            }
+            s1.setParallelism(parallelism);
+            t1 = s1.getCompactStructuralTree();
 
             // Parse the second input file for the secondary structure
             Structure struc2;
@@ -473,15 +460,11 @@ public class MainComparator {
 
             // Construct structural RNA/Protein tree 2
             TERSAlignTree s2 = new TERSAlignTree(secondaryStructure2);
-            try {
-                t2 = s2.getStructuralTree();
-            }catch (StackOverflowError e){
-                System.err.println("The molecule is too big, can't generate the associated tree");
-                System.exit(1);
-            }
+            s2.setParallelism(parallelism);
+            t2 = s2.getCompactStructuralTree();
 
             //Align trees
-            alignTrees(t1, t2, configurationFileName, cmd);
+            alignTrees(t1, t2, configurationFileName, cmd, null, false);
             return;
         }
 
@@ -489,9 +472,10 @@ public class MainComparator {
         if (cmd.hasOption("edc") || cmd.hasOption("edf") || cmd.hasOption("edm")) {
             boolean filePath = cmd.hasOption("edf");
             boolean custom = cmd.hasOption("edm");
-            // variables for structural RNA trees
-            Tree<String> t1 = null;
-            Tree<String> t2 = null;
+            double[] thresholds = parseThresholds(cmd);
+            // variables for structural RNA trees, one for each threshold
+            List<CompactStructuralTree> t1;
+            List<CompactStructuralTree> t2;
             // Parse the first input file for the secondary structure
             Structure struc;
             TertiaryStructure tertiaryStructure = null;
@@ -520,25 +504,15 @@ public class MainComparator {
                 tertiaryStructure.setSpecifiedChains(chainIds);
             }
 
-            if (cmd.hasOption("t")) {
-                double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                tertiaryStructure.setThreshold(threshold);
-            }
-
             //manage option cm
-            if(cmd.hasOption("m"))
+            if(cmd.hasOption("cm"))
                 tertiaryStructure.setDistanceMatrixCalculationMethod("centerofmass");
 
-            // Construct structural RNA/Protein tree 1
-            TERSAlignTree s1 = new TERSAlignTree(tertiaryStructure);
-            if(custom)
-                s1.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure.getBondList()) + 1);
-            try {
-                t1 = s1.getStructuralTree();
-            }catch (StackOverflowError e){
-                System.err.println("The molecule is too big, can't generate the associated tree");
-                System.exit(1);
-            }
+            //manage option j
+            tertiaryStructure.setParallelism(parallelism);
+
+            // Construct structural RNA/Protein tree 1 for each threshold
+            t1 = buildStructuralTrees(applyThresholds(tertiaryStructure, thresholds), custom, parallelism);
 
             // Parse the second input file for the secondary structure
             Structure struc2;
@@ -568,65 +542,19 @@ public class MainComparator {
                 tertiaryStructure2.setSpecifiedChains(chainIds);
             }
 
-            if (cmd.hasOption("t")) {
-                double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                tertiaryStructure2.setThreshold(threshold);
-            }
-
             //manage option cm
             if(cmd.hasOption("cm"))
                 tertiaryStructure2.setDistanceMatrixCalculationMethod("centerofmass");
 
-            // Construct structural RNA/Protein tree 2
-            TERSAlignTree s2 = new TERSAlignTree(tertiaryStructure2);
-            if(custom)
-                s2.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure2.getBondList()) + 1);
-            try {
-                t2 = s2.getStructuralTree();
-            }catch (StackOverflowError e){
-                System.err.println("The molecule is too big, can't generate the associated tree");
-                System.exit(1);
-            }
+            //manage option j
+            tertiaryStructure2.setParallelism(parallelism);
 
-            // Edit t1 and t2, which contain two structural RNA trees
+            // Construct structural RNA/Protein tree 2 for each threshold
+            t2 = buildStructuralTrees(applyThresholds(tertiaryStructure2, thresholds), custom, parallelism);
 
-            ScoringFunction f = new ScoringFunction(configurationFileName);
-            float distance;
-            BracketStringInputParser parser = new BracketStringInputParser();
-            Node<StringNodeData> editDistanceTree1 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t1) + "}");
-            Node<StringNodeData> editDistanceTree2 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t2) + "}");
-            APTED<PerEditOperationStringNodeDataCostModel, StringNodeData> apted = new APTED<>(new PerEditOperationStringNodeDataCostModel((float)f.getEditdistanceDeleteCost(),(float)f.getEditdistanceInsertCost(),(float)f.getEditdistanceRenameCost()));
-            distance = apted.computeEditDistance(editDistanceTree1, editDistanceTree2);
-            // Produce Output
-            if (!cmd.hasOption("d")) {
-                StringBuilder output = new StringBuilder();
-                // Output edit distance nodes mapping
-                output.append("{");
-                apted.computeEditMapping().forEach(entry-> {
-                    output.append("[");
-                    output.append(entry[0]).append(",").append(entry[1]);
-                    output.append("]");
-                    output.append(";");
-                });
-                output.append("}");
-
-                // Write Output on proper file or on standard output
-                if (cmd.hasOption("o")) {
-                    String outputFile = cmd.getOptionValue("o");
-                    try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, false))) {
-                        writer.write(output.toString());
-                    } catch (FileNotFoundException e) {
-                        System.err.println("ERROR: Output file " + outputFile + " cannot be created.");
-                        System.exit(3);
-                    } catch (IOException e) {
-                        System.err.println("ERROR: Output file" + outputFile + " cannot be written.");
-                        System.exit(3);
-                    }
-                } else
-                    System.out.println(output + "\n");
-            }
-            // Output distance
-            System.out.println("Distance = " + distance);
+            // Compute the edit distance at each threshold
+            for (int k = 0; k < t1.size(); k++)
+                editDistanceTrees(t1.get(k), t2.get(k), configurationFileName, cmd, isThresholdSweep(thresholds) ? "Threshold = " + thresholds[k] : null, k > 0);
             return;
         }
 
@@ -638,12 +566,16 @@ public class MainComparator {
                 true);
     }
 
-    private static void alignTrees(Tree<String> t1, Tree<String> t2, String configurationFileName, CommandLine cmd) {
+    private static void alignTrees(CompactStructuralTree t1, CompactStructuralTree t2, String configurationFileName, CommandLine cmd, String header, boolean appendOutput) {
         // Align t1 and t2, which contain two structural RNA trees
+        if (header != null)
+            System.out.println(header);
         AlignmentResult r = null;
         ScoringFunction f = new ScoringFunction(configurationFileName);
         try {
-            r = new AlignmentResult(t1, t2, f);
+            // the aligned tree is not needed if only the distance is printed
+            r = cmd.hasOption("d") ? AlignmentResult.distanceOnly(t1, t2, f)
+                    : new AlignmentResult(t1, t2, f);
         } catch (TreeAlignException e) {
             System.err.println("ERROR: Alignment Exception: " + e.getMessage());
             System.exit(4);
@@ -660,24 +592,132 @@ public class MainComparator {
                 // produce linearised tree
                 output = TreeOutputter.treeToStringAligned(t);
             // Write Output on proper file or on standard output
-            if (cmd.hasOption("o")) {
-                String outputFile = cmd.getOptionValue("o");
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, false))) {
-                    writer.write(output);
-                } catch (FileNotFoundException e) {
-                    System.err.println("ERROR: Output file " + outputFile + " cannot be created.");
-                    System.exit(3);
-                } catch (IOException e) {
-                    System.err.println("ERROR: Output file" + outputFile + " cannot be written.");
-                    System.exit(3);
-                }
-            } else
-                System.out.println(output + "\n");
+            writeOutput(output, cmd, header, appendOutput);
         }
         // Output distance
         System.out.println("Distance = " + r.getDistance());
     }
 
+    private static void editDistanceTrees(CompactStructuralTree t1, CompactStructuralTree t2, String configurationFileName, CommandLine cmd, String header, boolean appendOutput) {
+        // Edit t1 and t2, which contain two structural RNA trees
+        if (header != null)
+            System.out.println(header);
+        ScoringFunction f = new ScoringFunction(configurationFileName);
+        float distance;
+        BracketStringInputParser parser = new BracketStringInputParser();
+        Node<StringNodeData> editDistanceTree1 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t1) + "}");
+        Node<StringNodeData> editDistanceTree2 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t2) + "}");
+        APTED<PerEditOperationStringNodeDataCostModel, StringNodeData> apted = new APTED<>(new PerEditOperationStringNodeDataCostModel((float)f.getEditdistanceDeleteCost(),(float)f.getEditdistanceInsertCost(),(float)f.getEditdistanceRenameCost()));
+        distance = apted.computeEditDistance(editDistanceTree1, editDistanceTree2);
+        // Produce Output
+        if (!cmd.hasOption("d")) {
+            StringBuilder output = new StringBuilder();
+            // Output edit distance nodes mapping
+            output.append("{");
+            apted.computeEditMapping().forEach(entry-> {
+                output.append("[");
+                output.append(entry[0]).append(",").append(entry[1]);
+                output.append("]");
+                output.append(";");
+            });
+            output.append("}");
+
+            // Write Output on proper file or on standard output
+            writeOutput(output.toString(), cmd, header, appendOutput);
+        }
+        // Output distance
+        System.out.println("Distance = " + distance);
+    }
+
+    /*
+     * Writes the output on the file given with option o or on standard output. When processing more thresholds,
+     * the outputs after the first one are appended to the file, each preceded by its header.
+     */
+    private static void writeOutput(String output, CommandLine cmd, String header, boolean appendOutput) {
+        if (cmd.hasOption("o")) {
+            String outputFile = cmd.getOptionValue("o");
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile, appendOutput))) {
+                if (appendOutput)
+                    writer.write("\n\n");
+                if (header != null)
+                    writer.write(header + "\n");
+                writer.write(output);
+            } catch (FileNotFoundException e) {
+                System.err.println("ERROR: Output file " + outputFile + " cannot be created.");
+                System.exit(3);
+            } catch (IOException e) {
+                System.err.println("ERROR: Output file" + outputFile + " cannot be written.");
+                System.exit(3);
+            }
+        } else
+            System.out.println(output + "\n");
+    }
+
+    /*
+     * Builds the structural tree of each of the given structures
+     */
+    private static List<CompactStructuralTree> buildStructuralTrees(List<TertiaryStructure> tertiaryStructures, boolean custom, int parallelism) {
+        List<CompactStructuralTree> trees = new ArrayList<>();
+        for (TertiaryStructure tertiaryStructure : tertiaryStructures) {
+            TERSAlignTree tree = new TERSAlignTree(tertiaryStructure);
+            tree.setParallelism(parallelism);
+            if(custom)
+                tree.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure.getBondList()) + 1);
+            trees.add(tree.getCompactStructuralTree());
+        }
+        return trees;
+    }
+
+    /*
+     * Returns the number of threads given with option j, or 0 to use the common fork/join pool if it is not given.
+     * Exits if the number of threads is not a positive integer.
+     */
+    private static int parseParallelism(CommandLine cmd) {
+        if (!cmd.hasOption("j"))
+            return 0;
+        try {
+            int parallelism = Integer.parseInt(cmd.getOptionValue("j"));
+            if (parallelism >= 1)
+                return parallelism;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("ERROR: The number of threads must be a positive integer, found " + cmd.getOptionValue("j"));
+        System.exit(1);
+        return 0;
+    }
+
+    /*
+     * Returns the thresholds given with option t, null if the option is not present
+     */
+    private static double[] parseThresholds(CommandLine cmd) {
+        if (!cmd.hasOption("t"))
+            return null;
+        String[] values = cmd.getOptionValues("t");
+        double[] thresholds = new double[values.length];
+        for (int i = 0; i < values.length; i++)
+            thresholds[i] = Double.parseDouble(values[i]);
+        return thresholds;
+    }
+
+    private static boolean isThresholdSweep(double[] thresholds) {
+        return thresholds != null && thresholds.length > 1;
+    }
+
+    /*
+     * Returns the structure to process for each threshold. A single threshold is set on the structure itself, more
+     * thresholds are processed with a sweep sharing the neighbour lists.
+     */
+    private static List<TertiaryStructure> applyThresholds(TertiaryStructure tertiaryStructure, double[] thresholds) {
+        if (thresholds == null)
+            return Collections.singletonList(tertiaryStructure);
+        if (thresholds.length == 1) {
+            tertiaryStructure.setThreshold(thresholds[0]);
+            return Collections.singletonList(tertiaryStructure);
+        }
+        return tertiaryStructure.getThresholdSweep(thresholds);
+    }
+
 
     private static int calculateLastSequenceIndex(ArrayList<Pair<Integer>> bondList) {
         int lastIndex = 0;
@@ -0,0 +1,197 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Distance matrix stored off-heap, as a packed strict upper triangle in a memory-mapped temporary file. The file is
+ * mapped in segments of at most 2^27 values, so the matrix is not bounded by the maximum array length and only the
+ * pages being used have to stay in memory: the operating system writes the others back to disk. It allows the
+ * distances of assemblies with tens of thousands of residues to be computed without a heap of tens of gigabytes.
+ * Segments are accessed with absolute indexes only, so disjoint rows can be written concurrently. The file is deleted
+ * as soon as it is mapped, so it never outlives the matrix, and {@link #close()} drops the mapped segments, which are
+ * unmapped as soon as they are garbage collected.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class MappedDistanceMatrix implements MutableDistanceMatrix, AutoCloseable {
+
+    /*
+     * Number of values of a mapped segment, as a power of two: 2^27 doubles take 1 GB
+     */
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_LENGTH = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_LENGTH - 1;
+
+    private final int size;
+    private final boolean floatPrecision;
+    private final DoubleBuffer[] segments;
+    private final FloatBuffer[] floatSegments;
+
+    /**
+     * Creates a new matrix with all the distances set to zero, backed by a temporary file in the default temporary
+     * directory. The file is deleted right after being mapped, or when the virtual machine exits on file systems that
+     * do not allow mapped files to be deleted.
+     * @param size number of residues
+     * @param floatPrecision true if the distances must be stored in single precision
+     * @throws UncheckedIOException if the file cannot be created or mapped
+     */
+    public MappedDistanceMatrix(int size, boolean floatPrecision) {
+        this.size = size;
+        this.floatPrecision = floatPrecision;
+        long length = PackedDistanceMatrix.packedLength(size);
+        int numberOfSegments = (int) ((length + SEGMENT_LENGTH - 1) >>> SEGMENT_SHIFT);
+        this.segments = floatPrecision ? null : new DoubleBuffer[numberOfSegments];
+        this.floatSegments = floatPrecision ? new FloatBuffer[numberOfSegments] : null;
+        int bytesPerValue = floatPrecision ? Float.BYTES : Double.BYTES;
+        try {
+            File file = File.createTempFile("stalign-distances", ".bin");
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(length * bytesPerValue);
+                FileChannel channel = randomAccessFile.getChannel();
+                for (int s = 0; s < numberOfSegments; s++) {
+                    long first = (long) s << SEGMENT_SHIFT;
+                    long values = Math.min(SEGMENT_LENGTH, length - first);
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, first * bytesPerValue, values * bytesPerValue);
+                    buffer.order(ByteOrder.nativeOrder());
+                    if (floatPrecision)
+                        this.floatSegments[s] = buffer.asFloatBuffer();
+                    else
+                        this.segments[s] = buffer.asDoubleBuffer();
+                }
+            } finally {
+                // the mapping stays valid after the file is deleted
+                if (!file.delete())
+                    file.deleteOnExit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map the distance matrix of " + size + " residues", e);
+        }
+    }
+
+    /**
+     * Tells if a matrix of the given size should be stored off-heap, that is if a {@link PackedDistanceMatrix} would
+     * exceed the maximum array length or take more than half of the maximum heap size.
+     * @param size number of residues
+     * @param floatPrecision true if the distances are stored in single precision
+     * @return true if the matrix should be a {@code MappedDistanceMatrix}
+     */
+    public static boolean isRecommended(int size, boolean floatPrecision) {
+        long length = PackedDistanceMatrix.packedLength(size);
+        long bytes = length * (floatPrecision ? Float.BYTES : Double.BYTES);
+        return length > Integer.MAX_VALUE - 8 || bytes > Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (i == j)
+            return 0;
+        long index = i < j ? PackedDistanceMatrix.packedIndex(this.size, i, j) : PackedDistanceMatrix.packedIndex(this.size, j, i);
+        int s = (int) (index >>> SEGMENT_SHIFT);
+        int offset = (int) (index & SEGMENT_MASK);
+        return this.floatPrecision ? this.floatSegments[s].get(offset) : this.segments[s].get(offset);
+    }
+
+    @Override
+    public void set(int i, int j, double distance) {
+        long index = i < j ? PackedDistanceMatrix.packedIndex(this.size, i, j) : PackedDistanceMatrix.packedIndex(this.size, j, i);
+        int s = (int) (index >>> SEGMENT_SHIFT);
+        int offset = (int) (index & SEGMENT_MASK);
+        if (this.floatPrecision)
+            this.floatSegments[s].put(offset, (float) distance);
+        else
+            this.segments[s].put(offset, distance);
+    }
+
+    @Override
+    public void setRow(int i, int from, double[] distances, int count) {
+        long index = PackedDistanceMatrix.packedIndex(this.size, i, from);
+        int k = 0;
+        while (k < count) {
+            int s = (int) ((index + k) >>> SEGMENT_SHIFT);
+            int offset = (int) ((index + k) & SEGMENT_MASK);
+            int chunk = Math.min(count - k, SEGMENT_LENGTH - offset);
+            if (this.floatPrecision)
+                for (int c = 0; c < chunk; c++)
+                    this.floatSegments[s].put(offset + c, (float) distances[k + c]);
+            else
+                this.segments[s].put(offset, distances, k, chunk);
+            k += chunk;
+        }
+    }
+
+    @Override
+    public void getRow(int i, int from, double[] row) {
+        int diagonal = Math.max(from, i + 1);
+        for (int j = from; j < diagonal; j++)
+            row[j - from] = this.get(i, j);
+        if (diagonal >= this.size)
+            return;
+        long index = PackedDistanceMatrix.packedIndex(this.size, i, diagonal);
+        int count = this.size - diagonal;
+        int k = 0;
+        while (k < count) {
+            int s = (int) ((index + k) >>> SEGMENT_SHIFT);
+            int offset = (int) ((index + k) & SEGMENT_MASK);
+            int chunk = Math.min(count - k, SEGMENT_LENGTH - offset);
+            if (this.floatPrecision)
+                for (int c = 0; c < chunk; c++)
+                    row[diagonal - from + k + c] = this.floatSegments[s].get(offset + c);
+            else
+                this.segments[s].get(offset, row, diagonal - from + k, chunk);
+            k += chunk;
+        }
+    }
+
+    @Override
+    public boolean isFloatPrecision() {
+        return this.floatPrecision;
+    }
+
+    /**
+     * Drops the mapped segments, so that the memory they map is released as soon as they are garbage collected. The
+     * matrix cannot be used anymore after being closed.
+     */
+    @Override
+    public void close() {
+        if (this.floatPrecision)
+            Arrays.fill(this.floatSegments, null);
+        else
+            Arrays.fill(this.segments, null);
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+/**
+ * Distance matrix whose distances can be set, used as the target of the distance kernels. Since the matrix is
+ * symmetric, setting {@code (i, j)} sets {@code (j, i)} as well.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public interface MutableDistanceMatrix extends DistanceMatrix {
+
+    /**
+     * Sets the distance between two different residues, the symmetric value is set as well.
+     * @param i 0-based index of the first residue
+     * @param j 0-based index of the second residue
+     * @param distance the distance between the two residues
+     */
+    void set(int i, int j, double distance);
+
+    /**
+     * Sets the distances between residue {@code i} and the residues {@code from, ..., from + count - 1}.
+     * @param i 0-based index of the residue
+     * @param from 0-based index of the first residue of the range, greater than {@code i}
+     * @param distances the distances, starting at position 0
+     * @param count the number of distances to set
+     */
+    default void setRow(int i, int from, double[] distances, int count) {
+        for (int k = 0; k < count; k++)
+            this.set(i, from + k, distances[k]);
+    }
+
+    /**
+     * @return true if the distances are stored in single precision
+     */
+    boolean isFloatPrecision();
+
+}
@@ -0,0 +1,150 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.contact.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Neighbour lists of the residues of a structure up to a maximum threshold, stored in compressed sparse row form.
+ * Row {@code i} lists the residues {@code j > i} whose distance from {@code i} is at most the maximum threshold,
+ * sorted by increasing distance, so that the bonds for any smaller threshold are a prefix of each row. The lists are
+ * computed once and then give the bond list of every threshold up to the maximum one.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class NeighbourList {
+
+    private final double maxThreshold;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] distances;
+
+    /**
+     * Creates new neighbour lists from their compressed sparse row representation. Each row must be sorted by
+     * increasing distance.
+     * @param maxThreshold the threshold used to compute the lists
+     * @param rowStart position of the first neighbour of each row in {@code columns}, plus the total number of
+     *                 neighbours at the end
+     * @param columns 0-based indexes of the neighbours
+     * @param distances distances of the neighbours
+     */
+    public NeighbourList(double maxThreshold, int[] rowStart, int[] columns, double[] distances) {
+        this.maxThreshold = maxThreshold;
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.distances = distances;
+    }
+
+    /**
+     * @return the number of residues
+     */
+    public int size() {
+        return this.rowStart.length - 1;
+    }
+
+    /**
+     * @return the threshold used to compute the lists
+     */
+    public double getMaxThreshold() {
+        return this.maxThreshold;
+    }
+
+    /**
+     * @return the number of pairs of residues within the maximum threshold
+     */
+    public int getNumberOfPairs() {
+        return this.rowStart[this.rowStart.length - 1];
+    }
+
+    /**
+     * Returns the 1-based bond list for the given threshold, sorted by first and then by second index, i.e. the same
+     * list obtained from the contact map. Each row is cut at the threshold with a binary search, so the cost is
+     * proportional to the number of bonds found.
+     * @param threshold the contact threshold, must not exceed the maximum threshold
+     * @return the bond list
+     */
+    public ArrayList<Pair<Integer>> getBondList(double threshold) {
+        if (threshold > this.maxThreshold)
+            throw new IllegalArgumentException("Threshold " + threshold + " exceeds the maximum threshold " + this.maxThreshold);
+        ArrayList<Pair<Integer>> bondList = new ArrayList<>();
+        int[] row = new int[16];
+        for (int i = 0; i < this.size(); i++) {
+            int end = this.rowEnd(i, threshold);
+            int count = end - this.rowStart[i];
+            if (count > row.length)
+                row = new int[Math.max(count, 2 * row.length)];
+            System.arraycopy(this.columns, this.rowStart[i], row, 0, count);
+            Arrays.sort(row, 0, count);
+            for (int k = 0; k < count; k++)
+                bondList.add(new Pair<>(i + 1, row[k] + 1));
+        }
+        return bondList;
+    }
+
+    /**
+     * Returns the 1-based bonds whose distance is greater than {@code lower} and at most {@code upper}, that is the
+     * bonds gained when the threshold is raised from {@code lower} to {@code upper} or lost when it is lowered back.
+     * Bonds are sorted by first and then by second index, and found with two binary searches per row, so the cost is
+     * proportional to the number of residues plus the number of bonds of the delta.
+     * @param lower the lower threshold (exclusive)
+     * @param upper the upper threshold (inclusive), must not exceed the maximum threshold
+     * @return the bonds between the two thresholds
+     */
+    public BondBuffer getBondsBetween(double lower, double upper) {
+        if (upper > this.maxThreshold)
+            throw new IllegalArgumentException("Threshold " + upper + " exceeds the maximum threshold " + this.maxThreshold);
+        BondBuffer bonds = new BondBuffer();
+        int[] row = new int[16];
+        for (int i = 0; i < this.size(); i++) {
+            int start = this.rowEnd(i, lower);
+            int count = this.rowEnd(i, upper) - start;
+            if (count <= 0)
+                continue;
+            if (count > row.length)
+                row = new int[Math.max(count, 2 * row.length)];
+            System.arraycopy(this.columns, start, row, 0, count);
+            Arrays.sort(row, 0, count);
+            for (int k = 0; k < count; k++)
+                bonds.add(i + 1, row[k] + 1);
+        }
+        return bonds;
+    }
+
+    /*
+     * End (exclusive) of the neighbours of row i within the threshold
+     */
+    private int rowEnd(int i, double threshold) {
+        int low = this.rowStart[i], high = this.rowStart[i + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.distances[middle] <= threshold)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+}
@@ -42,4 +42,14 @@ public interface Operators {
     String ENDING_LABEL_LATEX = "\\rhd";
     String STARTING_LABEL_LATEX = "\\lhd";
     String DIAMOND_LABEL_LATEX = "\\diamond";
+
+    byte CONCATENATION_OPCODE = 0;
+    byte CROSSING_OPCODE = 1;
+    byte NESTING_OPCODE = 2;
+    byte MEETING_OPCODE = 3;
+    byte ENDING_OPCODE = 4;
+    byte STARTING_OPCODE = 5;
+    byte DIAMOND_OPCODE = 6;
+    byte ALGEBRAIC_TREE_ROOT_OPCODE = 7;
+    byte HAIRPIN_OPCODE = 8;
 }
@@ -0,0 +1,125 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+/**
+ * Distance matrix stored as a packed strict upper triangle, in double or single precision. It takes
+ * {@code n(n-1)/2} values instead of {@code n*n}, i.e. half of a {@code double[n][n]} in double precision and a
+ * quarter of it in single precision.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class PackedDistanceMatrix implements MutableDistanceMatrix {
+
+    private final int size;
+    private final double[] values;
+    private final float[] floatValues;
+
+    /**
+     * Creates a new matrix with all the distances set to zero.
+     * @param size number of residues
+     * @param floatPrecision true if the distances must be stored in single precision
+     */
+    public PackedDistanceMatrix(int size, boolean floatPrecision) {
+        long length = packedLength(size);
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many residues for a packed distance matrix: " + size);
+        this.size = size;
+        this.values = floatPrecision ? null : new double[(int) length];
+        this.floatValues = floatPrecision ? new float[(int) length] : null;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (i == j)
+            return 0;
+        int index = (int) (i < j ? packedIndex(this.size, i, j) : packedIndex(this.size, j, i));
+        return this.values != null ? this.values[index] : this.floatValues[index];
+    }
+
+    @Override
+    public void set(int i, int j, double distance) {
+        int index = (int) (i < j ? packedIndex(this.size, i, j) : packedIndex(this.size, j, i));
+        if (this.values != null)
+            this.values[index] = distance;
+        else
+            this.floatValues[index] = (float) distance;
+    }
+
+    @Override
+    public void setRow(int i, int from, double[] distances, int count) {
+        int index = (int) packedIndex(this.size, i, from);
+        if (this.values != null)
+            System.arraycopy(distances, 0, this.values, index, count);
+        else
+            for (int k = 0; k < count; k++)
+                this.floatValues[index + k] = (float) distances[k];
+    }
+
+    @Override
+    public void getRow(int i, int from, double[] row) {
+        int diagonal = Math.max(from, i + 1);
+        for (int j = from; j < diagonal; j++)
+            row[j - from] = this.get(i, j);
+        if (diagonal >= this.size)
+            return;
+        int index = (int) packedIndex(this.size, i, diagonal);
+        int count = this.size - diagonal;
+        if (this.values != null)
+            System.arraycopy(this.values, index, row, diagonal - from, count);
+        else
+            for (int k = 0; k < count; k++)
+                row[diagonal - from + k] = this.floatValues[index + k];
+    }
+
+    @Override
+    public boolean isFloatPrecision() {
+        return this.floatValues != null;
+    }
+
+    /**
+     * Returns the number of values of the strict upper triangle of a square matrix.
+     * @param size number of rows of the matrix
+     * @return the number of cells {@code (i, j)} with {@code i < j}
+     */
+    public static long packedLength(int size) {
+        return (long) size * (size - 1) / 2;
+    }
+
+    /**
+     * Returns the position of the cell {@code (i, j)}, with {@code i < j}, in the row-major packed strict upper
+     * triangle of a square matrix.
+     * @param size number of rows of the matrix
+     * @param i row, 0-based
+     * @param j column, 0-based, greater than {@code i}
+     * @return the packed index
+     */
+    public static long packedIndex(int size, int i, int j) {
+        return (long) i * (2L * size - i - 1) / 2 + (j - i - 1);
+    }
+
+}
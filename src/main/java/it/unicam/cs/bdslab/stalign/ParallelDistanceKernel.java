@@ -0,0 +1,111 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes a packed distance matrix from a coordinate buffer in parallel. Rows are recursively split among the
+ * workers of a {@link ForkJoinPool} and each block of rows is filled one tile of columns at a time, so that the
+ * coordinates of the tile stay in cache while the rows are processed. The row of a tile is computed with
+ * {@link CoordinateBuffer#getDistances(int, int, int, double[])}, vectorized when the Vector API is available, and
+ * every distance is exactly as in {@link CoordinateBuffer#getDistance(int, int)}, so the result depends neither on the
+ * number of workers nor on the kernel.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class ParallelDistanceKernel {
+
+    /*
+     * Number of rows (and columns) of a tile
+     */
+    private static final int TILE_SIZE = 256;
+
+    private ParallelDistanceKernel() {
+    }
+
+    /**
+     * Computes all the distances between the points of a buffer.
+     * @param coordinates the points
+     * @param floatPrecision true if the distances must be stored in single precision
+     * @param pool the pool running the computation
+     * @return the packed distance matrix
+     */
+    public static PackedDistanceMatrix compute(CoordinateBuffer coordinates, boolean floatPrecision, ForkJoinPool pool) {
+        PackedDistanceMatrix distanceMatrix = new PackedDistanceMatrix(coordinates.size(), floatPrecision);
+        compute(coordinates, distanceMatrix, pool);
+        return distanceMatrix;
+    }
+
+    /**
+     * Computes all the distances between the points of a buffer into the given matrix, which can be stored on-heap or
+     * off-heap.
+     * @param coordinates the points
+     * @param distanceMatrix the matrix receiving the distances, of the same size as the buffer
+     * @param pool the pool running the computation
+     */
+    public static void compute(CoordinateBuffer coordinates, MutableDistanceMatrix distanceMatrix, ForkJoinPool pool) {
+        pool.invoke(new RowsTask(coordinates, distanceMatrix, 0, coordinates.size()));
+    }
+
+    /*
+     * Fills the rows [from, to) of the upper triangle
+     */
+    private static class RowsTask extends RecursiveAction {
+
+        private final CoordinateBuffer coordinates;
+        private final MutableDistanceMatrix distanceMatrix;
+        private final int from;
+        private final int to;
+
+        RowsTask(CoordinateBuffer coordinates, MutableDistanceMatrix distanceMatrix, int from, int to) {
+            this.coordinates = coordinates;
+            this.distanceMatrix = distanceMatrix;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > TILE_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new RowsTask(this.coordinates, this.distanceMatrix, this.from, middle),
+                        new RowsTask(this.coordinates, this.distanceMatrix, middle, this.to));
+                return;
+            }
+            int n = this.coordinates.size();
+            double[] distances = new double[TILE_SIZE];
+            for (int tile = this.from + 1; tile < n; tile += TILE_SIZE) {
+                int tileEnd = Math.min(n, tile + TILE_SIZE);
+                for (int i = this.from; i < this.to; i++) {
+                    int start = Math.max(i + 1, tile);
+                    if (start >= tileEnd)
+                        continue;
+                    this.coordinates.getDistances(i, start, tileEnd, distances);
+                    this.distanceMatrix.setRow(i, start, distances, tileEnd - start);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.contact.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Partner lists of the positions of a sequence, used by {@link TERSAlignTree}
+ * to parse the hairpins of a structure. The partners of all the positions are
+ * stored in a single primitive int array in compressed sparse row form. The
+ * list of each position is split into the partners below the position,
+ * followed by the partners above it, each part in the order the bonds were
+ * given. Removed partners are marked in place and the number of partners
+ * still in each part is kept, together with the first partner below that is
+ * still in the list, so that the sizes and the first partner below are read
+ * in constant time and no boxing is involved. The same lists are shared by
+ * all the pseudoloops parsed by the builder, which select the partners
+ * belonging to them by their position. Removing a partner below a position
+ * only writes the entry of the partner, the count of the partners below and
+ * the first partner below, and removing a partner above only writes the
+ * entry and the count of the partners above, so pseudoloops owning different
+ * bonds can be parsed in parallel on the same lists. The lists can be set
+ * again to another structure, reusing their arrays.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+class PartnerLists {
+
+    private static final int REMOVED = -1;
+
+    private int length;
+    private int entries;
+    private int[] offsets = new int[1];
+    private int[] partners = new int[0];
+    private int[] splits = new int[0];
+    private int[] heads = new int[0];
+    private int[] below = new int[0];
+    private int[] above = new int[0];
+
+    /**
+     * Sets these partner lists to the ones of the given bond list. Bonds of a
+     * position with itself are skipped. The arrays of the former lists are
+     * reused when large enough.
+     * @param bondList the bond list
+     * @param length number of positions, i.e. the greatest position plus one
+     */
+    void setBondList(ArrayList<Pair<Integer>> bondList, int length) {
+        prepare(length);
+        for (Pair<Integer> currentBond : bondList) {
+            int first = currentBond.getFirst();
+            int second = currentBond.getSecond();
+            if (first != second) {
+                count(first, second);
+                count(second, first);
+            }
+        }
+        fillOffsets();
+        for (Pair<Integer> currentBond : bondList) {
+            int first = currentBond.getFirst();
+            int second = currentBond.getSecond();
+            if (first != second) {
+                put(first, second);
+                put(second, first);
+            }
+        }
+        resetHeads();
+    }
+
+    /**
+     * Sets these partner lists to the same partners, in the same order, of
+     * the given array of lists. Null lists are taken as empty and, as for the
+     * bond lists, the partners of a position with itself are skipped. The
+     * given lists are not modified, and the arrays of the former lists are
+     * reused when large enough.
+     * @param p array of partner lists
+     */
+    void setPartnersArray(ArrayList<Integer>[] p) {
+        prepare(p.length);
+        for (int i = 0; i < p.length; i++)
+            if (p[i] != null)
+                for (int partner : p[i])
+                    if (partner != i)
+                        count(i, partner);
+        fillOffsets();
+        for (int i = 0; i < p.length; i++)
+            if (p[i] != null)
+                for (int partner : p[i])
+                    if (partner != i)
+                        put(i, partner);
+        resetHeads();
+    }
+
+    /*
+     * Clears the offsets and the counts of the given number of positions
+     */
+    private void prepare(int length) {
+        this.length = length;
+        if (this.offsets.length < length + 1) {
+            this.offsets = new int[length + 1];
+            this.splits = new int[length];
+            this.heads = new int[length];
+            this.below = new int[length];
+            this.above = new int[length];
+        } else {
+            Arrays.fill(this.offsets, 0, length + 1, 0);
+            Arrays.fill(this.below, 0, length, 0);
+            Arrays.fill(this.above, 0, length, 0);
+        }
+    }
+
+    /*
+     * Counts a partner of a position, in the offsets array and in the part of
+     * the list it belongs to
+     */
+    private void count(int i, int partner) {
+        this.offsets[i + 1]++;
+        if (partner < i)
+            this.below[i]++;
+        else
+            this.above[i]++;
+    }
+
+    /*
+     * Turns the sizes stored in the offsets array into the offsets and sets
+     * the start of both the parts of every list
+     */
+    private void fillOffsets() {
+        for (int i = 0; i < this.length; i++)
+            this.offsets[i + 1] += this.offsets[i];
+        this.entries = this.offsets[this.length];
+        if (this.partners.length < this.entries)
+            this.partners = new int[this.entries];
+        resetHeads();
+    }
+
+    /*
+     * Appends a partner to the part of the list of a position it belongs to,
+     * moving the start of the part, which is set again by resetHeads()
+     */
+    private void put(int i, int partner) {
+        if (partner < i)
+            this.partners[this.heads[i]++] = partner;
+        else
+            this.partners[this.splits[i]++] = partner;
+    }
+
+    /*
+     * Sets the start of both the parts of every list
+     */
+    private void resetHeads() {
+        for (int i = 0; i < this.length; i++) {
+            this.heads[i] = this.offsets[i];
+            this.splits[i] = this.offsets[i] + this.below[i];
+        }
+    }
+
+    /**
+     * @return the number of positions
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * @return the number of partners of all the positions, removed ones
+     * included, i.e. twice the number of bonds
+     */
+    int countEntries() {
+        return this.entries;
+    }
+
+    /**
+     * @param i a position
+     * @return the number of partners of the position
+     */
+    int size(int i) {
+        return this.below[i] + this.above[i];
+    }
+
+    /**
+     * @param i a position with at least one partner below it
+     * @return the first partner of the position less than the position
+     */
+    int getFirstBelow(int i) {
+        if (this.below[i] == 0)
+            throw new IllegalStateException(
+                    "No partners of position " + i + " before it");
+        return this.partners[this.heads[i]];
+    }
+
+    /**
+     * @param i a position
+     * @return the number of partners of i greater than i
+     */
+    int countPartnersAbove(int i) {
+        return this.above[i];
+    }
+
+    /**
+     * @param i a position
+     * @return the number of partners of i less than i
+     */
+    int countPartnersBelow(int i) {
+        return this.below[i];
+    }
+
+    /**
+     * Counts the partners of a position in an interval, visiting only the
+     * parts of its list that can contain them.
+     * @param i a position
+     * @param lower a position
+     * @param upper a position
+     * @return the number of partners of i greater than lower and less than
+     * upper
+     */
+    int countPartnersBetween(int i, int lower, int upper) {
+        int from = lower < i ? this.heads[i] : this.splits[i];
+        int to = upper <= i + 1 ? this.splits[i] : this.offsets[i + 1];
+        int count = 0;
+        for (int k = from; k < to; k++)
+            if (this.partners[k] > lower && this.partners[k] < upper)
+                count++;
+        return count;
+    }
+
+    /**
+     * Removes the first occurrence of a partner of a position. The partner
+     * list of the partner is left untouched.
+     * @param i a position
+     * @param partner the partner to remove
+     */
+    void remove(int i, int partner) {
+        if (partner < i) {
+            int end = this.splits[i];
+            for (int k = this.heads[i]; k < end; k++)
+                if (this.partners[k] == partner) {
+                    this.partners[k] = REMOVED;
+                    this.below[i]--;
+                    // move the head to the first partner still in the list
+                    int head = this.heads[i];
+                    while (head < end && this.partners[head] == REMOVED)
+                        head++;
+                    this.heads[i] = head;
+                    return;
+                }
+        } else {
+            for (int k = this.splits[i]; k < this.offsets[i + 1]; k++)
+                if (this.partners[k] == partner) {
+                    this.partners[k] = REMOVED;
+                    this.above[i]--;
+                    return;
+                }
+        }
+    }
+
+}
@@ -24,7 +24,10 @@ package it.unicam.cs.bdslab.stalign;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import fr.orsay.lri.varna.models.treealign.TreeAlignLabelDistanceAsymmetric;
 
@@ -55,6 +58,62 @@ public class ScoringFunction implements TreeAlignLabelDistanceAsymmetric<String,
     private final double REPLACE_HAIRPIN_WITH_OPERATOR = Double.POSITIVE_INFINITY;
     private double crossingMismatchCost;
 
+    /*
+     * Kinds of the labels of the nodes of the structural trees
+     */
+    private static final int GAP = 0;
+    private static final int OPERATOR = 1;
+    private static final int HAIRPIN = 2;
+    private static final int OTHER = 3;
+    private static final int KINDS = 4;
+
+    /*
+     * Opcode of a gap, in addition to the opcodes of the nodes of the
+     * structural trees given by Operators
+     */
+    static final byte GAP_OPCODE = -1;
+
+    /*
+     * Kinds of the opcodes, starting from GAP_OPCODE
+     */
+    private static final int[] OPCODE_KINDS = { GAP, OPERATOR, OPERATOR, OPERATOR, OPERATOR, OPERATOR, OPERATOR,
+            OPERATOR, OTHER, HAIRPIN };
+
+    /*
+     * Costs of replacing a label of the first kind with a label of the second
+     * one, except for two operators that depend on the labels themselves
+     */
+    private final double[][] costs = new double[KINDS][KINDS];
+
+    /*
+     * Classifications shared by all the labels of the same kind
+     */
+    private static final Label GAP_LABEL = new Label(GAP_OPCODE, 0);
+    private static final Label HAIRPIN_LABEL = new Label(Operators.HAIRPIN_OPCODE, 0);
+    private static final Label OTHER_LABEL = new Label(Operators.ALGEBRAIC_TREE_ROOT_OPCODE, 0);
+
+    /*
+     * Classifications of the operators, other than crossings, with the
+     * opcode of each label
+     */
+    private static final Map<String, Label> OPERATOR_LABELS = new HashMap<>();
+
+    static {
+        OPERATOR_LABELS.put(Operators.CONCATENATION_LABEL, new Label(Operators.CONCATENATION_OPCODE, 0));
+        OPERATOR_LABELS.put(Operators.NESTING_LABEL, new Label(Operators.NESTING_OPCODE, 0));
+        OPERATOR_LABELS.put(Operators.MEETING_LABEL, new Label(Operators.MEETING_OPCODE, 0));
+        OPERATOR_LABELS.put(Operators.STARTING_LABEL, new Label(Operators.STARTING_OPCODE, 0));
+        OPERATOR_LABELS.put(Operators.DIAMOND_LABEL, new Label(Operators.DIAMOND_OPCODE, 0));
+        OPERATOR_LABELS.put(Operators.ENDING_LABEL, new Label(Operators.ENDING_OPCODE, 0));
+    }
+
+    /*
+     * Crossing labels already classified, so that the number of crossings of
+     * each distinct crossing label is parsed only once and not at each cell
+     * of the alignment. There is one label for each number of crossings.
+     */
+    private final ConcurrentHashMap<String, Label> crossingLabels = new ConcurrentHashMap<>();
+
     /**
      * Create a scoring function according to the costs specified in the given
      * property file.
@@ -169,6 +228,9 @@ public class ScoringFunction implements TreeAlignLabelDistanceAsymmetric<String,
                     + "using default value 1.0");
             this.crossingMismatchCost = 1;
         }
+        for (int xKind = 0; xKind < KINDS; xKind++)
+            for (int yKind = 0; yKind < KINDS; yKind++)
+                this.costs[xKind][yKind] = cost(xKind, yKind);
     }
 
     /**
@@ -264,56 +326,104 @@ public class ScoringFunction implements TreeAlignLabelDistanceAsymmetric<String,
      */
     @Override
     public double f(String Xvalue, String Yvalue) {
-        String x = (Xvalue == null) ? "-" : Xvalue;
-        String y = (Yvalue == null) ? "-" : Yvalue;
+        Label x = classify(Xvalue);
+        Label y = classify(Yvalue);
+        return f(x.opcode, x.crossings, y.opcode, y.crossings);
+    }
+
+    /*
+     * Returns the same cost as f for two nodes given by their opcodes and, for
+     * crossings, their numbers of crossings, with GAP_OPCODE for a gap and the
+     * opcode of the root for the labels that are neither operators nor
+     * hairpins
+     */
+    double f(byte xOpcode, int xCrossings, byte yOpcode, int yCrossings) {
+        int xKind = OPCODE_KINDS[xOpcode + 1];
+        int yKind = OPCODE_KINDS[yOpcode + 1];
+
+        // (op,op') case
+        if (xKind == OPERATOR && yKind == OPERATOR) {
+            if (xOpcode == Operators.CROSSING_OPCODE && yOpcode == Operators.CROSSING_OPCODE)
+                // matching crossings, the cost is local and proportional to the crossing
+                // mismatches
+                return this.crossingMismatchCost * Math.abs(xCrossings - yCrossings);
+            // the operators are not two crossings, and they match only if they are
+            // the same operator
+            return xOpcode == yOpcode ? 0 : this.replaceOperatorCost;
+        }
+        return this.costs[xKind][yKind];
+    }
 
+    /*
+     * Returns the opcode of a node with the given label, as it is scored by f
+     */
+    byte getOpcode(String label) {
+        return classify(label).opcode;
+    }
+
+    /*
+     * Returns the number of crossings of a crossing label, 0 for the other
+     * labels
+     */
+    int getCrossings(String label) {
+        return classify(label).crossings;
+    }
+
+    /*
+     * Returns the cost of replacing a label of kind xKind with one of kind yKind,
+     * when they are not both operators
+     */
+    private double cost(int xKind, int yKind) {
         // (gap,gap) ... not used by alignment, but called
-        if (isGap(x) && isGap(y))
+        if (xKind == GAP && yKind == GAP)
             return 0;
 
         // op vs gap case
-        if (isOperator(x) && isGap(y))
+        if (xKind == OPERATOR && yKind == GAP)
             return this.deleteOperatorCost;
-        if (isOperator(y) && isGap(x))
+        if (yKind == OPERATOR && xKind == GAP)
             return this.insertOperatorCost;
 
-        // (op,op') case
-        if (isOperator(x) && isOperator(y)) {
-            if (isCrossing(x) && isCrossing(y)) {
-                // matching crossings, the cost is local and proportional to the crossing
-                // mismatches
-                int numberOfCrossingMismatches = getNumberOfCrossingMismatches(x, y);
-                return this.crossingMismatchCost * numberOfCrossingMismatches;
-            }
-            // the operators are not two crossings
-            if (x.equals(y))
-                // the operators match
-                return 0;
-            // the operators do not match
-            return this.replaceOperatorCost;
-        }
-
         // h vs gap case
-        if (isHairpin(x) && isGap(y))
+        if (xKind == HAIRPIN && yKind == GAP)
             return this.deleteHairpinCost;
-        if (isHairpin(y) && isGap(x))
+        if (yKind == HAIRPIN && xKind == GAP)
             return this.insertHairpinCost;
 
         // (h,h') case
-        if (isHairpin(x) && isHairpin(y))
-            return this.REPLACE_HAIRPIN_WITH_HAIRPIN;
-        if (isHairpin(y) && isHairpin(x))
+        if (xKind == HAIRPIN && yKind == HAIRPIN)
             return this.REPLACE_HAIRPIN_WITH_HAIRPIN;
 
         // h vs other case
-        if (isHairpin(x) && !isHairpin(y))
-            return this.REPLACE_HAIRPIN_WITH_OPERATOR;
-        if (isHairpin(y) && !isHairpin(x))
+        if (xKind == HAIRPIN || yKind == HAIRPIN)
             return this.REPLACE_HAIRPIN_WITH_OPERATOR;
 
         return 0;
     }
 
+    /*
+     * Returns the classification of the given label. Hairpins, gaps and the
+     * other labels are classified by their form only, and only the crossing
+     * labels are parsed, the first time they are met
+     */
+    private Label classify(String value) {
+        if (value == null || isGap(value))
+            return GAP_LABEL;
+        Label label = OPERATOR_LABELS.get(value);
+        if (label != null)
+            return label;
+        if (isHairpin(value))
+            return HAIRPIN_LABEL;
+        if (isCrossing(value)) {
+            label = this.crossingLabels.get(value);
+            if (label == null)
+                label = this.crossingLabels.computeIfAbsent(value,
+                        s -> new Label(Operators.CROSSING_OPCODE, parseNumberOfCrossings(s)));
+            return label;
+        }
+        return OTHER_LABEL;
+    }
+
     private boolean isHairpin(String s) {
 	String prefix = Operators.HAIRPIN_LABEL;
 	return s.trim().startsWith(prefix);
@@ -323,47 +433,34 @@ public class ScoringFunction implements TreeAlignLabelDistanceAsymmetric<String,
         return s.equals("-");
     }
 
-    private boolean isConcOrNestingOrMeetOrStartOrDiamOrEnd(String s) {
-        if (s.equals(Operators.CONCATENATION_LABEL))
-            return true;
-        if (s.equals(Operators.NESTING_LABEL))
-            return true;
-        if (s.equals(Operators.MEETING_LABEL))
-            return true;
-        if (s.equals(Operators.STARTING_LABEL))
-            return true;
-        if (s.equals(Operators.DIAMOND_LABEL))
-            return true;
-        if (s.equals(Operators.ENDING_LABEL))
-            return true;
-        return false;
-    }
-    
     private boolean isCrossing(String s) {
  	String prefix = "(" + Operators.CROSSING_LABEL;
  	return s.trim().startsWith(prefix);
      }
 
-    private boolean isOperator(String s) {
-        return isConcOrNestingOrMeetOrStartOrDiamOrEnd(s) || isCrossing(s);
-    }
-
-    private int getNumberOfCrossingMismatches(String s1, String s2) {
-        String ss1[] = s1.trim().split(",");
-        String ss2[] = s2.trim().split(",");
+    private int parseNumberOfCrossings(String s) {
+        String ss[] = s.trim().split(",");
 
-        int n1 = 0;
-        int n2 = 0;
+        int n = 0;
         try {
-            n1 = Integer.parseInt(ss1[1].substring(0, ss1[1].length() - 1));
+            n = Integer.parseInt(ss[1].substring(0, ss[1].length() - 1));
         } catch (NumberFormatException e) {
-            assert false : "Wrong crossing label: " + s1;
+            assert false : "Wrong crossing label: " + s;
         }
-        try {
-            n2 = Integer.parseInt(ss2[1].substring(0, ss2[1].length() - 1));
-        } catch (NumberFormatException e) {
-            assert false : "Wrong crossing label: " + s2;
+        return n;
+    }
+
+    /*
+     * Service class for holding the opcode of a label and, for crossings, the
+     * number of crossings
+     */
+    private static class Label {
+        private final byte opcode;
+        private final int crossings;
+
+        private Label(byte opcode, int crossings) {
+            this.opcode = opcode;
+            this.crossings = crossings;
         }
-        return Math.abs(n1 - n2);
     }
 }
@@ -27,6 +27,11 @@ import org.biojava.nbio.structure.contact.Pair;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Structural RNA/Protein's tree builder based on a given RNA/Protein's
@@ -40,10 +45,32 @@ import java.util.Arrays;
  */
 public class TERSAlignTree {
 
+    /*
+     * Minimum number of positions of both the sides of a meet or
+     * concatenation for the left one to be built by a forked task
+     */
+    private static final int PARALLEL_CUTOFF = 4096;
+
+    /*
+     * Scratch structures of the builds run by each thread, reused by the
+     * following builds on the same thread
+     */
+    private static final ThreadLocal<BuildScratch> SCRATCH = ThreadLocal
+	    .withInitial(BuildScratch::new);
+
+    /*
+     * Maximum sequence length of a build whose scratch structures are kept
+     * by its thread. The structures of longer builds are dropped at the end,
+     * so that a single long sequence does not pin its arrays to the thread.
+     */
+    private static final int MAX_RETAINED_SCRATCH_LENGTH = 1 << 16;
+
     private TertiaryStructure tertiaryStructure;
     private SecondaryStructure secondaryStructure;
-    private Tree<String> structuralTree;
+    private CompactStructuralTree compactStructuralTree;
+    private long bondListVersion;
     private int sequenceLength;
+    private int parallelism = 1;
 
     /**
      * Initializes a new structural tree builder for the tertiary structure
@@ -54,7 +81,6 @@ public class TERSAlignTree {
     public TERSAlignTree(TertiaryStructure tertiaryStructure) {
 	this.tertiaryStructure = tertiaryStructure;
 	this.sequenceLength = this.tertiaryStructure.getSequence().length();
-	this.structuralTree = null;
     }
 
     /**
@@ -67,7 +93,6 @@ public class TERSAlignTree {
 	this.secondaryStructure = secondaryStructure;
 	this.sequenceLength = this.secondaryStructure.getSecStrucState()
 		.size();
-	this.structuralTree = null;
     }
 
     /**
@@ -81,134 +106,238 @@ public class TERSAlignTree {
     }
 
     /**
+     * Returns a {@code Tree<String>} view of the structural tree returned by
+     * {@link #getCompactStructuralTree()}. The view is not kept, so a new one
+     * is created at each call: the alignment, statistics and output classes
+     * take the compact tree directly.
+     * 
      * @return the calculated tertiary structure structural tree
      */
     public Tree<String> getStructuralTree() {
-	if (this.structuralTree == null)
-	    buildStructural();
-	return this.structuralTree;
+	return getCompactStructuralTree().toTree();
+    }
+
+    /**
+     * Returns the structural tree in its array encoded form, built the first
+     * time and again whenever the bond list of the tertiary structure has
+     * changed since the last build, e.g. because its threshold was set to a
+     * different value. Builders can be shared by different threads, and the
+     * structure is never modified by the build.
+     * 
+     * @return the calculated structural tree in array encoded form
+     */
+    public synchronized CompactStructuralTree getCompactStructuralTree() {
+	if (this.compactStructuralTree == null
+		|| (this.tertiaryStructure != null && this.bondListVersion
+			!= this.tertiaryStructure.getBondListVersion())) {
+	    if (this.tertiaryStructure != null)
+		this.bondListVersion = this.tertiaryStructure
+			.getBondListVersion();
+	    buildStructural(null);
+	}
+	return this.compactStructuralTree;
+    }
+
+    /**
+     * Adds and removes the given bonds to the tertiary structure, as
+     * {@link TertiaryStructure#applyBondDelta(List, List)} does, and builds
+     * the structural tree again. The partner lists, the counting array and
+     * the index of the crossings are set up from the whole bond list, in time
+     * linear in the sequence length and in the number of bonds, as in any
+     * build. Only the parsing is saved: the subtrees of the pseudoloops that
+     * contain no position of the changed bonds, and that were already parsed
+     * in the same state by the previous build, are copied from the previous
+     * tree instead of being parsed again. The resulting tree is the same as
+     * the one built from scratch.
+     * 
+     * @param added   the bonds to add
+     * @param removed the bonds to remove
+     */
+    public synchronized void applyBondDelta(List<Pair<Integer>> added,
+	    List<Pair<Integer>> removed) {
+	TertiaryStructure tertiaryStructure = getTertiaryStructure();
+	// the previous tree can be reused only if it is up to date, and if the
+	// bonds that are not changed stay the same, which is not the case when
+	// a bond list given unsorted is sorted and its duplicates are dropped
+	Reuse reuse = null;
+	if (this.compactStructuralTree != null && this.bondListVersion
+		== tertiaryStructure.getBondListVersion()
+		&& TertiaryStructure
+			.isSortedBondList(tertiaryStructure.getBondList()))
+	    reuse = new Reuse(this.compactStructuralTree, added, removed);
+	tertiaryStructure.applyBondDelta(added, removed);
+	this.bondListVersion = tertiaryStructure.getBondListVersion();
+	buildStructural(reuse);
     }
 
     /**
      * Construct the structural tree root children and finds the outermost
-     * pseudoloop. Then the recursive builder is started on this pseudoloop to
-     * construct the full structural tree recursively.
+     * pseudoloop. Then the pseudoloops obtained by splitting it or removing
+     * its rightmost hairpin are parsed one at a time from a work list to
+     * construct the full structural tree. The working structures are taken
+     * from the scratch of the current thread, unless it is in use by a build
+     * waiting for its forked tasks on this same thread, and are dropped after
+     * the build of a sequence longer than MAX_RETAINED_SCRATCH_LENGTH. If the
+     * subtrees of a previous tree can be reused, they are copied instead of
+     * being parsed.
      */
-    private void buildStructural() {
+    private void buildStructural(Reuse reuse) {
+	BuildScratch scratch = SCRATCH.get();
+	boolean shared = !scratch.inUse;
+	if (!shared)
+	    scratch = new BuildScratch();
+	scratch.inUse = true;
+	try {
+	    buildStructural(scratch, reuse);
+	} finally {
+	    scratch.inUse = false;
+	    if (shared && this.sequenceLength > MAX_RETAINED_SCRATCH_LENGTH)
+		SCRATCH.remove();
+	}
+    }
+
+    private void buildStructural(BuildScratch scratch, Reuse reuse) {
 
-	int[] m = new int[this.sequenceLength + 1];
-	int[] c = new int[this.sequenceLength + 1];
-	ArrayList<Integer>[] p;
+	BitSet m = scratch.m;
+	m.clear();
+	int[] counts = scratch.getCounts(this.sequenceLength + 1);
+	PartnerLists p = scratch.p;
 	// If there is a secondary structure
 	if (this.secondaryStructure != null) {
-	    p = secondaryStructure.getBondsList();
+	    p.setPartnersArray(secondaryStructure.getBondsList());
 	} else {
 	    // There is a tertiary structure
-	    p = new ArrayList[this.sequenceLength + 1];
 	    // initialize the pointers array
 	    initp(p);
 	}
 
-	// initialize counting and meets array
-	initmc(m, c, p);
-
-	// init indexes for later recursion call
-	int l = 1; // left index
-	int r = this.sequenceLength; // right index
+	// initialize counting array and candidate meets
+	initmc(m, counts, p);
+	CountingArray c = scratch.c;
+	c.setCounts(counts, this.sequenceLength + 1);
 
 	// move l to the start of the structure
-	while (c[l] == 0)
-	    l++;
+	int l = c.nextNonZero(1, this.sequenceLength + 1); // left index
 
 	// move r to the tail of the structure
-	while (c[r] == 0)
-	    r--;
+	int r = c.lastNonZero(0, this.sequenceLength + 1); // right index
 	r++; // last closing loop has 0 count, but belongs to the loop, so
 	     // it's not part of
 	// the tail
 
 	// the largest pseudoloop is now identified by the interval [l,r]
-	assert c[l] >= 1 && c[r] == 0 : "Largest pseudoloop at [" + l + ","
-		+ r + "]\nCounting array: " + Arrays.toString(c);
-
-	// create an empty list of zero intervals to detect concatenations
-	ArrayList<Interval> zi = new ArrayList<>();
-
-	// find zero intervals in the outermost pseudoloop, if any
-	detectZeroIntervals(c, zi, l, r);
-
-	// create an empty list of meets indexes to detect meetings
-	ArrayList<Integer> meetIndexesList = new ArrayList<>();
-
-	// find meets in the new pseudoloop, if any
-	getMeetsInInterval(meetIndexesList, l, r, c, m, p);
-
-	// create the root node of the structural RNA tree
-	Tree<String> t = new Tree<>();
-
-	// start the recursive construction of the structural RNA Tree on the
-	// node ct
-	recBuildStructural(t, meetIndexesList, zi, c, p, m, l, r);
+	assert c.get(l) >= 1 && c.get(r) == 0 : "Largest pseudoloop at [" + l
+		+ "," + r + "]\nCounting array: " + c;
+
+	// create the root node of the structural RNA tree. The tree is a full
+	// binary tree whose leaves are the hairpins, so it has fewer nodes than
+	// the partners of all the positions
+	CompactStructuralTree.Builder tree = scratch.tree;
+	tree.reset(Math.max(1, p.countEntries()));
+	int t = tree.newNode();
+
+	// index of the bonds to count the crossings of the crossing nodes
+	CrossingCounter crossings = scratch.crossings;
+	crossings.setBonds(p);
+
+	// the pseudoloops still to be parsed are kept in an explicit work list
+	// instead of the call stack, so that the depth of the structural tree is
+	// bounded by the heap only. The right part of a meet or concatenation
+	// is pushed last and thus parsed before the left one, as in the former
+	// recursive construction.
+	Region region = new Region(c, m, crossings, p, tree, reuse);
+	if (this.parallelism == 1
+		|| this.sequenceLength < 2 * PARALLEL_CUTOFF) {
+	    WorkList workList = scratch.workList;
+	    workList.push(t, l, r);
+	    while (!workList.isEmpty()) {
+		int top = workList.pop();
+		buildPseudoloop(workList.getNode(top), workList.getLeft(top),
+			workList.getRight(top), region, workList, null);
+	    }
+	} else if (this.parallelism == 0) {
+	    ForkJoinPool.commonPool()
+		    .invoke(new PseudoloopTask(t, l, r, region));
+	} else {
+	    ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+	    try {
+		pool.invoke(new PseudoloopTask(t, l, r, region));
+	    } finally {
+		pool.shutdown();
+	    }
+	}
 
-	// assign to the root of this tree
-	this.structuralTree = t;
+	// assign to the root of this tree, numbering the nodes in pre-order
+	this.compactStructuralTree = tree.build(t);
 
     }
 
-    private void recBuildStructural(Tree<String> ct,
-	    ArrayList<Integer> meetsInInterval, ArrayList<Interval> zi,
-	    int[] c, ArrayList<Integer>[] p, int[] m, int l, int r) {
-
-	assert c[l] >= 1 && c[r] == 0
-		: "Pseudoloop bounds error while parsing at [" + l + "," + r
-			+ "]\nCounting array: " + Arrays.toString(c);
-
-	if ((!meetsInInterval.isEmpty() && meetsInInterval
-		.get(meetsInInterval.size() - 1).equals(p[r].get(0)))
-		|| !zi.isEmpty()) {
+    /*
+     * Builds the node of the structural tree associated to the given
+     * pseudoloop and pushes onto the work list the pseudoloops that are left
+     * to be parsed to build its children. All the pseudoloops share the same
+     * counting and partners arrays. When a pseudoloop is split by a meet, the
+     * meet point is the right end of the left pseudoloop and the left end of
+     * the right one, so only the partners of r before r and the partners of
+     * l after l belong to the pseudoloop, and the count in r, which is zero
+     * for the pseudoloop, is never read. If a list of forked tasks is given,
+     * the left side of a meet or concatenation is built by a new forked task
+     * when both the sides are large enough, on a copy of the region of the
+     * counting array, of the candidate meets and of the bonds it spans.
+     */
+    private void buildPseudoloop(int ct, int l, int r, Region region,
+	    WorkList workList, List<ForkJoinTask<?>> forked) {
+	CountingArray c = region.c;
+	BitSet m = region.m;
+	CrossingCounter crossings = region.crossings;
+	PartnerLists p = region.p;
+	CompactStructuralTree.Builder tree = region.tree;
+
+	// copy the subtree of the same pseudoloop from the previous tree, if
+	// it can be reused
+	if (region.reuse != null && region.reuse.copy(ct, l, r, p, tree))
+	    return;
+
+	assert c.get(l) >= 1 : "Pseudoloop bounds error while parsing at [" + l
+		+ "," + r + "]\nCounting array: " + c;
+
+	// left end of the rightmost hairpin of the pseudoloop. When the
+	// pseudoloop was split by a meet in r, the task parsing the right side
+	// only removes partners above r, so the partners below r are owned by
+	// this pseudoloop even if the other task runs in parallel
+	int lpp = p.getFirstBelow(r);
+
+	// find the rightmost zero interval in the pseudoloop, if any, to
+	// detect concatenations
+	Interval rmzi = getRightmostZeroInterval(c, l, r);
+
+	// tell if the rightmost hairpin starts from a meet, and if it is the
+	// rightmost meet of the pseudoloop
+	boolean meet = isMeet(lpp, l, r, c, m, p);
+	boolean rightmostMeet = meet && !hasMeetsInInterval(lpp, r, c, m, p);
+
+	if (rightmostMeet || rmzi != null) {
 	    int rl = 0;
 	    int lr = 0;
-	    // value inside c array's last position is different between left
-	    // and right substructures in case of a meet, so we proceed to
-	    // clone it
-	    int[] meetConcatC = c.clone();
-	    ArrayList<Integer>[] leftP = p;
-	    ArrayList<Integer>[] rightP = p;
-	    if (!meetsInInterval.isEmpty()
-		    && meetsInInterval.contains(p[r].get(0))) {
+	    byte opcode = 0;
+	    if (meet) {
 		// meet case
 
-		int meetPoint = p[r].get(0);
+		int meetPoint = lpp;
 
-		ct.setValue(Operators.MEETING_LABEL);
-
-		leftP = new ArrayList[p.length];
-		rightP = new ArrayList[p.length];
-		copyArrayOfArrayList(p, leftP);
-		copyArrayOfArrayList(p, rightP);
-		// filter every parent of l, m which is not between l and m
-		this.filterPartnerList(l, meetPoint, leftP);
-		// filter every parent of l, m which is not between m and r
-		this.filterPartnerList(meetPoint, r, rightP);
+		opcode = Operators.MEETING_OPCODE;
 
 		// set boundaries of the right pseudoloop and of the left
-		// pseudoloop
+		// pseudoloop. The hairpins starting from the meet point are
+		// not considered within the left pseudoloop context, and the
+		// ones ending in it are not considered within the right
+		// pseudoloop context
 		lr = meetPoint;
 		rl = meetPoint;
 
-		// when two pseudoloops are split by a meet, the last value of
-		// the left pseudoloop must be set to 0 since the hairpins
-		// starting from the meet point
-		// are not considered within the left pseudoloop context
-		meetConcatC[meetPoint] = 0;
-
-	    } else if (!zi.isEmpty()) {
+	    } else if (rmzi != null) {
 		// concat case
-		ct.setValue(Operators.CONCATENATION_LABEL);
-
-		// get rightmost zero interval
-		Interval rmzi = zi.get(zi.size() - 1);
-		zi.remove(zi.size() - 1);
+		opcode = Operators.CONCATENATION_OPCODE;
 
 		// find boundaries of the right pseudoloop and of the left
 		// pseudoloop
@@ -216,390 +345,267 @@ public class TERSAlignTree {
 		rl = rmzi.j;
 	    }
 	    // the new right pseudoloop to consider has bounds [rl,rr]
-	    assert c[rl] >= 1 && c[r] == 0
+	    assert c.get(rl) >= 1
 		    : "Determined wrong pseudoloop at [" + rl + "," + r
-			    + "]\nCounting array: " + Arrays.toString(c);
+			    + "]\nCounting array: " + c;
 
 	    // create the node for building the left part
-	    Tree<String> left = new Tree<>();
+	    int left = tree.newNode();
 
 	    // create node for building the right part
-	    Tree<String> right = new Tree<>();
+	    int right = tree.newNode();
 
 	    // update tree
-	    ArrayList<Tree<String>> meetConcChilds = new ArrayList<>();
-	    meetConcChilds.add(left);
-	    meetConcChilds.add(right);
-	    ct.replaceChildrenListBy(meetConcChilds);
-
-	    // create two empty lists of zero intervals to detect
-	    // concatenations in the left and right pseudoloops
-	    ArrayList<Interval> zirRight = new ArrayList<>();
-	    ArrayList<Interval> zirLeft = new ArrayList<>();
-
-	    // find zero intervals in the right and left pseudoloops, if any
-	    detectZeroIntervals(c, zirRight, rl, r);
-	    detectZeroIntervals(meetConcatC, zirLeft, l, lr);
-
-	    // create two empty lists of meet indexes to detect meetings in
-	    // the right and left pseudoloops
-	    ArrayList<Integer> meetIndexesListRight = new ArrayList<>();
-	    ArrayList<Integer> meetIndexesListLeft = new ArrayList<>();
-
-	    // find meets in the right and left pseudoloops, if any
-	    getMeetsInInterval(meetIndexesListRight, rl, r, c, m, rightP);
-	    getMeetsInInterval(meetIndexesListLeft, l, lr, meetConcatC, m,
-		    leftP);
-
-	    // recursive construction of the structural subTree on the right
-	    recBuildStructural(right, meetIndexesListRight, zirRight, c,
-		    rightP, m, rl, r);
-	    // recursive construction of the structural subTree on the left
-	    recBuildStructural(left, meetIndexesListLeft, zirLeft,
-		    meetConcatC, leftP, m, l, lr);
+	    tree.setOperator(ct, opcode, left, right);
+
+	    // construction of the structural subTree on the left, after the
+	    // one on the right or in parallel with it
+	    if (forked != null && lr - l >= PARALLEL_CUTOFF
+		    && r - rl >= PARALLEL_CUTOFF) {
+		// the sides share at most the meet point, whose partners below
+		// are read and removed only by the left side and whose partners
+		// above only by the right side, so the copy of the region of the
+		// left side is taken before any of them is parsed and the shared
+		// partner lists and tree are written at distinct entries
+		PseudoloopTask task = new PseudoloopTask(left, l, lr,
+			region.copy(l, lr + 1));
+		task.fork();
+		forked.add(task);
+	    } else
+		workList.push(left, l, lr);
+	    // construction of the structural subTree on the right
+	    workList.push(right, rl, r);
 	} else {
-	    if (p[r].get(0) > l) {
+	    if (lpp > l) {
 		// cross case
 
 		// determine number of crossings and set label
-		int numberOfCrossings = determineNumberOfCrossings(p,
-			p[r].get(0));
-		ct.setValue("(" + Operators.CROSSING_LABEL + ","
-			+ numberOfCrossings + ")");
+		int numberOfCrossings = determineNumberOfCrossings(crossings,
+			lpp);
 
-		// left end of the rightmost crossing hairpin
-		int lpp = p[r].get(0);
 		// index for the right end of the new pseudoloop
 		int rp = r;
 
 		// decrease counting array according to the elimination of
 		// this hairpin
-		for (int i = lpp; i < r; i++) {
-		    c[i]--;
-		}
+		c.add(lpp, r, -1);
 
 		// determine the ending of the last loop on the right
-		while (c[rp] == 0)
-		    rp--;
+		rp = c.lastNonZero(0, rp);
 		rp++; // last closing loop has 0 count, but belongs to the
 		      // loop
 
 		// the new pseudoloop to consider has bounds [l,rp]
-		assert c[l] >= 1 && c[rp] == 0
+		assert c.get(l) >= 1 && (rp == r || c.get(rp) == 0)
 			: "Determined wrong pseudoloop at [" + l + "," + rp
-				+ "]\nCounting array: " + Arrays.toString(c);
+				+ "]\nCounting array: " + c;
 
 		// create the empty node for building the rest of the tree on
 		// the left
-		Tree<String> rest = new Tree<>();
+		int rest = tree.newNode();
 
 		// create hairpin subtree
-		Tree<String> h = new Tree<>();
-		h.setValue(Operators.HAIRPIN_LABEL + "(" + p[r].get(0) + ","
-			+ r + ")");
+		int h = tree.newNode();
+		tree.setHairpin(h, lpp, r);
 
 		// update tree
-		ArrayList<Tree<String>> crossChilds = new ArrayList<>();
-		crossChilds.add(rest);
-		crossChilds.add(h);
-		ct.replaceChildrenListBy(crossChilds);
+		tree.setCrossing(ct, numberOfCrossings, rest, h);
 
-		// create an empty list of zero intervals to detect
-		// concatenations
-		ArrayList<Interval> zip = new ArrayList<>();
+		// remove the hairpin from the crossing counter and partner
+		// indexes from both hairpin ending's p arrays. Only the partners
+		// above lpp and below r are written, which are owned by this
+		// pseudoloop also when lpp or r is a meet point
+		crossings.remove(lpp, r);
+		p.remove(lpp, r);
+		p.remove(r, lpp);
 
-		// find zero intervals in the new pseudoloop, if any
-		detectZeroIntervals(c, zip, l, rp);
-
-		// remove partner indexes from both hairpin ending's p arrays
-		p[p[r].get(0)].remove(Integer.valueOf(r));
-		p[r].remove(p[r].get(0));
-
-		// create an empty list of meet indexes to detect meetings
-		ArrayList<Integer> meetIndexesList = new ArrayList<>();
-
-		// find meets in the new pseudoloop, if any
-		getMeetsInInterval(meetIndexesList, l, rp, c, m, p);
-
-		// recursive construction of the structural subTree on the
-		// node rest
-		recBuildStructural(rest, meetIndexesList, zip, c, p, m, l,
-			rp);
+		// construction of the structural subTree on the node rest
+		workList.push(rest, l, rp);
 
 	    } else {
-		if (p[r].size() > 1 && p[p[r].get(0)].size() == 1
-			&& p[r].get(0) == l) {
+		if (p.countPartnersBelow(r) > 1 && p.countPartnersAbove(l) == 1
+			&& lpp == l) {
 		    // ending case
 
-		    ct.setValue(Operators.ENDING_LABEL);
-
 		    // decrease counting array according to the elimination of
 		    // this hairpin
-		    for (int i = l; i < r; i++)
-			c[i]--;
+		    c.add(l, r, -1);
 
-		    // init indexes for later recursion call
+		    // init indexes for the construction of the rest
 		    int lp = l + 1;
 
 		    // determine the starting of the next loop on the left
-		    while (c[lp] == 0 && lp < r)
-			lp++;
+		    lp = c.nextNonZero(lp, r);
 		    if (lp == r) {
 			// no subloops of this ending, there will be no more
 			// complex subtrees
 			// revert to just a single hairpin
-			ct.setValue(Operators.HAIRPIN_LABEL + "("
-				+ p[r].get(0) + "," + r + ")");
+			tree.setHairpin(ct, lpp, r);
 
-			// end recursion
+			// nothing left to parse in this pseudoloop
 			return;
 		    }
 
 		    // the new pseudoloop to consider has bounds [lp,rp]
-		    assert c[lp] >= 1 && c[r] == 0
+		    assert c.get(lp) >= 1
 			    : "Determined wrong pseudoloop at [" + lp + ","
 				    + r + "]\nCounting array: "
-				    + Arrays.toString(c);
+				    + c;
 
 		    // create the empty node for building the rest of the tree
 		    // on the left
-		    Tree<String> rest = new Tree<>();
+		    int rest = tree.newNode();
 
 		    // create hairpin subtree
-		    Tree<String> h = new Tree<>();
-		    h.setValue(Operators.HAIRPIN_LABEL + "(" + p[r].get(0)
-			    + "," + r + ")");
+		    int h = tree.newNode();
+		    tree.setHairpin(h, lpp, r);
 
 		    // update tree
-		    ArrayList<Tree<String>> endChild = new ArrayList<>();
-		    endChild.add(rest);
-		    endChild.add(h);
-		    ct.replaceChildrenListBy(endChild);
-
-		    // create an empty list of zero intervals to detect
-		    // concatenations
-		    ArrayList<Interval> zip = new ArrayList<>();
+		    tree.setOperator(ct, Operators.ENDING_OPCODE, rest, h);
 
-		    // find zero intervals in the new pseudoloop, if any
-		    detectZeroIntervals(c, zip, lp, r);
+		    // remove the hairpin from the crossing counter and partner
+		    // indexes from both hairpin ending's p arrays
+		    crossings.remove(lpp, r);
+		    p.remove(lpp, r);
+		    p.remove(r, lpp);
 
-		    // remove partner indexes from both hairpin ending's p
-		    // arrays
-		    p[p[r].get(0)].remove(Integer.valueOf(r));
-		    p[r].remove(p[r].get(0));
+		    // construction of the structural subTree on the node rest
+		    workList.push(rest, lp, r);
 
-		    // create an empty list of meet indexes to detect meetings
-		    ArrayList<Integer> meetIndexesList = new ArrayList<>();
-
-		    // find meets in the new pseudoloop, if any
-		    getMeetsInInterval(meetIndexesList, lp, r, c, m, p);
-
-		    // recursive construction of the structural subTree on the
-		    // node rest
-		    recBuildStructural(rest, meetIndexesList, zip, c, p, m,
-			    lp, r);
-
-		} else if (p[r].size() == 1 && p[p[r].get(0)].size() > 1
-			&& p[r].get(0) == l) {
+		} else if (p.countPartnersBelow(r) == 1 && p.countPartnersAbove(l) > 1
+			&& lpp == l) {
 		    // starting case
 
-		    ct.setValue(Operators.STARTING_LABEL);
-
 		    // decrease counting array according to the elimination of
 		    // this hairpin
-		    for (int i = l; i < r; i++)
-			c[i]--;
+		    c.add(l, r, -1);
 
-		    // init indexes for later recursion call
+		    // init indexes for the construction of the rest
 		    int rp = r;
 
 		    // determine the ending of the last loop on the right
-		    while (c[rp] == 0)
-			rp--;
+		    rp = c.lastNonZero(0, rp);
 		    rp++; // last closing loop has 0 count, but belongs to the
-			  // loop
+		          // loop
 
 		    // the new pseudoloop to consider has bounds [lp,rp]
-		    assert c[l] >= 1 && c[rp] == 0
+		    assert c.get(l) >= 1 && (rp == r || c.get(rp) == 0)
 			    : "Determined wrong pseudoloop at [" + l + ","
 				    + rp + "]\nCounting array: "
-				    + Arrays.toString(c);
+				    + c;
 
 		    // create the empty node for building the rest of the tree
 		    // on the left
-		    Tree<String> rest = new Tree<>();
+		    int rest = tree.newNode();
 
 		    // create hairpin subtree
-		    Tree<String> h = new Tree<>();
-		    h.setValue(Operators.HAIRPIN_LABEL + "(" + p[r].get(0)
-			    + "," + r + ")");
+		    int h = tree.newNode();
+		    tree.setHairpin(h, lpp, r);
 
 		    // update tree
-		    ArrayList<Tree<String>> startChids = new ArrayList<>();
-		    startChids.add(rest);
-		    startChids.add(h);
-		    ct.replaceChildrenListBy(startChids);
-
-		    // create an empty list of zero intervals to detect
-		    // concatenations
-		    ArrayList<Interval> zip = new ArrayList<>();
+		    tree.setOperator(ct, Operators.STARTING_OPCODE, rest, h);
 
-		    // find zero intervals in the new pseudoloop, if any
-		    detectZeroIntervals(c, zip, l, rp);
+		    // remove the hairpin from the crossing counter and partner
+		    // indexes from both hairpin ending's p arrays
+		    crossings.remove(lpp, r);
+		    p.remove(lpp, r);
+		    p.remove(r, lpp);
 
-		    // remove partner indexes from both hairpin ending's p
-		    // arrays
-		    p[p[r].get(0)].remove(Integer.valueOf(r));
-		    p[r].remove(p[r].get(0));
+		    // construction of the structural subTree on the node rest
+		    workList.push(rest, l, rp);
 
-		    // create an empty list of meet indexes to detect meetings
-		    ArrayList<Integer> meetIndexesList = new ArrayList<>();
-
-		    // find meets in the new pseudoloop, if any
-		    getMeetsInInterval(meetIndexesList, l, rp, c, m, p);
-
-		    // recursive construction of the structural subTree on the
-		    // node rest
-		    recBuildStructural(rest, meetIndexesList, zip, c, p, m, l,
-			    rp);
-
-		} else if (p[r].size() > 1 && p[p[r].get(0)].size() > 1
-			&& p[r].get(0) == l) {
+		} else if (p.countPartnersBelow(r) > 1 && p.countPartnersAbove(l) > 1
+			&& lpp == l) {
 		    // diamond case
 
-		    ct.setValue(Operators.DIAMOND_LABEL);
-
 		    // decrease counting array according to the elimination of
 		    // this hairpin
-		    for (int i = l; i < r; i++)
-			c[i]--;
+		    c.add(l, r, -1);
 
-		    // indexes for later recursion call are l and r
+		    // indexes for the construction of the rest are l and r
 
 		    // starting and ending of the loop are l and r
 
 		    // the new pseudoloop to consider has bounds [lp,rp]
-		    assert c[l] >= 1 && c[r] == 0
+		    assert c.get(l) >= 1
 			    : "Determined wrong pseudoloop at [" + l + "," + r
 				    + "]\nCounting array: "
-				    + Arrays.toString(c);
+				    + c;
 
 		    // create the empty node for building the rest of the tree
 		    // on the left
-		    Tree<String> rest = new Tree<>();
+		    int rest = tree.newNode();
 
 		    // create hairpin subtree
-		    Tree<String> h = new Tree<>();
-		    h.setValue(Operators.HAIRPIN_LABEL + "(" + p[r].get(0)
-			    + "," + r + ")");
+		    int h = tree.newNode();
+		    tree.setHairpin(h, lpp, r);
 
 		    // update tree
-		    ArrayList<Tree<String>> diamondChilds = new ArrayList<>();
-		    diamondChilds.add(rest);
-		    diamondChilds.add(h);
-		    ct.replaceChildrenListBy(diamondChilds);
-
-		    // create an empty list of zero intervals to detect
-		    // concatenations
-		    ArrayList<Interval> zip = new ArrayList<>();
-
-		    // find zero intervals in the new pseudoloop, if any
-		    detectZeroIntervals(c, zip, l, r);
+		    tree.setOperator(ct, Operators.DIAMOND_OPCODE, rest, h);
 
-		    // remove partner indexes from both hairpin ending's p
-		    // arrays
-		    p[p[r].get(0)].remove(Integer.valueOf(r));
-		    p[r].remove(p[r].get(0));
+		    // remove the hairpin from the crossing counter and partner
+		    // indexes from both hairpin ending's p arrays
+		    crossings.remove(lpp, r);
+		    p.remove(lpp, r);
+		    p.remove(r, lpp);
 
-		    // create an empty list of meet indexes to detect meetings
-		    ArrayList<Integer> meetIndexesList = new ArrayList<>();
-
-		    // find meets in the new pseudoloop, if any
-		    getMeetsInInterval(meetIndexesList, l, r, c, m, p);
-
-		    // recursive construction of the structural subTree on the
-		    // node rest
-		    recBuildStructural(rest, meetIndexesList, zip, c, p, m, l,
-			    r);
+		    // construction of the structural subTree on the node rest
+		    workList.push(rest, l, r);
 
 		} else {
 		    // nest case
-		    ct.setValue(Operators.NESTING_LABEL);
-
 		    // decrease counting array according to the elimination of
 		    // this hairpin
-		    for (int i = l; i < r; i++)
-			c[i]--;
+		    c.add(l, r, -1);
 
-		    // init indexes for later recursion call
+		    // init indexes for the construction of the rest
 		    int lp = l + 1;
 		    int rp = r;
 
 		    // determine the starting of the next loop on the left and
 		    // increment k
-		    while (c[lp] == 0 && lp < rp)
-			lp++;
+		    lp = c.nextNonZero(lp, rp);
 		    if (lp == rp) {
 			// no subloops of this nesting, there will be no more
 			// complex subtrees
 
 			// revert to just a single hairpin
-			ct.setValue(Operators.HAIRPIN_LABEL + "("
-				+ p[r].get(0) + "," + r + ")");
+			tree.setHairpin(ct, lpp, r);
 
-			// end recursion
+			// nothing left to parse in this pseudoloop
 			return;
 		    }
 
 		    // determine the ending of the last loop on the right
-		    while (c[rp] == 0)
-			rp--;
+		    rp = c.lastNonZero(0, rp);
 		    rp++; // last closing loop has 0 count, but belongs to the
-			  // loop
+		          // loop
 
 		    // the new pseudoloop to consider has bounds [lp,rp]
-		    assert c[lp] >= 1 && c[rp] == 0
+		    assert c.get(lp) >= 1 && (rp == r || c.get(rp) == 0)
 			    : "Determined wrong pseudoloop at [" + lp + ","
 				    + rp + "]\nCounting array: "
-				    + Arrays.toString(c);
+				    + c;
 
 		    // create the empty node for building the rest of the tree
 		    // on the left
-		    Tree<String> rest = new Tree<>();
+		    int rest = tree.newNode();
 
 		    // create hairpin subtree
-		    Tree<String> h = new Tree<>();
-		    h.setValue(Operators.HAIRPIN_LABEL + "(" + p[r].get(0)
-			    + "," + r + ")");
+		    int h = tree.newNode();
+		    tree.setHairpin(h, lpp, r);
 
 		    // update tree
-		    ArrayList<Tree<String>> nestChilds = new ArrayList<>();
-		    nestChilds.add(rest);
-		    nestChilds.add(h);
-		    ct.replaceChildrenListBy(nestChilds);
-
-		    // create an empty list of zero intervals to detect
-		    // concatenations
-		    ArrayList<Interval> zip = new ArrayList<>();
-
-		    // find zero intervals in the new pseudoloop, if any
-		    detectZeroIntervals(c, zip, lp, rp);
+		    tree.setOperator(ct, Operators.NESTING_OPCODE, rest, h);
 
-		    // remove partner indexes from both hairpin ending's p
-		    // arrays
-		    p[p[r].get(0)].remove(Integer.valueOf(r));
-		    p[r].remove(p[r].get(0));
+		    // remove the hairpin from the crossing counter and partner
+		    // indexes from both hairpin ending's p arrays
+		    crossings.remove(lpp, r);
+		    p.remove(lpp, r);
+		    p.remove(r, lpp);
 
-		    // create an empty list of meet indexes to detect meetings
-		    ArrayList<Integer> meetIndexesList = new ArrayList<>();
-
-		    // find meets in the new pseudoloop, if any
-		    getMeetsInInterval(meetIndexesList, lp, rp, c, m, p);
-
-		    // recursive construction of the structural subTree on the
-		    // node rest
-		    recBuildStructural(rest, meetIndexesList, zip, c, p, m,
-			    lp, rp);
+		    // construction of the structural subTree on the node rest
+		    workList.push(rest, lp, rp);
 
 		}
 	    }
@@ -607,155 +613,101 @@ public class TERSAlignTree {
     }
 
     /*
-     * Creates a deep copy of Array of ArrayLists P
+     * @param p partners array
      * 
-     * @param array source p array
+     * @param index index to check
      * 
-     * @param copyArray destination p array
+     * @return number of hairpins starting from the given index
      */
-    private void copyArrayOfArrayList(ArrayList<Integer>[] array,
-	    ArrayList<Integer>[] copyArray) {
-	for (int i = 0; i < array.length; i++) {
-	    if (!(array[i] == null))
-		copyArray[i] = new ArrayList<>(array[i]);
-	}
+    private int countExitingHairpins(PartnerLists p, int index) {
+	return p.countPartnersAbove(index);
     }
 
     /*
-     * Filters every parent of l and r which is not inside the interval l - r
-     * 
-     * @param l interval's starting index
-     * 
-     * @param r interval's ending index
-     * 
-     * @param p1 partners array
+     * Tells if the index i is a meet inside the pseudoloop [l,r]. A meet is
+     * an index of the primary sequence that separates two pseudoloops. A
+     * meet happens when two or more hairpins meet in the same index (i), the
+     * number of hairpins in i is greater than c[i] and the value of c[i] is
+     * less or equal than the number of hairpins starting in the said index.
+     * Only the indexes in m, where a hairpin both starts and stops in the
+     * original structure, are candidate meets. A candidate left without
+     * hairpins is removed from m.
      */
-    private void filterPartnerList(int l, int r, ArrayList<Integer>[] p1) {
-	for (int i = 0; i < p1[l].size(); i++) {
-	    Integer partnerIndex = p1[l].get(i);
-	    if (partnerIndex < l || partnerIndex > r) {
-		p1[l].remove(partnerIndex);
-		p1[partnerIndex].remove(Integer.valueOf(l));
-		i--;
-	    }
-	}
-	for (int i = 0; i < p1[r].size(); i++) {
-	    Integer partnerIndex = p1[r].get(i);
-	    if (partnerIndex < l || partnerIndex > r) {
-		p1[r].remove(partnerIndex);
-		p1[partnerIndex].remove(Integer.valueOf(r));
-		i--;
-	    }
+    private boolean isMeet(int i, int l, int r, CountingArray c, BitSet m,
+	    PartnerLists p) {
+	if (i <= l || i >= r || !m.get(i))
+	    return false;
+	if (p.size(i) == 0) {
+	    m.clear(i);
+	    return false;
 	}
+	// i is strictly inside the pseudoloop, so its partners are not written
+	// by any other pseudoloop parsed in parallel
+	int count = c.get(i);
+	return count < p.size(i) && !(count > countExitingHairpins(p, i));
     }
 
     /*
-     * @param p partners array
-     * 
-     * @param index index to check
-     * 
-     * @return number of hairpins starting from the given index
+     * Tells if there are meets inside the interval (from,r) of the
+     * pseudoloop ending in r. Only the candidate meets in m are visited.
      */
-    private int countExitingHairpins(ArrayList<Integer>[] p, int index) {
-	int count = 0;
-	for (Integer partner : p[index]) {
-	    if (partner > index)
-		count++;
-	}
-	return count;
-    }
-
-    /*
-     * Finds all the (possibly empty) meets inside the pseudoloop [l,r]. A
-     * meet is an index of the primary sequence that separates two
-     * pseudoloops. A meet happens when two or more hairpins meet in the same
-     * index (i), the value of c[i] > m[i] and the value of c[i] is less or
-     * equal than the number of hairpins starting in the said index. All the
-     * found meets are put into the list meetList.
-     */
-    private void getMeetsInInterval(ArrayList<Integer> meetList, int l, int r,
-	    int[] c, int[] m, ArrayList<Integer>[] p) {
-	for (int i = l + 1; i < r; i++) {
-	    if (m[i] != 0) {
-		m[i] = p[i].size();
-		if (c[i] < m[i]) {
-		    if (!(c[i] > countExitingHairpins(p, i)))
-			meetList.add(i);
-		}
-	    }
-	}
+    private boolean hasMeetsInInterval(int from, int r, CountingArray c,
+	    BitSet m, PartnerLists p) {
+	for (int i = m.nextSetBit(from + 1); i >= 0
+		&& i < r; i = m.nextSetBit(i + 1))
+	    if (isMeet(i, from, r, c, m, p))
+		return true;
+	return false;
     }
 
-    private int determineNumberOfCrossings(ArrayList<Integer>[] p,
+    private int determineNumberOfCrossings(CrossingCounter crossings,
 	    int bondStart) {
-	int n = 0;
-	for (int i = 0; i < p.length; i++) {
-	    if (p[i] != null) {
-		for (Integer currentPartner : p[i]) {
-		    if (i < bondStart && bondStart < currentPartner)
-			n++;
-		}
-	    }
-	}
+	int n = crossings.countCrossings(bondStart);
 	assert n > 0 : "Crossing number equal to zero!";
 	return n;
     }
 
     /*
-     * Finds all the (possibly empty) zero intervals inside the pseudoloop
-     * [l,r]. A zero interval is a section of the primary sequence that
-     * separates two concatenated pseudoloops. It is called zero interval
-     * because in the counting array the count goes to zero before the end of
-     * the pseudoloop. A zero interval always starts at the first position
-     * after the count went to zero. It stops at the first position in which
-     * the counting raises to one again. If these positions coincide the zero
-     * interval is empty. All the found intervals are put into the list zi,
-     * which is assumed to be empty at the calling time.
+     * Finds the rightmost (possibly empty) zero interval inside the
+     * pseudoloop [l,r], or null if there is none. A zero interval is a section
+     * of the primary sequence that separates two concatenated pseudoloops. It
+     * is called zero interval because in the counting array the count goes to
+     * zero before the end of the pseudoloop. A zero interval always starts at
+     * the first position after the count went to zero. It stops at the first
+     * position in which the counting raises to one again. If these positions
+     * coincide the zero interval is empty. Only the rightmost zero interval is
+     * needed, since the pseudoloop on its left is parsed again afterwards.
      */
-    private void detectZeroIntervals(int[] c, ArrayList<Interval> zi, int l,
-	    int r) {
+    private Interval getRightmostZeroInterval(CountingArray c, int l, int r) {
 	assert l < r : "Empty pseudoloop while detecting zero intervals at ["
 		+ l + "," + r + "]";
-	assert c[l] >= 1 && c[r] == 0
+	assert c.get(l) >= 1
 		: "Pseudoloop bounds error while detecting zero intervals at ["
-			+ l + "," + r + "]\nCounting array: "
-			+ Arrays.toString(c);
-	assert zi.isEmpty()
-		: "Not empty zero interval list while detecting zero intervals: "
-			+ zi;
-	int i = l;
-	do {
-	    // search for the next zero interval
-	    while (c[i] != 0)
-		i++;
-	    if (i == r)
-		break; // reached end of the interval, stop searching more
-		       // zero intervals
-	    i++;
-	    // determine start of the zero interval
-	    int start = i;
-	    // search for the end of the zero interval
-	    while (c[i] == 0)
-		i++;
-	    // determine the stop of the zero interval, if start == stop, the
-	    // zero interval
-	    // is empty
-	    int stop = i;
-	    // create the interval and add it to the list
-	    Interval interval = new Interval(start, stop);
-	    zi.add(interval);
-	} while (true);
+			+ l + "," + r + "]\nCounting array: " + c;
+	// search for the last zero before the end of the interval
+	int lastZero = c.lastZero(l, r);
+	if (lastZero < l)
+	    return null; // no zero intervals
+	// search for the position where the count went to zero
+	int i = c.lastNonZero(l, lastZero) + 1;
+	// determine start of the zero interval
+	int start = i + 1;
+	// determine the stop of the zero interval, the first position after
+	// the last zero. If start == stop, the zero interval is empty
+	int stop = lastZero + 1;
+	return new Interval(start, stop);
     }
 
     /*
      * /* Initializes both meets and counter arrays
      */
-    private void initmc(int[] m, int[] c, ArrayList<Integer>[] p) {
+    private void initmc(BitSet m, int[] c, PartnerLists p) {
 	int count = 0;
+	c[0] = count;
 	int currentIndexStartingLoops;
 	int currentIndexStoppingLoops;
 	for (int i = 1; i <= this.sequenceLength; i++) {
-	    if (!(p[i] == null)) {
+	    if (p.size(i) > 0) {
 		currentIndexStartingLoops = getStartingLoopsNumber(i, p);
 		currentIndexStoppingLoops = getStoppingLoopsNumber(i, p);
 
@@ -765,20 +717,21 @@ public class TERSAlignTree {
 			&& currentIndexStoppingLoops > 0) {
 		    // a loop stops and another starts in the current index,
 		    // so this is a meet
-		    m[i] = p[i].size();
+		    m.set(i);
 		}
 	    }
 	    c[i] = count;
 	}
 	assert count == 0
 		: "Value of count after initialization of counting array: "
-			+ count + "\nCounting array: " + Arrays.toString(c);
+			+ count + "\nCounting array: " + Arrays
+				.toString(Arrays.copyOf(c, this.sequenceLength + 1));
     }
 
     /*
      * Initializes partners array
      */
-    private void initp(ArrayList<Integer>[] p) {
+    private void initp(PartnerLists p) {
 	ArrayList<Pair<Integer>> bondList = this.tertiaryStructure
 		.getBondList();
 	if (bondList.size() == 0) {
@@ -786,44 +739,23 @@ public class TERSAlignTree {
 		    "No bonds detected with the current threshold, can't generate the associated tree");
 	    System.exit(1);
 	}
-	for (Pair<Integer> currentBond : bondList) {
-	    if (!currentBond.getFirst().equals(currentBond.getSecond())) {
-		if (p[currentBond.getFirst()] == null) {
-		    p[currentBond.getFirst()] = new ArrayList<>();
-		}
-		p[currentBond.getFirst()].add(currentBond.getSecond());
-		if (p[currentBond.getSecond()] == null) {
-		    p[currentBond.getSecond()] = new ArrayList<>();
-		}
-		p[currentBond.getSecond()].add(currentBond.getFirst());
-	    }
-	}
+	p.setBondList(bondList, this.sequenceLength + 1);
     }
 
     /*
      * Tells if at position i there is the starting of an hairpin loop of the
      * secondary structure represented by the original arc annotated sequence.
      */
-    private int getStartingLoopsNumber(int i, ArrayList<Integer>[] p) {
-	int startingLoopsNumber = 0;
-	if (!(p[i] == null))
-	    for (Integer partner : p[i])
-		if (partner > i)
-		    startingLoopsNumber++;
-	return startingLoopsNumber;
+    private int getStartingLoopsNumber(int i, PartnerLists p) {
+	return p.countPartnersAbove(i);
     }
 
     /*
      * Tells if at position i there is the ending of an hairpin loop of the
      * secondary structure represented by the original arc annotated sequence.
      */
-    private int getStoppingLoopsNumber(int i, ArrayList<Integer>[] p) {
-	int stoppingLoopsNumber = 0;
-	if (!(p[i] == null))
-	    for (Integer partner : p[i])
-		if (partner < i)
-		    stoppingLoopsNumber++;
-	return stoppingLoopsNumber;
+    private int getStoppingLoopsNumber(int i, PartnerLists p) {
+	return p.countPartnersBelow(i);
     }
 
     /**
@@ -831,10 +763,26 @@ public class TERSAlignTree {
      * 
      * @param sequenceLength new sequence length
      */
-    public void setSequenceLength(int sequenceLength) {
+    public synchronized void setSequenceLength(int sequenceLength) {
 	this.sequenceLength = sequenceLength;
     }
 
+    /**
+     * Sets the number of threads used to build the structural tree. Unless it
+     * is 1, the two sides of the meets and concatenations of large
+     * pseudoloops are built in parallel, which happens only for sequences of
+     * at least 8192 positions. The structural tree does not depend on the
+     * number of threads, so a tree already built is kept. Negative values are
+     * ignored. Default is 1.
+     * 
+     * @param parallelism number of threads, 0 to use the common fork/join
+     *                    pool
+     */
+    public synchronized void setParallelism(int parallelism) {
+	if (parallelism >= 0)
+	    this.parallelism = parallelism;
+    }
+
     public SecondaryStructure getSecondaryStructure() {
 	if (secondaryStructure == null)
 	    throw new NullPointerException(
@@ -842,6 +790,282 @@ public class TERSAlignTree {
 	return this.secondaryStructure;
     }
 
+    /*
+     * Service class for holding the pseudoloops still to be parsed, each one
+     * stored as the node of the structural tree to be built on it and its
+     * bounds, so that no object is created for them.
+     */
+    private static class WorkList {
+	private int[] items = new int[48];
+	private int size;
+
+	private void push(int node, int l, int r) {
+	    if (this.size + 3 > this.items.length)
+		this.items = Arrays.copyOf(this.items, 2 * this.items.length);
+	    this.items[this.size++] = node;
+	    this.items[this.size++] = l;
+	    this.items[this.size++] = r;
+	}
+
+	private boolean isEmpty() {
+	    return this.size == 0;
+	}
+
+	/*
+	 * Removes the last pushed pseudoloop and returns the index to read it,
+	 * valid until the next push
+	 */
+	private int pop() {
+	    this.size -= 3;
+	    return this.size;
+	}
+
+	private int getNode(int top) {
+	    return this.items[top];
+	}
+
+	private int getLeft(int top) {
+	    return this.items[top + 1];
+	}
+
+	private int getRight(int top) {
+	    return this.items[top + 2];
+	}
+    }
+
+    /*
+     * Service class for holding the state of the builder over a region of the
+     * positions: the counting array, the candidate meets and the bonds still
+     * to be removed, together with the partner lists, the tree under
+     * construction and the previous tree, which are shared by all the
+     * regions. The pseudoloops of a region only read and write the state of
+     * their own positions, so a pseudoloop can be moved to a copy of the
+     * region it spans and parsed independently of the rest.
+     */
+    private static class Region {
+	private final CountingArray c;
+	private final BitSet m;
+	private final CrossingCounter crossings;
+	private final PartnerLists p;
+	private final CompactStructuralTree.Builder tree;
+	private final Reuse reuse;
+
+	private Region(CountingArray c, BitSet m, CrossingCounter crossings,
+		PartnerLists p, CompactStructuralTree.Builder tree, Reuse reuse) {
+	    this.c = c;
+	    this.m = m;
+	    this.crossings = crossings;
+	    this.p = p;
+	    this.tree = tree;
+	    this.reuse = reuse;
+	}
+
+	private Region copy(int from, int to) {
+	    return new Region(new CountingArray(this.c, from, to),
+		    (BitSet) this.m.clone(),
+		    new CrossingCounter(this.p, from, to), this.p, this.tree,
+		    this.reuse);
+	}
+    }
+
+    /*
+     * Service class for holding a previous structural tree whose subtrees can
+     * be reused by a build after some bonds changed. The state of a
+     * pseudoloop [l,r] containing no position of the changed bonds only
+     * depends on l, r and the number of partners of r in [l,r) not yet
+     * removed: the bonds with both ends in [l,r] are the same, and the bonds
+     * removed before reaching the pseudoloop are the first partners of r, in
+     * the same order. So the subtree of a pseudoloop of the previous tree with
+     * the same bounds and number of partners of r is the same. The bounds of
+     * a pseudoloop are the first and last endpoints of the hairpins of its
+     * subtree, and the partners of r are the hairpins ending in r.
+     */
+    private static class Reuse {
+	private final CompactStructuralTree tree;
+	private final BitSet changed = new BitSet();
+	private final int[] starts;
+	private final int[] ends;
+	private final int[] partners;
+	private final int[] sizes;
+	// open addressing table of the pseudoloops by bounds, with -1 for the
+	// empty slots of the keys
+	private final long[] keys;
+	private final int[] pseudoloops;
+	private final int mask;
+
+	private Reuse(CompactStructuralTree tree, List<Pair<Integer>> added,
+		List<Pair<Integer>> removed) {
+	    this.tree = tree;
+	    for (Pair<Integer> bond : added) {
+		this.changed.set(bond.getFirst());
+		this.changed.set(bond.getSecond());
+	    }
+	    for (Pair<Integer> bond : removed) {
+		this.changed.set(bond.getFirst());
+		this.changed.set(bond.getSecond());
+	    }
+	    int size = tree.size();
+	    this.starts = new int[size];
+	    this.ends = new int[size];
+	    this.partners = new int[size];
+	    this.sizes = new int[size];
+	    // children come after their parents in pre-order
+	    for (int node = size - 1; node >= 0; node--) {
+		if (tree.isLeaf(node)) {
+		    this.starts[node] = tree.getHairpinStart(node);
+		    this.ends[node] = tree.getHairpinEnd(node);
+		    this.partners[node] = 1;
+		    this.sizes[node] = 1;
+		} else {
+		    int left = tree.getLeftChild(node);
+		    int right = tree.getRightChild(node);
+		    this.starts[node] = Math.min(this.starts[left],
+			    this.starts[right]);
+		    this.ends[node] = Math.max(this.ends[left],
+			    this.ends[right]);
+		    if (this.ends[left] == this.ends[node])
+			this.partners[node] += this.partners[left];
+		    if (this.ends[right] == this.ends[node])
+			this.partners[node] += this.partners[right];
+		    this.sizes[node] = 1 + this.sizes[left] + this.sizes[right];
+		}
+	    }
+	    int capacity = Integer.highestOneBit(Math.max(1, 2 * size)) << 1;
+	    this.keys = new long[capacity];
+	    Arrays.fill(this.keys, -1);
+	    this.pseudoloops = new int[capacity];
+	    this.mask = capacity - 1;
+	    // the pseudoloops are the root, the sides of meets and
+	    // concatenations and the rest of the other operators. Only the
+	    // first one in pre-order is kept for the same bounds, the others
+	    // are found following the rests
+	    addPseudoloop(tree.getRoot());
+	    for (int node = 0; node < size; node++)
+		if (!tree.isLeaf(node)) {
+		    addPseudoloop(tree.getLeftChild(node));
+		    if (isSplit(node))
+			addPseudoloop(tree.getRightChild(node));
+		}
+	}
+
+	private void addPseudoloop(int node) {
+	    long key = key(this.starts[node], this.ends[node]);
+	    int slot = slot(key);
+	    if (this.keys[slot] == -1) {
+		this.keys[slot] = key;
+		this.pseudoloops[slot] = node;
+	    }
+	}
+
+	/*
+	 * Returns the slot of the table holding the given key, or the empty
+	 * slot where it would be added
+	 */
+	private int slot(long key) {
+	    int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & this.mask;
+	    while (this.keys[slot] != -1 && this.keys[slot] != key)
+		slot = (slot + 1) & this.mask;
+	    return slot;
+	}
+
+	private boolean isSplit(int node) {
+	    byte opcode = this.tree.getOpcode(node);
+	    return opcode == Operators.MEETING_OPCODE
+		    || opcode == Operators.CONCATENATION_OPCODE;
+	}
+
+	private static long key(int l, int r) {
+	    return (long) l << 32 | r;
+	}
+
+	/*
+	 * Copies into the given node the subtree of the previous tree built on
+	 * the pseudoloop [l,r] in the same state, if any, and tells if it was
+	 * copied
+	 */
+	private boolean copy(int node, int l, int r, PartnerLists p,
+		CompactStructuralTree.Builder tree) {
+	    int next = this.changed.nextSetBit(l);
+	    if (next >= 0 && next <= r)
+		return false;
+	    int slot = slot(key(l, r));
+	    if (this.keys[slot] == -1)
+		return false;
+	    int k = p.countPartnersBetween(r, l - 1, r);
+	    int previous = this.pseudoloops[slot];
+	    while (this.partners[previous] > k && !this.tree.isLeaf(previous)
+		    && !isSplit(previous)) {
+		int rest = this.tree.getLeftChild(previous);
+		if (this.starts[rest] != l || this.ends[rest] != r)
+		    return false;
+		previous = rest;
+	    }
+	    if (this.partners[previous] != k)
+		return false;
+	    tree.copySubtree(node, this.tree, previous, this.sizes[previous]);
+	    return true;
+	}
+    }
+
+    /*
+     * Service class for holding the structures used by a build, which are
+     * set again by every build instead of being allocated.
+     */
+    private static class BuildScratch {
+	private final PartnerLists p = new PartnerLists();
+	private final BitSet m = new BitSet();
+	private final CountingArray c = new CountingArray();
+	private final CrossingCounter crossings = new CrossingCounter();
+	private final CompactStructuralTree.Builder tree;
+	private final WorkList workList = new WorkList();
+	private int[] counts = new int[0];
+	private boolean inUse;
+
+	private BuildScratch() {
+	    this.tree = new CompactStructuralTree.Builder();
+	}
+
+	private int[] getCounts(int length) {
+	    if (this.counts.length < length)
+		this.counts = new int[length];
+	    return this.counts;
+	}
+    }
+
+    /*
+     * Task parsing a pseudoloop, and all the pseudoloops obtained from it, in
+     * its own region. The pseudoloops are parsed in the same order as in the
+     * sequential construction, except for the left sides forked to new tasks,
+     * which are joined at the end.
+     */
+    private class PseudoloopTask extends RecursiveAction {
+	private final int node;
+	private final int l;
+	private final int r;
+	private final Region region;
+
+	private PseudoloopTask(int node, int l, int r, Region region) {
+	    this.node = node;
+	    this.l = l;
+	    this.r = r;
+	    this.region = region;
+	}
+
+	@Override
+	protected void compute() {
+	    List<ForkJoinTask<?>> forked = new ArrayList<>();
+	    WorkList workList = new WorkList();
+	    workList.push(this.node, this.l, this.r);
+	    while (!workList.isEmpty()) {
+		int top = workList.pop();
+		buildPseudoloop(workList.getNode(top), workList.getLeft(top),
+			workList.getRight(top), this.region, workList, forked);
+	    }
+	    for (ForkJoinTask<?> task : forked)
+		task.join();
+	}
+    }
+
     /*
      * Service class for holding zero intervals.
      */
@@ -32,8 +32,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Representation of an RNA/Protein structure, including its secondary structure and the methods to extract a bond list from its tertiary structure
@@ -42,13 +47,32 @@ import java.util.Locale;
  */
 public class TertiaryStructure {
 
+    /**
+     * Minimum number of residues for which the bond list is computed with a {@link ContactGrid} instead of scanning
+     * the whole contact matrix
+     */
+    public static final int CONTACT_GRID_MIN_SIZE = 500;
+
+    /**
+     * Minimum maximum threshold of the neighbour lists used to update the bond list incrementally when the threshold
+     * changes, so that moving the threshold within the usual range never recomputes the lists
+     */
+    public static final double INCREMENTAL_MAX_THRESHOLD = 12;
+
     private final Structure structure;
     private double threshold; //Value between 4.5 and 12 ångström
     private SecStrucCalc secondaryStructure;
     private ArrayList<Pair<Integer>> bondList;
-    private boolean[][] contactMatrix;
-    private double[][] distanceMatrix;
+    private boolean customBondList;
+    private long bondListVersion;
+    private NeighbourList neighbourList;
+    private ContactMap contactMatrix;
+    private DistanceMatrix distanceMatrix;
     private String distanceMatrixCalculationMethod;
+    private boolean floatPrecision;
+    private int parallelism;
+    private boolean offHeapDistanceMatrix;
+    private final Map<String, DistanceMatrix> distanceMatrixCache;
     private String sequence;
 
     private ArrayList<Chain> specifiedChains;
@@ -62,12 +86,40 @@ public class TertiaryStructure {
         this.threshold = 4;
         this.secondaryStructure = null;
         this.bondList = null;
+        this.customBondList = false;
+        this.bondListVersion = 0;
+        this.neighbourList = null;
         this.contactMatrix = null;
         this.distanceMatrix = null;
         this.distanceMatrixCalculationMethod = "default";
+        this.floatPrecision = false;
+        this.distanceMatrixCache = new HashMap<>();
         this.specifiedChains = null;
     }
 
+    /*
+     * Creates a view of the given structure with a different threshold and the given bond list. The view shares the
+     * distance matrix cache with the original structure, and the neighbour lists used for incremental updates if any.
+     */
+    private TertiaryStructure(TertiaryStructure source, double threshold, ArrayList<Pair<Integer>> bondList, boolean customBondList, NeighbourList neighbourList) {
+        this.structure = source.structure;
+        this.sequence = source.sequence;
+        this.threshold = threshold;
+        this.secondaryStructure = source.secondaryStructure;
+        this.bondList = bondList;
+        this.customBondList = customBondList;
+        this.bondListVersion = 0;
+        this.neighbourList = neighbourList;
+        this.contactMatrix = null;
+        this.distanceMatrix = null;
+        this.distanceMatrixCalculationMethod = source.distanceMatrixCalculationMethod;
+        this.floatPrecision = source.floatPrecision;
+        this.parallelism = source.parallelism;
+        this.offHeapDistanceMatrix = source.offHeapDistanceMatrix;
+        this.distanceMatrixCache = source.distanceMatrixCache;
+        this.specifiedChains = source.specifiedChains;
+    }
+
     /**
      * Returns a list containing the indexes of bonded nucleotides/aminos, that is all nucleotides/aminos closer than the specified threshold as represented
      * within the contact map.
@@ -79,89 +131,302 @@ public class TertiaryStructure {
         return this.bondList;
     }
 
+    /*
+     * Bonds are taken from the contact map or the distance matrix only if they were already computed, otherwise they
+     * are streamed from the coordinates without materializing any n*n structure
+     */
     private void calculateBondList() {
-        boolean[][]contactMap = this.getContactMatrix();
-        ArrayList<Pair<Integer>>bondList = new ArrayList<>();
-        int colCount = 1;
-        for(int i=1; i<contactMap.length + 1; i++) {
-            for (int j = colCount; j < contactMap.length + 1; j++)
-                if (contactMap[i-1][j-1]) {
-                    bondList.add(new Pair<>(i, j));
-                }
-            colCount++;
+        if(this.contactMatrix != null) {
+            this.bondList = this.contactMatrix.getBondList();
+            return;
         }
-        this.bondList = bondList;
+        DistanceMatrix distanceMatrix = this.distanceMatrixCache.get(this.getDistanceMatrixKey());
+        if(distanceMatrix != null)
+            this.bondList = this.streamBonds(distanceMatrix).toBondList();
+        else
+            this.bondList = this.streamBonds(this.getCoordinates()).toBondList();
+    }
+
+    /*
+     * Scans the pairs of residues computing their distances on the fly, one row at a time with the vector kernel when
+     * available, or with a ContactGrid scanned in parallel for large structures
+     */
+    private BondBuffer streamBonds(CoordinateBuffer coordinates) {
+        if(coordinates.size() >= CONTACT_GRID_MIN_SIZE) {
+            ContactGrid contactGrid = new ContactGrid(coordinates, this.threshold);
+            return this.runInPool(pool -> contactGrid.getBonds(this.threshold, this.floatPrecision, pool));
+        }
+        int n = coordinates.size();
+        BondBuffer bonds = new BondBuffer();
+        int[] contacts = new int[n];
+        double[] distances = new double[n];
+        for(int i=0; i<n; i++) {
+            if(this.floatPrecision) {
+                coordinates.getDistances(i, i + 1, n, distances);
+                for(int j=i+1; j<n; j++)
+                    if((float) distances[j - i - 1] <= this.threshold)
+                        bonds.add(i + 1, j + 1);
+            } else {
+                int count = coordinates.getContacts(i, i + 1, n, this.threshold, contacts);
+                for(int k=0; k<count; k++)
+                    bonds.add(i + 1, contacts[k] + 1);
+            }
+        }
+        return bonds;
+    }
+
+    private BondBuffer streamBonds(DistanceMatrix distanceMatrix) {
+        int n = distanceMatrix.size();
+        BondBuffer bonds = new BondBuffer();
+        double[] row = new double[n];
+        for(int i=0; i<n; i++) {
+            distanceMatrix.getRow(i, i + 1, row);
+            for(int j=i+1; j<n; j++)
+                if(row[j - i - 1] <= this.threshold)
+                    bonds.add(i + 1, j + 1);
+        }
+        return bonds;
+    }
+
+    /**
+     * Returns, for each residue, the residues closer than (or exactly at) the given threshold, sorted by distance.
+     * The lists are computed with a {@link ContactGrid} scanned in parallel, without the distance matrix.
+     * @param maxThreshold the maximum threshold
+     * @return the neighbour lists
+     */
+    public NeighbourList getNeighbourList(double maxThreshold){
+        ContactGrid contactGrid = new ContactGrid(this.getCoordinates(), maxThreshold);
+        return this.runInPool(pool -> contactGrid.getNeighbourList(maxThreshold, this.floatPrecision, pool));
+    }
+
+    /**
+     * Returns a view of this structure for each of the given thresholds, in the same order. The neighbour lists are
+     * computed once up to the maximum threshold and the bond list of every view is cut from them, so each additional
+     * threshold costs only a scan of its bonds. Views share the distance matrices with this structure. If the bond
+     * list was given explicitly with setBondList, all the views keep it.
+     * @param thresholds the thresholds of the sweep
+     * @return the views of this structure, one for each threshold
+     */
+    public List<TertiaryStructure> getThresholdSweep(double... thresholds){
+        List<TertiaryStructure> sweep = new ArrayList<>();
+        if(this.customBondList) {
+            for(double threshold : thresholds)
+                sweep.add(new TertiaryStructure(this, threshold, new ArrayList<>(this.bondList), true, null));
+            return sweep;
+        }
+        double maxThreshold = Arrays.stream(thresholds).max().orElse(this.threshold);
+        NeighbourList neighbourList = this.getNeighbourList(maxThreshold);
+        for(double threshold : thresholds)
+            sweep.add(new TertiaryStructure(this, threshold, neighbourList.getBondList(threshold), false, neighbourList));
+        return sweep;
     }
 
 
     /**
      * Returns a boolean matrix, values are true if their distance (taken from default calculation)
-     * is less than threshold value.
+     * is less than threshold value. The matrix is expanded from the bit-packed contact map at each call,
+     * use {@link #getContactMap()} to avoid the n*n allocation.
      * @return boolean contact matrix
      */
     public boolean[][] getContactMatrix(){
+        return this.getContactMap().toArray();
+    }
+
+    /**
+     * Returns the bit-packed contact map: two different residues are in contact if their distance is less than or
+     * equal to the threshold.
+     * @return contact map
+     */
+    public ContactMap getContactMap(){
         if(this.contactMatrix == null)
             calculateContactMatrix();
         return this.contactMatrix;
     }
 
     private void calculateContactMatrix(){
-        double[][] distanceMatrix = getDistanceMatrix();
-        boolean[][] contactMatrix = new boolean[distanceMatrix.length][distanceMatrix.length];
-        for (int i=0; i<distanceMatrix.length; i++) {
-            for (int j = 0; j < distanceMatrix.length; j++) {
-                contactMatrix[i][j] = (distanceMatrix[i][j] <= this.threshold) && i != j;
-            }
-        }
-        this.contactMatrix = contactMatrix;
+        this.contactMatrix = new ContactMap(this.getDistances(), this.threshold);
     }
 
 
     /**
      * Calculates the structure's distance matrix, considering aminos / nucleotide's center of mass or taking distance between P/CA atoms as comparison method,
-     * depending on distance matrix calculation method
+     * depending on distance matrix calculation method. The matrix is expanded from the packed distances at each call,
+     * use {@link #getDistances()} to avoid the n*n allocation.
      * @return distance matrix
      */
     public double[][] getDistanceMatrix(){
-        if(this.distanceMatrixCalculationMethod.equals("default")){
-            this.calculateDistanceMatrixDefault();
+        return this.getDistances().toArray();
+    }
+
+    /**
+     * Calculates the structure's distances as a packed symmetric matrix, depending on distance matrix calculation
+     * method and precision. Matrices are cached for each combination of calculation method, precision and selected
+     * chains, so they are computed only once even if the threshold changes.
+     * @return distance matrix
+     */
+    public DistanceMatrix getDistances(){
+        String key = this.getDistanceMatrixKey();
+        DistanceMatrix distanceMatrix = this.distanceMatrixCache.get(key);
+        if(distanceMatrix == null){
+            if(this.distanceMatrixCalculationMethod.equals("centerofmass"))
+                distanceMatrix = this.calculateDistanceMatrixCenterOfMass();
+            else
+                distanceMatrix = this.calculateDistanceMatrixDefault();
+            this.distanceMatrixCache.put(key, distanceMatrix);
         }
-        else if (this.distanceMatrixCalculationMethod.equals("centerofmass")){
-            this.calculateDistanceMatrixCenterOfMass();
+        this.distanceMatrix = distanceMatrix;
+        return distanceMatrix;
+    }
+
+    /**
+     * Removes all the distance matrices from the cache shared by this structure and its threshold views, closing the
+     * ones stored off-heap so that the memory they map is released. Matrices are computed again if needed.
+     */
+    public void releaseDistanceMatrices(){
+        for(DistanceMatrix distanceMatrix : this.distanceMatrixCache.values())
+            if(distanceMatrix instanceof MappedDistanceMatrix)
+                ((MappedDistanceMatrix) distanceMatrix).close();
+        this.distanceMatrixCache.clear();
+        this.distanceMatrix = null;
+    }
+
+    /*
+     * Key of the distance matrix cache, made of all the inputs the distances depend on
+     */
+    private String getDistanceMatrixKey(){
+        String chains = this.specifiedChains == null ? "*" : this.specifiedChains.stream().map(Chain::getName).collect(Collectors.joining(","));
+        return this.distanceMatrixCalculationMethod + "/" + (this.floatPrecision ? "float" : "double") + "/" + chains;
+    }
+
+    /*
+     * Discards contacts and bonds computed with the previous threshold, method or chains, unless the bond list was
+     * explicitly given with setBondList
+     */
+    private void invalidateContacts(){
+        this.contactMatrix = null;
+        this.neighbourList = null;
+        if(!this.customBondList) {
+            this.bondList = null;
+            this.bondListVersion++;
         }
-        return this.distanceMatrix;
     }
 
-    private void calculateDistanceMatrixCenterOfMass(){
-        int groupsNumber = this.specifiedChains == null ? getNonHetatmGroupsCounter(this.structure) : getNonHetatmGroupsCounter(this.specifiedChains);
-        double[][] distanceMatrix = new double[groupsNumber][groupsNumber];
-        int moleculeCount = 0;
+    /*
+     * Moves the bond list from the previous threshold to the current one, adding or removing only the bonds whose
+     * distance lies between the two thresholds. The bonds of the delta are cut from neighbour lists sorted by distance,
+     * computed once up to at least INCREMENTAL_MAX_THRESHOLD, and merged with the sorted bond list.
+     */
+    private void updateBondList(double previousThreshold){
+        double maxThreshold = Math.max(this.threshold, previousThreshold);
+        if(this.neighbourList == null || maxThreshold > this.neighbourList.getMaxThreshold())
+            this.neighbourList = this.getNeighbourList(Math.max(maxThreshold, INCREMENTAL_MAX_THRESHOLD));
+        if(this.threshold > previousThreshold)
+            this.bondList = mergeBonds(this.bondList, this.neighbourList.getBondsBetween(previousThreshold, this.threshold));
+        else
+            this.bondList = removeBonds(this.bondList, this.neighbourList.getBondsBetween(this.threshold, previousThreshold));
+        this.bondListVersion++;
+    }
+
+    /*
+     * Merges two bond lists sorted by first and then by second index into a new sorted list
+     */
+    private static ArrayList<Pair<Integer>> mergeBonds(ArrayList<Pair<Integer>> bondList, BondBuffer bonds){
+        ArrayList<Pair<Integer>> merged = new ArrayList<>(bondList.size() + bonds.size());
+        int k = 0;
+        for(Pair<Integer> bond : bondList) {
+            while(k < bonds.size() && compareBonds(bonds.getFirst(k), bonds.getSecond(k), bond) < 0) {
+                merged.add(new Pair<>(bonds.getFirst(k), bonds.getSecond(k)));
+                k++;
+            }
+            merged.add(bond);
+        }
+        for(; k < bonds.size(); k++)
+            merged.add(new Pair<>(bonds.getFirst(k), bonds.getSecond(k)));
+        return merged;
+    }
+
+    /*
+     * Returns a new sorted bond list without the given bonds, which must be sorted as well
+     */
+    private static ArrayList<Pair<Integer>> removeBonds(ArrayList<Pair<Integer>> bondList, BondBuffer bonds){
+        ArrayList<Pair<Integer>> remaining = new ArrayList<>(Math.max(0, bondList.size() - bonds.size()));
+        int k = 0;
+        for(Pair<Integer> bond : bondList) {
+            while(k < bonds.size() && compareBonds(bonds.getFirst(k), bonds.getSecond(k), bond) < 0)
+                k++;
+            if(k < bonds.size() && compareBonds(bonds.getFirst(k), bonds.getSecond(k), bond) == 0)
+                k++;
+            else
+                remaining.add(bond);
+        }
+        return remaining;
+    }
+
+    private static int compareBonds(int first, int second, Pair<Integer> bond){
+        int comparison = Integer.compare(first, bond.getFirst());
+        return comparison != 0 ? comparison : Integer.compare(second, bond.getSecond());
+    }
+
+    private DistanceMatrix calculateDistanceMatrixCenterOfMass(){
+        return this.calculateDistanceMatrix(CoordinateBuffer.ofCentersOfMass(this.getNonHetatmGroups()));
+    }
+
+    private DistanceMatrix calculateDistanceMatrixDefault(){
+        return this.calculateDistanceMatrix(new CoordinateBuffer(this.getRepresentativeAtomArray()));
+    }
+
+    /*
+     * Runs the parallel kernel. The matrix is stored off-heap if requested or if it would not fit comfortably in the
+     * heap.
+     */
+    private DistanceMatrix calculateDistanceMatrix(CoordinateBuffer coordinates){
+        int n = coordinates.size();
+        MutableDistanceMatrix distanceMatrix;
+        if(this.offHeapDistanceMatrix || MappedDistanceMatrix.isRecommended(n, this.floatPrecision))
+            distanceMatrix = new MappedDistanceMatrix(n, this.floatPrecision);
+        else
+            distanceMatrix = new PackedDistanceMatrix(n, this.floatPrecision);
+        return this.runInPool(pool -> {
+            ParallelDistanceKernel.compute(coordinates, distanceMatrix, pool);
+            return distanceMatrix;
+        });
+    }
+
+    /*
+     * Runs a parallel computation on the common pool, or on a dedicated pool if the parallelism was set explicitly
+     */
+    private <T> T runInPool(Function<ForkJoinPool, T> computation){
+        if(this.parallelism == 0)
+            return computation.apply(ForkJoinPool.commonPool());
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            return computation.apply(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Coordinates of the residues according to the distance matrix calculation method
+     */
+    private CoordinateBuffer getCoordinates() {
+        if(this.distanceMatrixCalculationMethod.equals("centerofmass"))
+            return CoordinateBuffer.ofCentersOfMass(this.getNonHetatmGroups());
+        return new CoordinateBuffer(this.getRepresentativeAtomArray());
+    }
+
+    private List<Group> getNonHetatmGroups() {
+        List<Group> groups = new ArrayList<>();
         List<Chain> chainsToCompute = this.specifiedChains == null ? this.structure.getChains() : this.specifiedChains;
         for(Chain currentChain: chainsToCompute)
-            for (Group currentMolecule : currentChain.getAtomGroups()) {
-                if (currentMolecule.getType() != GroupType.HETATM) {
-                    int comparedMoleculeCount = 0;
-                    for (Chain comparisonChain : chainsToCompute) {
-                        for (Group comparisonMolecule : comparisonChain.getAtomGroups()) {
-                            if (comparisonMolecule.getType() != GroupType.HETATM) {
-                                distanceMatrix[moleculeCount][comparedMoleculeCount] = Calc.getDistance(Calc.centerOfMass(currentMolecule.getAtoms().toArray(new Atom[0])), Calc.centerOfMass(comparisonMolecule.getAtoms().toArray(new Atom[0])));
-                                comparedMoleculeCount++;
-                            }
-                        }
-                    }
-                    moleculeCount++;
-                }
-            }
-        this.distanceMatrix = distanceMatrix;
+            for (Group currentMolecule : currentChain.getAtomGroups())
+                if (currentMolecule.getType() != GroupType.HETATM)
+                    groups.add(currentMolecule);
+        return groups;
     }
 
-    private void calculateDistanceMatrixDefault(){
-        Atom[] representativeAtomsArray = this.specifiedChains == null ? StructureTools.getRepresentativeAtomArray(this.structure) : this.getRepresentativeAtomArrayFromSpecifiedChains(this.specifiedChains);
-        double[][] distanceMatrix = new double[representativeAtomsArray.length][representativeAtomsArray.length];
-        for(int i=0; i<representativeAtomsArray.length; i++)
-            for(int j=0; j<representativeAtomsArray.length; j++)
-                distanceMatrix[i][j] = Calc.getDistance(representativeAtomsArray[i], representativeAtomsArray[j]);
-        this.distanceMatrix = distanceMatrix;
+    private Atom[] getRepresentativeAtomArray() {
+        return this.specifiedChains == null ? StructureTools.getRepresentativeAtomArray(this.structure) : this.getRepresentativeAtomArrayFromSpecifiedChains(this.specifiedChains);
     }
 
     private Atom[] getRepresentativeAtomArrayFromSpecifiedChains(ArrayList<Chain> chainsList) {
@@ -181,31 +446,13 @@ public class TertiaryStructure {
         return selectedChainsList;
     }
 
-    private int getNonHetatmGroupsCounter(Structure struc){
-        int nonHetatmGroupsCounter = 0;
-        for(Chain currentChain : struc.getChains())
-            for(Group currentGroup : currentChain.getAtomGroups())
-                if(currentGroup.getType() != GroupType.HETATM)
-                    nonHetatmGroupsCounter++;
-        return nonHetatmGroupsCounter;
-    }
-
-    private int getNonHetatmGroupsCounter(ArrayList<Chain> chainList){
-        int nonHetatmGroupsCounter = 0;
-        for(Chain currentChain : chainList)
-            for(Group currentGroup : currentChain.getAtomGroups())
-                if(currentGroup.getType() != GroupType.HETATM)
-                    nonHetatmGroupsCounter++;
-        return nonHetatmGroupsCounter;
-    }
-
     /**
      * Print the distance matrix
      */
     public void printDistanceMatrix(){
-        for (int i=0; i<this.distanceMatrix.length; i++) {
-            for (int j=0; j<this.distanceMatrix.length; j++) {
-                System.out.print("pos " + i + " " + j + ": " + this.distanceMatrix[i][j] + " ");
+        for (int i=0; i<this.distanceMatrix.size(); i++) {
+            for (int j=0; j<this.distanceMatrix.size(); j++) {
+                System.out.print("pos " + i + " " + j + ": " + this.distanceMatrix.get(i, j) + " ");
             }
             System.out.println();
         }
@@ -215,9 +462,9 @@ public class TertiaryStructure {
      * Print the contact matrix
      */
     public void printContactMatrix(){
-        for (int i=0; i<this.contactMatrix.length; i++) {
-            for (int j=0; j<this.contactMatrix.length; j++) {
-                System.out.print("pos " + i + " " + j + ": " + this.contactMatrix[i][j] + " ");
+        for (int i=0; i<this.contactMatrix.size(); i++) {
+            for (int j=0; j<this.contactMatrix.size(); j++) {
+                System.out.print("pos " + i + " " + j + ": " + this.contactMatrix.get(i, j) + " ");
             }
             System.out.println();
         }
@@ -243,9 +490,21 @@ public class TertiaryStructure {
         return threshold;
     }
 
+    /**
+     * Sets the contact threshold. If the bond list has already been computed, it is updated with the bonds whose
+     * distance lies between the previous and the new threshold instead of being computed again.
+     * @param threshold the new threshold
+     */
     public void setThreshold(double threshold) {
+        double previousThreshold = this.threshold;
         this.threshold = threshold;
-        this.calculateContactMatrix();
+        this.contactMatrix = null;
+        if(this.customBondList || threshold == previousThreshold)
+            return;
+        if(this.bondList == null)
+            this.bondListVersion++;
+        else
+            this.updateBondList(previousThreshold);
     }
 
     public Structure getStructure() {
@@ -266,8 +525,40 @@ public class TertiaryStructure {
      * @param calculationMethod chosen calculation method, can be either "default" or "centerofmass"
      */
     public void setDistanceMatrixCalculationMethod(String calculationMethod){
-        if(calculationMethod.toLowerCase(Locale.ROOT).equals("default") || calculationMethod.toLowerCase(Locale.ROOT).equals("centerofmass"))
+        if(calculationMethod.toLowerCase(Locale.ROOT).equals("default") || calculationMethod.toLowerCase(Locale.ROOT).equals("centerofmass")) {
             this.distanceMatrixCalculationMethod = calculationMethod.toLowerCase(Locale.ROOT);
+            this.invalidateContacts();
+        }
+    }
+
+    /**
+     * Sets the number of threads used to calculate the distance matrix and to find the contacts of the structures
+     * scanned with a {@link ContactGrid}. Distances and contacts do not depend on the number of threads, so cached
+     * matrices are kept. Negative values are ignored.
+     * @param parallelism number of threads, 0 to use the common fork/join pool
+     */
+    public void setParallelism(int parallelism){
+        if(parallelism >= 0)
+            this.parallelism = parallelism;
+    }
+
+    /**
+     * Stores the distance matrix off-heap, in a memory-mapped temporary file, even if it would fit in the heap.
+     * Matrices that would exceed half of the maximum heap size are always stored off-heap.
+     * @param offHeapDistanceMatrix true to store the distance matrix in a {@link MappedDistanceMatrix}
+     */
+    public void setOffHeapDistanceMatrix(boolean offHeapDistanceMatrix){
+        this.offHeapDistanceMatrix = offHeapDistanceMatrix;
+    }
+
+    /**
+     * Sets the precision used to store the distance matrix. Single precision takes half of the memory, but distances
+     * (and therefore contacts lying exactly at the threshold) are rounded to the nearest float.
+     * @param floatPrecision true to store distances as floats, false (default) to store them as doubles
+     */
+    public void setFloatPrecision(boolean floatPrecision){
+        this.floatPrecision = floatPrecision;
+        this.invalidateContacts();
     }
 
     /**
@@ -275,15 +566,17 @@ public class TertiaryStructure {
      */
     public void printDistanceMatrixToCSV(){
         try {
-            double[][] distanceMatrix = this.getDistanceMatrix();
+            DistanceMatrix distanceMatrix = this.getDistances();
             FileWriter writer;
             if(this.distanceMatrixCalculationMethod.equals("default"))
                 writer = new FileWriter("src/main/resources/DefaultDistanceMatrix.csv");
             else
                 writer = new FileWriter("src/main/resources/DistanceMatrixCenterOfMass.csv");
-            for (int i = 0; i < distanceMatrix.length; i++) {
-                for (int j = 0; j < distanceMatrix.length; j++) {
-                    writer.append(String.valueOf(i)).append(" ").append(String.valueOf(j)).append(":").append(" ").append(String.valueOf(distanceMatrix[i][j])).append("   ");
+            double[] row = new double[distanceMatrix.size()];
+            for (int i = 0; i < distanceMatrix.size(); i++) {
+                distanceMatrix.getRow(i, 0, row);
+                for (int j = 0; j < distanceMatrix.size(); j++) {
+                    writer.append(String.valueOf(i)).append(" ").append(String.valueOf(j)).append(":").append(" ").append(String.valueOf(row[j])).append("   ");
                 }
                 writer.append("\n");
                 writer.append("\n");
@@ -299,12 +592,12 @@ public class TertiaryStructure {
      */
     public void printContactMatrixToCSV(){
         try {
-            boolean[][] contactMatrix = this.getContactMatrix();
+            ContactMap contactMatrix = this.getContactMap();
             FileWriter writer;
             writer = new FileWriter("src/main/resources/ContactMatrix.csv");
-            for (int i = 0; i < contactMatrix.length; i++) {
-                for (int j = 0; j < contactMatrix.length; j++) {
-                    writer.append(String.valueOf(i)).append(" ").append(String.valueOf(j)).append(":").append(" ").append(String.valueOf(contactMatrix[i][j])).append("  ");
+            for (int i = 0; i < contactMatrix.size(); i++) {
+                for (int j = 0; j < contactMatrix.size(); j++) {
+                    writer.append(String.valueOf(i)).append(" ").append(String.valueOf(j)).append(":").append(" ").append(String.valueOf(contactMatrix.get(i, j))).append("  ");
                 }
                 writer.append("\n");
             }
@@ -315,7 +608,8 @@ public class TertiaryStructure {
     }
 
     /**
-     * Replace current bonds list with a new one, removing all the symmetric bonds.
+     * Replace current bonds list with a new one, removing all the symmetric bonds. The given list is kept even if the
+     * threshold, the calculation method or the selected chains change afterwards.
      * @param bondList new bond list
      */
     public void setBondList(ArrayList<Pair<Integer>> bondList) {
@@ -328,6 +622,110 @@ public class TertiaryStructure {
                 bondList.remove(symmetricBond);
         }
         this.bondList = bondList;
+        this.customBondList = true;
+        this.bondListVersion++;
+    }
+
+    /**
+     * Adds and removes the given bonds to the current bond list. Every bond is taken with its smaller index first, so
+     * a bond is added or removed in either orientation, and a bond that is both removed and added is kept. The
+     * resulting list is sorted by first and then by second index and has no duplicates. The bonds to add and remove
+     * are sorted and merged with the bond list in a single pass, which is sorted first only if it was given unsorted
+     * with setBondList. As with setBondList, the resulting list is kept even if the threshold, the calculation method
+     * or the selected chains change afterwards.
+     * @param added bonds to add
+     * @param removed bonds to remove
+     */
+    public void applyBondDelta(List<Pair<Integer>> added, List<Pair<Integer>> removed) {
+        List<Pair<Integer>> bondList = this.getBondList();
+        if(!isSortedBondList(bondList))
+            bondList = toBondList(sortBonds(bondList));
+        long[] addedBonds = sortBonds(added);
+        long[] removedBonds = sortBonds(removed);
+        ArrayList<Pair<Integer>> merged = new ArrayList<>(bondList.size() + addedBonds.length);
+        int a = 0;
+        int r = 0;
+        for(Pair<Integer> bond : bondList) {
+            long key = bondKey(bond.getFirst(), bond.getSecond());
+            while(a < addedBonds.length && addedBonds[a] < key)
+                merged.add(toBond(addedBonds[a++]));
+            boolean isAdded = a < addedBonds.length && addedBonds[a] == key;
+            if(isAdded)
+                a++;
+            while(r < removedBonds.length && removedBonds[r] < key)
+                r++;
+            boolean isRemoved = r < removedBonds.length && removedBonds[r] == key;
+            if(isAdded || !isRemoved)
+                merged.add(bond);
+        }
+        for(; a < addedBonds.length; a++)
+            merged.add(toBond(addedBonds[a]));
+        this.bondList = merged;
+        this.customBondList = true;
+        this.bondListVersion++;
+    }
+
+    /*
+     * Tells if every bond has its smaller index first and the bonds are strictly increasing by first and then by
+     * second index, as in the bond lists computed from the structure and in the ones changed by applyBondDelta
+     */
+    static boolean isSortedBondList(List<Pair<Integer>> bondList){
+        long previous = -1;
+        for(Pair<Integer> bond : bondList) {
+            if(bond.getFirst() > bond.getSecond())
+                return false;
+            long key = bondKey(bond.getFirst(), bond.getSecond());
+            if(key <= previous)
+                return false;
+            previous = key;
+        }
+        return true;
+    }
+
+    /*
+     * Returns the keys of the given bonds, with the smaller index first, sorted and without duplicates
+     */
+    private static long[] sortBonds(List<Pair<Integer>> bonds){
+        long[] keys = new long[bonds.size()];
+        for(int k = 0; k < keys.length; k++) {
+            Pair<Integer> bond = bonds.get(k);
+            keys[k] = bondKey(Math.min(bond.getFirst(), bond.getSecond()), Math.max(bond.getFirst(), bond.getSecond()));
+        }
+        Arrays.sort(keys);
+        int size = 0;
+        for(int k = 0; k < keys.length; k++)
+            if(size == 0 || keys[k] != keys[size - 1])
+                keys[size++] = keys[k];
+        return Arrays.copyOf(keys, size);
+    }
+
+    private static ArrayList<Pair<Integer>> toBondList(long[] keys){
+        ArrayList<Pair<Integer>> bondList = new ArrayList<>(keys.length);
+        for(long key : keys)
+            bondList.add(toBond(key));
+        return bondList;
+    }
+
+    /*
+     * Key of a bond ordering the bonds by first and then by second index
+     */
+    private static long bondKey(int first, int second){
+        return (long) first << 32 | second;
+    }
+
+    private static Pair<Integer> toBond(long key){
+        return new Pair<>((int) (key >>> 32), (int) key);
+    }
+
+    /**
+     * Returns a counter incremented every time the bond list changes, because of a new threshold, calculation method,
+     * precision or chain selection, or because it was given with setBondList or changed with applyBondDelta. Objects
+     * derived from the bond list, such as the structural tree of a {@link TERSAlignTree}, compare it with the value
+     * they were built with.
+     * @return the version of the bond list
+     */
+    public long getBondListVersion() {
+        return this.bondListVersion;
     }
 
     /**
@@ -336,6 +734,7 @@ public class TertiaryStructure {
      */
     public void setSpecifiedChains(ArrayList<String> chainIds) {
         this.specifiedChains = this.getSpecifiedChainsByIds(chainIds);
+        this.invalidateContacts();
     }
 
     /**
@@ -181,6 +181,127 @@ public class TreeOutputter {
         return stringTree.toString();
     }
 
+    /**
+     * Translate an array encoded structural RNA tree into LaTeX code, as
+     * {@link #toLatex(Tree)} does for its {@code Tree<String>} view.
+     *
+     * @param t the tree
+     * @return LaTeX code representing the tree
+     */
+    public static String toLatex(CompactStructuralTree t) {
+        return "\\documentclass[border=10pt]{standalone} \\usepackage{forest} \\usepackage{amssymb}"
+                + "\\begin{document} \\begin{forest} for tree={draw, semithick, rounded corners, "
+                + "font = \\sffamily, top color = white, bottom color = white, grow = south, "
+                + "s sep = 4mm, l sep = 8mm,} " + compactToLatex(t) + "];" + " \\end{forest} " + "\\end{document}";
+    }
+
+    /*
+     * Visits an array encoded structural RNA tree with an explicit stack, in the
+     * same order as recToLatex, and generates the corresponding LaTeX code. The
+     * stack holds the nodes still to be visited and the closing brackets of the
+     * children, as NONE.
+     */
+    private static String compactToLatex(CompactStructuralTree t) {
+        StringBuilder latexTree = new StringBuilder();
+        int[] stack = new int[2 * t.size() + 1];
+        int top = 0;
+        stack[top++] = t.getRoot();
+        while (top > 0) {
+            int node = stack[--top];
+            if (node == CompactStructuralTree.NONE) {
+                latexTree.append("]");
+                continue;
+            }
+            latexTree.append("[{" + transformLabel(t.getLabel(node)) + "}");
+            if (!t.isLeaf(node)) {
+                stack[top++] = CompactStructuralTree.NONE;
+                stack[top++] = t.getRightChild(node);
+                stack[top++] = CompactStructuralTree.NONE;
+                stack[top++] = t.getLeftChild(node);
+            }
+        }
+        return latexTree.toString();
+    }
+
+    /**
+     * Linearise an array encoded structural RNA tree into a string, as
+     * {@link #treeToString(Tree)} does for its {@code Tree<String>} view. The
+     * tree is visited with an explicit stack, so its depth is not bounded by
+     * the call stack.
+     *
+     * @param t the tree
+     * @return string representing the tree
+     */
+    public static String treeToString(CompactStructuralTree t) {
+        // DFS visit, the stack holding the nodes still to be visited, the
+        // ends of the lists of children and the separators between children
+        final int end = -2;
+        final int separator = -3;
+        StringBuilder stringTree = new StringBuilder();
+        int[] stack = new int[2 * t.size() + 1];
+        int top = 0;
+        stack[top++] = t.getRoot();
+        while (top > 0) {
+            int node = stack[--top];
+            if (node == end)
+                stringTree.append("])");
+            else if (node == separator)
+                stringTree.append(", ");
+            else if (t.isLeaf(node))
+                stringTree.append("(\"" + t.getLabel(node) + "\", [])");
+            else {
+                stringTree.append("(\"" + t.getLabel(node) + "\", [");
+                stack[top++] = end;
+                stack[top++] = t.getRightChild(node);
+                stack[top++] = separator;
+                stack[top++] = t.getLeftChild(node);
+            }
+        }
+        return stringTree.toString();
+    }
+
+    /**
+     * Linearise an array encoded structural RNA tree into the bracket input of
+     * APTED, as {@link #treeToAptedInput(Tree)} does for its
+     * {@code Tree<String>} view. Hairpins and crossings are written without
+     * their arguments, from the opcodes of the nodes.
+     *
+     * @param t the tree
+     * @return string representing the tree
+     */
+    public static String treeToAptedInput(CompactStructuralTree t) {
+        // DFS visit, the stack holding the nodes still to be visited and the
+        // brackets around the children
+        final int open = -2;
+        final int close = -3;
+        StringBuilder stringTree = new StringBuilder();
+        int[] stack = new int[3 * t.size() + 1];
+        int top = 0;
+        stack[top++] = t.getRoot();
+        while (top > 0) {
+            int node = stack[--top];
+            if (node == open)
+                stringTree.append("{");
+            else if (node == close)
+                stringTree.append("}");
+            else {
+                byte opcode = t.getOpcode(node);
+                String nodeValue = opcode == Operators.HAIRPIN_OPCODE ? Operators.HAIRPIN_LABEL
+                        : opcode == Operators.CROSSING_OPCODE ? Operators.CROSSING_LABEL : t.getLabel(node);
+                stringTree.append("\"" + nodeValue + "\"");
+                if (!t.isLeaf(node)) {
+                    stack[top++] = close;
+                    stack[top++] = t.getRightChild(node);
+                    stack[top++] = open;
+                    stack[top++] = close;
+                    stack[top++] = t.getLeftChild(node);
+                    stack[top++] = open;
+                }
+            }
+        }
+        return stringTree.toString();
+    }
+
     /**
      * Translate the alignment tree of two structural RNA trees into LaTeX code.
      *
@@ -0,0 +1,157 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics of a structural tree used to bound from below its distance from
+ * another tree without aligning them: the number of hairpins, the number of
+ * occurrences of each operator label, crossings with the same number of
+ * crossings counted as the same label, and the number of the other nodes,
+ * such as the root, that are aligned with a gap or an operator at no cost.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+class TreeStatistics {
+
+    private int hairpins;
+    private int crossings;
+    private int others;
+    private final Map<String, Integer> operators = new HashMap<>();
+
+    /**
+     * Collects the statistics of a structural tree from the opcodes of its
+     * nodes, with the same labels for the operators as the {@code Tree<String>}
+     * view of the tree.
+     *
+     * @param t the tree
+     */
+    TreeStatistics(CompactStructuralTree t) {
+        for (int node = 0; node < t.size(); node++) {
+            byte opcode = t.getOpcode(node);
+            if (opcode == Operators.HAIRPIN_OPCODE)
+                this.hairpins++;
+            else if (opcode == Operators.ALGEBRAIC_TREE_ROOT_OPCODE)
+                this.others++;
+            else {
+                if (opcode == Operators.CROSSING_OPCODE)
+                    this.crossings++;
+                this.operators.merge(t.getLabel(node), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Returns a lower bound of the distance of the trees with the given
+     * statistics. The hairpins of the tree with more hairpins that exceed the
+     * ones of the other tree must be deleted or inserted, since a hairpin can
+     * only be aligned at no cost with another hairpin. The operators with a
+     * label exceeding the occurrences of the same label in the other tree must
+     * be aligned with an operator with a different label, which costs at least
+     * the replacement of an operator or, for two crossings, one crossing
+     * mismatch, or with a gap, or with one of the other nodes. The costs of
+     * the scoring function are assumed not to be negative.
+     *
+     * @param s1 the statistics of the first tree
+     * @param s2 the statistics of the second tree
+     * @param f  the scoring function
+     * @return a lower bound of the distance of the trees
+     */
+    static double lowerBound(TreeStatistics s1, TreeStatistics s2,
+            ScoringFunction f) {
+        double deleteHairpin = f.getDeleteHairpinCost();
+        double insertHairpin = f.getInsertHairpinCost();
+        double deleteOperator = f.getDeleteOperatorCost();
+        double insertOperator = f.getInsertOperatorCost();
+        double replaceOperator = f.getReplaceOperatorCost();
+        double crossingMismatch = f.getCrossingMismatchCost();
+        if (!(deleteHairpin >= 0 && insertHairpin >= 0 && deleteOperator >= 0
+                && insertOperator >= 0 && replaceOperator >= 0
+                && crossingMismatch >= 0))
+            return 0;
+
+        double bound = 0;
+        if (s1.hairpins > s2.hairpins)
+            bound += (s1.hairpins - s2.hairpins) * deleteHairpin;
+        else if (s2.hairpins > s1.hairpins)
+            bound += (s2.hairpins - s1.hairpins) * insertHairpin;
+
+        double replace = Math.min(replaceOperator,
+                deleteOperator + insertOperator);
+        if (s1.crossings > 0 && s2.crossings > 0)
+            replace = Math.min(replace, crossingMismatch);
+        // the other nodes can take some of the exceeding operators at no
+        // cost, and the cost of the rest is linear on the two sides of the
+        // diagonal, so the minimum is at the corners of the possible numbers
+        // of exceeding operators or on the diagonal
+        int excess1 = excess(s1, s2);
+        int excess2 = excess(s2, s1);
+        int[] candidates = { Math.max(excess1 - s2.others, 0), excess1,
+                Math.max(excess2 - s1.others, 0), excess2 };
+        double operators = Double.POSITIVE_INFINITY;
+        for (int x : candidates)
+            for (int y : candidates)
+                operators = Math.min(operators, operatorsCost(
+                        clamp(x, candidates[0], candidates[1]),
+                        clamp(y, candidates[2], candidates[3]), replace,
+                        deleteOperator, insertOperator));
+        return bound + operators;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /*
+     * Returns the minimum cost of the given numbers of operators of the two
+     * trees, aligned with each other or with gaps. Infinite costs are only
+     * added when they are paid.
+     */
+    private static double operatorsCost(int operators1, int operators2,
+            double replace, double delete, double insert) {
+        int replaced = replace < delete + insert
+                ? Math.min(operators1, operators2)
+                : 0;
+        double cost = 0;
+        if (replaced > 0)
+            cost += replaced * replace;
+        if (operators1 > replaced)
+            cost += (operators1 - replaced) * delete;
+        if (operators2 > replaced)
+            cost += (operators2 - replaced) * insert;
+        return cost;
+    }
+
+    /*
+     * Returns the number of operators of the first statistics that exceed the
+     * operators with the same label of the second one
+     */
+    private static int excess(TreeStatistics s1, TreeStatistics s2) {
+        int excess = 0;
+        for (Map.Entry<String, Integer> entry : s1.operators.entrySet())
+            excess += Math.max(entry.getValue()
+                    - s2.operators.getOrDefault(entry.getKey(), 0), 0);
+        return excess;
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ASPRAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Distance kernel using the incubating Vector API. Each call compares one point against a contiguous range of points
+ * of a struct-of-arrays coordinate buffer, processing as many points per instruction as the preferred vector shape of
+ * the platform allows. Lanes are computed with the same operations, in the same order, as
+ * {@link CoordinateBuffer#getDistance(int, int)}, so the results are exactly the same as the scalar code.
+ *
+ * This class must be loaded only if the module {@code jdk.incubator.vector} is present, see
+ * {@link CoordinateBuffer#isVectorKernelEnabled()}.
+ *
+ * @author Filippo Lampa, Marco Serenelli
+ */
+public class VectorDistanceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorDistanceKernel() {
+    }
+
+    /**
+     * Computes the distances between point {@code i} and the points in {@code [from, to)}.
+     * @param x the x coordinates
+     * @param y the y coordinates
+     * @param z the z coordinates
+     * @param i index of the point
+     * @param from first index of the range
+     * @param to end (exclusive) of the range
+     * @param distances array receiving the distance of point {@code from + k} at position {@code k}
+     */
+    public static void getDistances(double[] x, double[] y, double[] z, int i, int from, int to, double[] distances) {
+        DoubleVector xi = DoubleVector.broadcast(SPECIES, x[i]);
+        DoubleVector yi = DoubleVector.broadcast(SPECIES, y[i]);
+        DoubleVector zi = DoubleVector.broadcast(SPECIES, z[i]);
+        int j = from;
+        for (int upperBound = from + SPECIES.loopBound(to - from); j < upperBound; j += SPECIES.length())
+            distance(xi, yi, zi, x, y, z, j).intoArray(distances, j - from);
+        for (; j < to; j++)
+            distances[j - from] = scalarDistance(x, y, z, i, j);
+    }
+
+    /**
+     * Finds the points in {@code [from, to)} closer than (or exactly at) the threshold from point {@code i}.
+     * @param x the x coordinates
+     * @param y the y coordinates
+     * @param z the z coordinates
+     * @param i index of the point
+     * @param from first index of the range
+     * @param to end (exclusive) of the range
+     * @param threshold the contact threshold
+     * @param contacts array receiving the indexes of the points in contact, in increasing order
+     * @return the number of points in contact
+     */
+    public static int getContacts(double[] x, double[] y, double[] z, int i, int from, int to, double threshold, int[] contacts) {
+        DoubleVector xi = DoubleVector.broadcast(SPECIES, x[i]);
+        DoubleVector yi = DoubleVector.broadcast(SPECIES, y[i]);
+        DoubleVector zi = DoubleVector.broadcast(SPECIES, z[i]);
+        int count = 0;
+        int j = from;
+        for (int upperBound = from + SPECIES.loopBound(to - from); j < upperBound; j += SPECIES.length()) {
+            VectorMask<Double> inContact = distance(xi, yi, zi, x, y, z, j).compare(VectorOperators.LE, threshold);
+            for (long lanes = inContact.toLong(); lanes != 0; lanes &= lanes - 1)
+                contacts[count++] = j + Long.numberOfTrailingZeros(lanes);
+        }
+        for (; j < to; j++)
+            if (scalarDistance(x, y, z, i, j) <= threshold)
+                contacts[count++] = j;
+        return count;
+    }
+
+    private static DoubleVector distance(DoubleVector xi, DoubleVector yi, DoubleVector zi, double[] x, double[] y, double[] z, int j) {
+        DoubleVector dx = xi.sub(DoubleVector.fromArray(SPECIES, x, j));
+        DoubleVector dy = yi.sub(DoubleVector.fromArray(SPECIES, y, j));
+        DoubleVector dz = zi.sub(DoubleVector.fromArray(SPECIES, z, j));
+        return dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).lanewise(VectorOperators.SQRT);
+    }
+
+    private static double scalarDistance(double[] x, double[] y, double[] z, int i, int j) {
+        double dx = x[i] - x[j];
+        double dy = y[i] - y[j];
+        double dz = z[i] - z[j];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+}
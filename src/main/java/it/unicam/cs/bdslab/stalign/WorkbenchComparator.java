@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -50,7 +51,6 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
-import fr.orsay.lri.varna.models.treealign.Tree;
 import fr.orsay.lri.varna.models.treealign.TreeAlignException;
 import org.apache.commons.io.FilenameUtils;
 import org.biojava.nbio.structure.Structure;
@@ -100,8 +100,9 @@ public class WorkbenchComparator {
         options.addOption(o11);
         Option o12 = new Option("cm","centerofmass",false,"Calculate the distance matrix with center of mass method");
         options.addOption(o12);
-        Option o13 = new Option("t","threshold",true,"Set a threshold");
-        o13.setArgName("threshold");
+        Option o13 = new Option("t","threshold",true,"Set a threshold, or a list of thresholds to compare the structures at each of them");
+        o13.setArgs(Option.UNLIMITED_VALUES);
+        o13.setArgName("threshold(s)");
         options.addOption(o13);
         Option o14 = new Option("edfm","editdistanceinputcustom",true,"Process the AAS files in the given folder and calculate edit distance");
         o14.setArgName("input-folder");
@@ -109,6 +110,12 @@ public class WorkbenchComparator {
         Option o15 = new Option("edf","editdistanceinput",true,"Process the files in the given folder and calculate edit distance");
         o15.setArgName("input-folder");
         options.addOption(o15);
+        Option o16 = new Option("j","threads",true,"Set the number of threads used to find the contacts of large structures, to calculate the distance matrices and to build the structural trees of long sequences, at least 1 (default: the common fork/join pool)");
+        o16.setArgName("threads");
+        options.addOption(o16);
+        Option o17 = new Option("md","max-distance",true,"Output only the pairs whose ASA or edit distance is at most the given one, giving up the computation of the distance as soon as it certainly exceeds it");
+        o17.setArgName("distance");
+        options.addOption(o17);
 
         // Parse command line
         HelpFormatter formatter = new HelpFormatter();
@@ -146,6 +153,9 @@ public class WorkbenchComparator {
             return;
         }
 
+        // Manage Option j
+        int parallelism = parseParallelism(cmd);
+
         // Manage Option n
         String configurationFileName = ScoringFunction.DEFAULT_PROPERTY_FILE;
         if (cmd.hasOption("n")) {
@@ -183,8 +193,11 @@ public class WorkbenchComparator {
             long elapsedTimeNano;
             // Maps for holding all the structures to be processed and their associated
             // processing time
-            Map<File, TERSAlignTree> structures = new HashMap<>();
-            Map<File, Long> structuresProcessingTime = new HashMap<>();
+            Map<File, List<TERSAlignTree>> structures = new HashMap<>();
+            Map<File, List<Long>> structuresProcessingTime = new HashMap<>();
+            // Thresholds to be used, one structural tree is built for each of them
+            double[] thresholds = parseThresholds(cmd);
+            String thresholdColumnName = isThresholdSweep(thresholds) ? ",Threshold" : "";
             // List for holding all the structures files
             List<File> structuresList = new ArrayList<>();
             // Set of skipped files
@@ -236,20 +249,24 @@ public class WorkbenchComparator {
             }
             // Write column names on the csv output files
             if(!custom) {
-                structuresStream.println("Num,FileName,NumberOfNucleotides,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]");
+                structuresStream.println("Num,FileName,NumberOfNucleotides,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]" + thresholdColumnName);
                 outputStream.println(
                         "FileName1,NumberOfNucleotides1,NumberOfWeakBonds1,TimeToGenerateStructuralTree1[ns],"
                                 + "FileName2,NumberOfNucleotides2,NumberOfWeakBonds2,TimeToGenerateStructuralTree2[ns],"
-                                + "MaxNumberOfNucleotides1-2,ASADistance,TimeToCalculateASADistance[ns]");
+                                + "MaxNumberOfNucleotides1-2,ASADistance,TimeToCalculateASADistance[ns]" + thresholdColumnName);
             } else {
-                structuresStream.println("Num,FileName,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]");
+                structuresStream.println("Num,FileName,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]" + thresholdColumnName);
                 outputStream.println(
                         "FileName1,NumberOfWeakBonds1,TimeToGenerateStructuralTree1[ns],"
                                 + "FileName2,NumberOfWeakBonds2,TimeToGenerateStructuralTree2[ns],"
-                                + "ASADistance,TimeToCalculateASADistance[ns]");
+                                + "ASADistance,TimeToCalculateASADistance[ns]" + thresholdColumnName);
             }
             // Load configuration file for costs
             ScoringFunction f = new ScoringFunction(configurationFileName);
+            // Maximum distance of the pairs to output, and statistics of the trees used to skip the pairs exceeding it
+            double maxDistance = parseMaxDistance(cmd);
+            Map<CompactStructuralTree, TreeStatistics> statistics = new IdentityHashMap<>();
+            int skippedPairs = 0;
 
             // Main Loop
             ListIterator<File> extIt = structuresList.listIterator();
@@ -264,8 +281,8 @@ public class WorkbenchComparator {
                     continue;
 
                 // Retrieve the Structural RNA Tree for the structure 1
-                TERSAlignTree st1;
-                Tree<String> t1 = null;
+                List<TERSAlignTree> st1;
+                List<CompactStructuralTree> t1 = new ArrayList<>();
                 // Check if this structure has already been processed
                 if (!structures.containsKey(f1)) {
                     // Parse the input file f1 for the secondary structure
@@ -288,51 +305,48 @@ public class WorkbenchComparator {
                         continue;
                     }
 
-                    if (cmd.hasOption("t")) {
-                        double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                        tertiaryStructure1.setThreshold(threshold);
-                    }
-
                     //manage option cm
                     if(cmd.hasOption("cm"))
                         tertiaryStructure1.setDistanceMatrixCalculationMethod("centerofmass");
 
-                    // Create the Structural RNA Tree and put the object into the map
-                    st1 = new TERSAlignTree(tertiaryStructure1);
-                    if(custom)
-                        st1.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure1.getBondList()) + 1);
-                    // Build Structural RNA Tree and measure building time
-                    startTimeNano = System.nanoTime();
-                    try {
-                        t1 = st1.getStructuralTree();
-                    }catch (StackOverflowError e){
-                        System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                        System.exit(1);
+                    //manage option j
+                    tertiaryStructure1.setParallelism(parallelism);
+
+                    // Create the Structural RNA Trees, one for each threshold, and put them into the map
+                    st1 = new ArrayList<>();
+                    List<Long> processingTimes1 = new ArrayList<>();
+                    for (TertiaryStructure thresholdStructure1 : applyThresholds(tertiaryStructure1, thresholds)) {
+                        TERSAlignTree tree1 = new TERSAlignTree(thresholdStructure1);
+                        tree1.setParallelism(parallelism);
+                        if(custom)
+                            tree1.setSequenceLength(calculateLastSequenceIndex(thresholdStructure1.getBondList()) + 1);
+                        // Build Structural RNA Tree and measure building time
+                        startTimeNano = System.nanoTime();
+                        t1.add(tree1.getCompactStructuralTree());
+                        elapsedTimeNano = System.nanoTime() - startTimeNano;
+                        st1.add(tree1);
+                        processingTimes1.add(elapsedTimeNano);
+                        // Output values in the structures output file
+                        String thresholdColumn = isThresholdSweep(thresholds) ? "," + thresholdStructure1.getThreshold() : "";
+                        if(!custom) {
+                            structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
+                                    + thresholdStructure1.getSequence().length() + ","
+                                    + thresholdStructure1.getBondList().size() + ","
+                                    + elapsedTimeNano + thresholdColumn);
+                        } else {
+                            structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
+                                    + thresholdStructure1.getBondList().size() + ","
+                                    + elapsedTimeNano + thresholdColumn);
+                        }
                     }
-                    elapsedTimeNano = System.nanoTime() - startTimeNano;
-                    // Insert Object in maps
+                    // Insert Objects in maps
                     structures.put(f1, st1);
-                    structuresProcessingTime.put(f1, elapsedTimeNano);
-                    // Output values in the structures output file
-                    if(!custom) {
-                        structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
-                                + st1.getTertiaryStructure().getSequence().length() + ","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + elapsedTimeNano);
-                    } else {
-                        structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + elapsedTimeNano);
-                    }
+                    structuresProcessingTime.put(f1, processingTimes1);
                     numStructures++;
                 } else {
                     st1 = structures.get(f1);
-                    try {
-                        t1 = st1.getStructuralTree();
-                    }catch (StackOverflowError e){
-                        System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                        System.exit(1);
-                    }
+                    for (TERSAlignTree tree1 : st1)
+                        t1.add(tree1.getCompactStructuralTree());
                 }
 
                 // Internal Loop - Compare structure 1 with all the subsequent ones
@@ -346,8 +360,8 @@ public class WorkbenchComparator {
                         continue;
 
                     // Retrieve the Structural RNA Tree for the structure 2
-                    TERSAlignTree st2 = null;
-                    Tree<String> t2 = null;
+                    List<TERSAlignTree> st2;
+                    List<CompactStructuralTree> t2 = new ArrayList<>();
                     // Check if this structure has already been processed
                     if (!structures.containsKey(f2)) {
                         // Parse the input file f2 for the secondary structure
@@ -370,89 +384,106 @@ public class WorkbenchComparator {
                             continue;
                         }
 
-                        if (cmd.hasOption("t")) {
-                            double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                            tertiaryStructure2.setThreshold(threshold);
-                        }
-
                         //manage option cm
                         if(cmd.hasOption("cm"))
                             tertiaryStructure2.setDistanceMatrixCalculationMethod("centerofmass");
 
-                        // Create the Structural RNA Tree and put the object into the map
-                        st2 = new TERSAlignTree(tertiaryStructure2);
-                        if(custom)
-                            st2.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure2.getBondList()) + 1);
-                        // Build Structural RNA Tree and measure building time
-                        startTimeNano = System.nanoTime();
-                        try {
-                            t2 = st2.getStructuralTree();
-                        }catch (StackOverflowError e){
-                            System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                            System.exit(1);
+                        //manage option j
+                        tertiaryStructure2.setParallelism(parallelism);
+
+                        // Create the Structural RNA Trees, one for each threshold, and put them into the map
+                        st2 = new ArrayList<>();
+                        List<Long> processingTimes2 = new ArrayList<>();
+                        for (TertiaryStructure thresholdStructure2 : applyThresholds(tertiaryStructure2, thresholds)) {
+                            TERSAlignTree tree2 = new TERSAlignTree(thresholdStructure2);
+                            tree2.setParallelism(parallelism);
+                            if(custom)
+                                tree2.setSequenceLength(calculateLastSequenceIndex(thresholdStructure2.getBondList()) + 1);
+                            // Build Structural RNA Tree and measure building time
+                            startTimeNano = System.nanoTime();
+                            t2.add(tree2.getCompactStructuralTree());
+                            elapsedTimeNano = System.nanoTime() - startTimeNano;
+                            st2.add(tree2);
+                            processingTimes2.add(elapsedTimeNano);
+                            // Output values in the structures output file
+                            String thresholdColumn = isThresholdSweep(thresholds) ? "," + thresholdStructure2.getThreshold() : "";
+                            if(!custom) {
+                                structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
+                                        + thresholdStructure2.getSequence().length() + ","
+                                        + thresholdStructure2.getBondList().size() + ","
+                                        + elapsedTimeNano + thresholdColumn);
+                            } else {
+                                structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
+                                        + thresholdStructure2.getBondList().size() + ","
+                                        + elapsedTimeNano + thresholdColumn);
+                            }
                         }
-                        elapsedTimeNano = System.nanoTime() - startTimeNano;
-                        // Insert Object in maps
+                        // Insert Objects in maps
                         structures.put(f2, st2);
-                        structuresProcessingTime.put(f2, elapsedTimeNano);
-                        // Output values in the structures output file
-                        if(!custom) {
-                            structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
-                                    + st2.getTertiaryStructure().getSequence().length() + ","
-                                    + st2.getTertiaryStructure().getBondList().size() + ","
-                                    + elapsedTimeNano);
-                        } else {
-                            structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
-                                    + st2.getTertiaryStructure().getBondList().size() + ","
-                                    + elapsedTimeNano);
-                        }
+                        structuresProcessingTime.put(f2, processingTimes2);
                         numStructures++;
                     } else {
                         st2 = structures.get(f2);
-                        try {
-                            t2 = st2.getStructuralTree();
-                        }catch (StackOverflowError e){
-                            System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                            System.exit(1);
-                        }
+                        for (TERSAlignTree tree2 : st2)
+                            t2.add(tree2.getCompactStructuralTree());
                     }
 
                     // Compare the two structural RNA Trees t1 and t2 to determine the distance
                     System.out.println("Processing files: " + f1.getName() + " and " + f2.getName());
-                    AlignmentResult r;
-                    try {
-                        startTimeNano = System.nanoTime();
-                        r = new AlignmentResult(t1, t2, f);
-                        elapsedTimeNano = System.nanoTime() - startTimeNano;
-                    } catch (TreeAlignException e) {
-                        System.err.println("WARNING: Skipping the comparison of pair (" + f1.getName() + ","
-                                + f2.getName() + ") ... " + "Alignment Exception: " + e.getMessage());
-                        // Skip this pair
-                        continue;
-                    }
-                    // Write the output file
-                    if(!custom) {
-                        outputStream.println("\"" + f1.getName() + "\"," + st1.getTertiaryStructure().getSequence().length() + ","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f1) + "," + "\"" + f2.getName() + "\","
-                                + st2.getTertiaryStructure().getSequence().length() + ","
-                                + st2.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f2) + ","
-                                + (Math.max(st1.getTertiaryStructure().getSequence().length(), st2.getTertiaryStructure().getSequence().length()))
-                                + "," + r.getDistance() + "," + elapsedTimeNano);
-                    } else {
-                        outputStream.println("\"" + f1.getName() + "\","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f1) + "," + "\"" + f2.getName() + "\","
-                                + st2.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f2) + ","
-                                + r.getDistance() + "," + elapsedTimeNano);
+                    // Compare the trees built at each threshold
+                    for (int k = 0; k < st1.size(); k++) {
+                        // Skip the pairs whose distance is certainly greater than the maximum one
+                        if (maxDistance < Double.POSITIVE_INFINITY) {
+                            TreeStatistics s1 = statistics.computeIfAbsent(t1.get(k), TreeStatistics::new);
+                            TreeStatistics s2 = statistics.computeIfAbsent(t2.get(k), TreeStatistics::new);
+                            if (TreeStatistics.lowerBound(s1, s2, f) > maxDistance) {
+                                skippedPairs++;
+                                continue;
+                            }
+                        }
+                        AlignmentResult r;
+                        try {
+                            startTimeNano = System.nanoTime();
+                            r = AlignmentResult.withinDistance(t1.get(k), t2.get(k), f, maxDistance);
+                            elapsedTimeNano = System.nanoTime() - startTimeNano;
+                        } catch (TreeAlignException e) {
+                            System.err.println("WARNING: Skipping the comparison of pair (" + f1.getName() + ","
+                                    + f2.getName() + ") ... " + "Alignment Exception: " + e.getMessage());
+                            // Skip this pair at this threshold
+                            continue;
+                        }
+                        if (r.isAboveMaxDistance()) {
+                            skippedPairs++;
+                            continue;
+                        }
+                        // Write the output file, with the threshold column if more thresholds are given
+                        String thresholdColumn = isThresholdSweep(thresholds) ? "," + st1.get(k).getTertiaryStructure().getThreshold() : "";
+                        if(!custom) {
+                            outputStream.println("\"" + f1.getName() + "\"," + st1.get(k).getTertiaryStructure().getSequence().length() + ","
+                                    + st1.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f1).get(k) + "," + "\"" + f2.getName() + "\","
+                                    + st2.get(k).getTertiaryStructure().getSequence().length() + ","
+                                    + st2.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f2).get(k) + ","
+                                    + (Math.max(st1.get(k).getTertiaryStructure().getSequence().length(), st2.get(k).getTertiaryStructure().getSequence().length()))
+                                    + "," + r.getDistance() + "," + elapsedTimeNano + thresholdColumn);
+                        } else {
+                            outputStream.println("\"" + f1.getName() + "\","
+                                    + st1.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f1).get(k) + "," + "\"" + f2.getName() + "\","
+                                    + st2.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f2).get(k) + ","
+                                    + r.getDistance() + "," + elapsedTimeNano + thresholdColumn);
+                        }
                     }
                     // End of Internal Loop
                 }
                 // End of External Loop
             }
 
+            if (maxDistance < Double.POSITIVE_INFINITY)
+                System.out.println("Pairs skipped because their distance exceeds " + maxDistance + ": " + skippedPairs);
+
             // Close streams
             structuresStream.close();
             outputStream.close();
@@ -463,6 +494,9 @@ public class WorkbenchComparator {
         // Manage option ed
         if (cmd.hasOption("edf") || cmd.hasOption("edfm")) {
             boolean custom = cmd.hasOption("edfm");
+            // Maximum edit distance of the pairs to output and number of pairs skipped without running APTED
+            double maxDistance = parseMaxDistance(cmd);
+            int skippedPairs = 0;
             // Process a folder
             // Get folder file from command line
             File inputDirectory;
@@ -475,8 +509,11 @@ public class WorkbenchComparator {
             long elapsedTimeNano;
             // Maps for holding all the structures to be processed and their associated
             // processing time
-            Map<File, TERSAlignTree> structures = new HashMap<>();
-            Map<File, Long> structuresProcessingTime = new HashMap<>();
+            Map<File, List<TERSAlignTree>> structures = new HashMap<>();
+            Map<File, List<Long>> structuresProcessingTime = new HashMap<>();
+            // Thresholds to be used, one structural tree is built for each of them
+            double[] thresholds = parseThresholds(cmd);
+            String thresholdColumnName = isThresholdSweep(thresholds) ? ",Threshold" : "";
             // List for holding all the structures files
             List<File> structuresList = new ArrayList<>();
             // Set of skipped files
@@ -528,17 +565,17 @@ public class WorkbenchComparator {
             }
             // Write column names on the csv output files
             if(!custom) {
-                structuresStream.println("Num,FileName,NumberOfNucleotides,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]");
+                structuresStream.println("Num,FileName,NumberOfNucleotides,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]" + thresholdColumnName);
                 outputStream.println(
                         "FileName1,NumberOfNucleotides1,NumberOfWeakBonds1,TimeToGenerateStructuralTree1[ns],"
                                 + "FileName2,NumberOfNucleotides2,NumberOfWeakBonds2,TimeToGenerateStructuralTree2[ns],"
-                                + "MaxNumberOfNucleotides1-2,ASAEditDistance,TimeToCalculateASAEditDistance[ns]");
+                                + "MaxNumberOfNucleotides1-2,ASAEditDistance,TimeToCalculateASAEditDistance[ns]" + thresholdColumnName);
             } else {
-                structuresStream.println("Num,FileName,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]");
+                structuresStream.println("Num,FileName,NumberOfWeakBonds,TimeToGenerateStructuralTree[ns]" + thresholdColumnName);
                 outputStream.println(
                         "FileName1,NumberOfWeakBonds1,TimeToGenerateStructuralTree1[ns],"
                                 + "FileName2,NumberOfWeakBonds2,TimeToGenerateStructuralTree2[ns],"
-                                + "ASAEditDistance,TimeToCalculateASAEditDistance[ns]");
+                                + "ASAEditDistance,TimeToCalculateASAEditDistance[ns]" + thresholdColumnName);
             }
             // Load configuration file for costs
             ScoringFunction f = new ScoringFunction(configurationFileName);
@@ -556,8 +593,8 @@ public class WorkbenchComparator {
                     continue;
 
                 // Retrieve the Structural RNA Tree for the structure 1
-                TERSAlignTree st1;
-                Tree<String> t1 = null;
+                List<TERSAlignTree> st1;
+                List<CompactStructuralTree> t1 = new ArrayList<>();
                 // Check if this structure has already been processed
                 if (!structures.containsKey(f1)) {
                     // Parse the input file f1 for the secondary structure
@@ -580,51 +617,48 @@ public class WorkbenchComparator {
                         continue;
                     }
 
-                    if (cmd.hasOption("t")) {
-                        double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                        tertiaryStructure1.setThreshold(threshold);
-                    }
-
                     //manage option cm
                     if(cmd.hasOption("cm"))
                         tertiaryStructure1.setDistanceMatrixCalculationMethod("centerofmass");
 
-                    // Create the Structural RNA Tree and put the object into the map
-                    st1 = new TERSAlignTree(tertiaryStructure1);
-                    if(custom)
-                        st1.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure1.getBondList()) + 1);
-                    // Build Structural RNA Tree and measure building time
-                    startTimeNano = System.nanoTime();
-                    try {
-                        t1 = st1.getStructuralTree();
-                    }catch (StackOverflowError e){
-                        System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                        System.exit(1);
+                    //manage option j
+                    tertiaryStructure1.setParallelism(parallelism);
+
+                    // Create the Structural RNA Trees, one for each threshold, and put them into the map
+                    st1 = new ArrayList<>();
+                    List<Long> processingTimes1 = new ArrayList<>();
+                    for (TertiaryStructure thresholdStructure1 : applyThresholds(tertiaryStructure1, thresholds)) {
+                        TERSAlignTree tree1 = new TERSAlignTree(thresholdStructure1);
+                        tree1.setParallelism(parallelism);
+                        if(custom)
+                            tree1.setSequenceLength(calculateLastSequenceIndex(thresholdStructure1.getBondList()) + 1);
+                        // Build Structural RNA Tree and measure building time
+                        startTimeNano = System.nanoTime();
+                        t1.add(tree1.getCompactStructuralTree());
+                        elapsedTimeNano = System.nanoTime() - startTimeNano;
+                        st1.add(tree1);
+                        processingTimes1.add(elapsedTimeNano);
+                        // Output values in the structures output file
+                        String thresholdColumn = isThresholdSweep(thresholds) ? "," + thresholdStructure1.getThreshold() : "";
+                        if(!custom) {
+                            structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
+                                    + thresholdStructure1.getSequence().length() + ","
+                                    + thresholdStructure1.getBondList().size() + ","
+                                    + elapsedTimeNano + thresholdColumn);
+                        } else {
+                            structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
+                                    + thresholdStructure1.getBondList().size() + ","
+                                    + elapsedTimeNano + thresholdColumn);
+                        }
                     }
-                    elapsedTimeNano = System.nanoTime() - startTimeNano;
-                    // Insert Object in maps
+                    // Insert Objects in maps
                     structures.put(f1, st1);
-                    structuresProcessingTime.put(f1, elapsedTimeNano);
-                    // Output values in the structures output file
-                    if(!custom) {
-                        structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
-                                + st1.getTertiaryStructure().getSequence().length() + ","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + elapsedTimeNano);
-                    } else {
-                        structuresStream.println(numStructures + "," + "\"" + f1.getName() + "\","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + elapsedTimeNano);
-                    }
+                    structuresProcessingTime.put(f1, processingTimes1);
                     numStructures++;
                 } else {
                     st1 = structures.get(f1);
-                    try {
-                        t1 = st1.getStructuralTree();
-                    }catch (StackOverflowError e){
-                        System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                        System.exit(1);
-                    }
+                    for (TERSAlignTree tree1 : st1)
+                        t1.add(tree1.getCompactStructuralTree());
                 }
 
                 // Internal Loop - Compare structure 1 with all the subsequent ones
@@ -638,8 +672,8 @@ public class WorkbenchComparator {
                         continue;
 
                     // Retrieve the Structural RNA Tree for the structure 2
-                    TERSAlignTree st2 = null;
-                    Tree<String> t2 = null;
+                    List<TERSAlignTree> st2;
+                    List<CompactStructuralTree> t2 = new ArrayList<>();
                     // Check if this structure has already been processed
                     if (!structures.containsKey(f2)) {
                         // Parse the input file f2 for the secondary structure
@@ -662,88 +696,102 @@ public class WorkbenchComparator {
                             continue;
                         }
 
-                        if (cmd.hasOption("t")) {
-                            double threshold = Double.parseDouble(cmd.getOptionValue("t"));
-                            tertiaryStructure2.setThreshold(threshold);
-                        }
-
                         //manage option cm
                         if(cmd.hasOption("cm"))
                             tertiaryStructure2.setDistanceMatrixCalculationMethod("centerofmass");
 
-                        // Create the Structural RNA Tree and put the object into the map
-                        st2 = new TERSAlignTree(tertiaryStructure2);
-                        if(custom)
-                            st2.setSequenceLength(calculateLastSequenceIndex(tertiaryStructure2.getBondList()) + 1);
-                        // Build Structural RNA Tree and measure building time
-                        startTimeNano = System.nanoTime();
-                        try {
-                            t2 = st2.getStructuralTree();
-                        }catch (StackOverflowError e){
-                            System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                            System.exit(1);
+                        //manage option j
+                        tertiaryStructure2.setParallelism(parallelism);
+
+                        // Create the Structural RNA Trees, one for each threshold, and put them into the map
+                        st2 = new ArrayList<>();
+                        List<Long> processingTimes2 = new ArrayList<>();
+                        for (TertiaryStructure thresholdStructure2 : applyThresholds(tertiaryStructure2, thresholds)) {
+                            TERSAlignTree tree2 = new TERSAlignTree(thresholdStructure2);
+                            tree2.setParallelism(parallelism);
+                            if(custom)
+                                tree2.setSequenceLength(calculateLastSequenceIndex(thresholdStructure2.getBondList()) + 1);
+                            // Build Structural RNA Tree and measure building time
+                            startTimeNano = System.nanoTime();
+                            t2.add(tree2.getCompactStructuralTree());
+                            elapsedTimeNano = System.nanoTime() - startTimeNano;
+                            st2.add(tree2);
+                            processingTimes2.add(elapsedTimeNano);
+                            // Output values in the structures output file
+                            String thresholdColumn = isThresholdSweep(thresholds) ? "," + thresholdStructure2.getThreshold() : "";
+                            if(!custom) {
+                                structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
+                                        + thresholdStructure2.getSequence().length() + ","
+                                        + thresholdStructure2.getBondList().size() + ","
+                                        + elapsedTimeNano + thresholdColumn);
+                            } else {
+                                structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
+                                        + thresholdStructure2.getBondList().size() + ","
+                                        + elapsedTimeNano + thresholdColumn);
+                            }
                         }
-                        elapsedTimeNano = System.nanoTime() - startTimeNano;
-                        // Insert Object in maps
+                        // Insert Objects in maps
                         structures.put(f2, st2);
-                        structuresProcessingTime.put(f2, elapsedTimeNano);
-                        // Output values in the structures output file
-                        if(!custom) {
-                            structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
-                                    + st2.getTertiaryStructure().getSequence().length() + ","
-                                    + st2.getTertiaryStructure().getBondList().size() + ","
-                                    + elapsedTimeNano);
-                        } else {
-                            structuresStream.println(numStructures + "," + "\"" + f2.getName() + "\","
-                                    + st2.getTertiaryStructure().getBondList().size() + ","
-                                    + elapsedTimeNano);
-                        }
+                        structuresProcessingTime.put(f2, processingTimes2);
                         numStructures++;
                     } else {
                         st2 = structures.get(f2);
-                        try {
-                            t2= st2.getStructuralTree();
-                        }catch (StackOverflowError e){
-                            System.err.println("The molecule in file " + f1.getName() + " is too big, can't generate the associated tree");
-                            System.exit(1);
-                        }
+                        for (TERSAlignTree tree2 : st2)
+                            t2.add(tree2.getCompactStructuralTree());
                     }
 
                     // Compare the two structural RNA Trees t1 and t2 to determine the distance
                     System.out.println("Processing files: " + f1.getName() + " and " + f2.getName());
+                    // Compare the trees built at each threshold
+                    for (int k = 0; k < st1.size(); k++) {
+                        float distance;
+                        startTimeNano = System.nanoTime();
+                        BracketStringInputParser parser = new BracketStringInputParser();
+                        Node<StringNodeData> editDistanceTree1 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t1.get(k)) + "}");
+                        Node<StringNodeData> editDistanceTree2 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t2.get(k)) + "}");
+                        if (maxDistance < Double.POSITIVE_INFINITY) {
+                            // Skip the pairs whose edit distance exceeds the maximum one
+                            BoundedEditDistance ed = new BoundedEditDistance(editDistanceTree1, editDistanceTree2, f, maxDistance);
+                            if (ed.isAboveMaxDistance()) {
+                                skippedPairs++;
+                                continue;
+                            }
+                            distance = ed.getDistance();
+                        } else {
+                            APTED<PerEditOperationStringNodeDataCostModel, StringNodeData> apted = new APTED<>(new PerEditOperationStringNodeDataCostModel((float)f.getEditdistanceDeleteCost(),(float)f.getEditdistanceInsertCost(),(float)f.getEditdistanceRenameCost()));
+                            distance = apted.computeEditDistance(editDistanceTree1, editDistanceTree2);
+                        }
+                        elapsedTimeNano = System.nanoTime() - startTimeNano;
 
-                    float distance;
-                    startTimeNano = System.nanoTime();
-                    BracketStringInputParser parser = new BracketStringInputParser();
-                    Node<StringNodeData> editDistanceTree1 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t1) + "}");
-                    Node<StringNodeData> editDistanceTree2 = parser.fromString("{" + TreeOutputter.treeToAptedInput(t2) + "}");
-                    APTED<PerEditOperationStringNodeDataCostModel, StringNodeData> apted = new APTED<>(new PerEditOperationStringNodeDataCostModel((float)f.getEditdistanceDeleteCost(),(float)f.getEditdistanceInsertCost(),(float)f.getEditdistanceRenameCost()));
-                    distance = apted.computeEditDistance(editDistanceTree1, editDistanceTree2);
-                    elapsedTimeNano = System.nanoTime() - startTimeNano;
-
-                    // Write the output file
-                    if(!custom) {
-                        outputStream.println("\"" + f1.getName() + "\"," + st1.getTertiaryStructure().getSequence().length() + ","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f1) + "," + "\"" + f2.getName() + "\","
-                                + st2.getTertiaryStructure().getSequence().length() + ","
-                                + st2.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f2) + ","
-                                + (Math.max(st1.getTertiaryStructure().getSequence().length(), st2.getTertiaryStructure().getSequence().length()))
-                                + "," + distance + "," + elapsedTimeNano);
-                    } else {
-                        outputStream.println("\"" + f1.getName() + "\","
-                                + st1.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f1) + "," + "\"" + f2.getName() + "\","
-                                + st2.getTertiaryStructure().getBondList().size() + ","
-                                + structuresProcessingTime.get(f2) + ","
-                                + distance + "," + elapsedTimeNano);
+                        // Write the output file, with the threshold column if more thresholds are given
+                        String thresholdColumn = isThresholdSweep(thresholds) ? "," + st1.get(k).getTertiaryStructure().getThreshold() : "";
+                        if(!custom) {
+                            outputStream.println("\"" + f1.getName() + "\"," + st1.get(k).getTertiaryStructure().getSequence().length() + ","
+                                    + st1.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f1).get(k) + "," + "\"" + f2.getName() + "\","
+                                    + st2.get(k).getTertiaryStructure().getSequence().length() + ","
+                                    + st2.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f2).get(k) + ","
+                                    + (Math.max(st1.get(k).getTertiaryStructure().getSequence().length(), st2.get(k).getTertiaryStructure().getSequence().length()))
+                                    + "," + distance + "," + elapsedTimeNano + thresholdColumn);
+                        } else {
+                            outputStream.println("\"" + f1.getName() + "\","
+                                    + st1.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f1).get(k) + "," + "\"" + f2.getName() + "\","
+                                    + st2.get(k).getTertiaryStructure().getBondList().size() + ","
+                                    + structuresProcessingTime.get(f2).get(k) + ","
+                                    + distance + "," + elapsedTimeNano + thresholdColumn);
+                        }
                     }
                     // End of Internal Loop
                 }
                 // End of External Loop
             }
 
+            if (maxDistance < Double.POSITIVE_INFINITY)
+                System.out.println("Pairs skipped because their edit distance exceeds " + maxDistance + ": "
+                        + skippedPairs);
+
             // Close streams
             structuresStream.close();
             outputStream.close();
@@ -758,6 +806,75 @@ public class WorkbenchComparator {
                 true);
     }
 
+    /*
+     * Returns the number of threads given with option j, or 0 to use the common fork/join pool if it is not given.
+     * Exits if the number of threads is not a positive integer.
+     */
+    private static int parseParallelism(CommandLine cmd) {
+        if (!cmd.hasOption("j"))
+            return 0;
+        try {
+            int parallelism = Integer.parseInt(cmd.getOptionValue("j"));
+            if (parallelism >= 1)
+                return parallelism;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("ERROR: The number of threads must be a positive integer, found " + cmd.getOptionValue("j"));
+        System.exit(1);
+        return 0;
+    }
+
+    /*
+     * Returns the thresholds given with option t, null if the option is not present
+     */
+    private static double[] parseThresholds(CommandLine cmd) {
+        if (!cmd.hasOption("t"))
+            return null;
+        String[] values = cmd.getOptionValues("t");
+        double[] thresholds = new double[values.length];
+        for (int i = 0; i < values.length; i++)
+            thresholds[i] = Double.parseDouble(values[i]);
+        return thresholds;
+    }
+
+    /*
+     * Returns the maximum distance of the pairs to output, or infinity if not given. Exits if the maximum distance is
+     * not a number or is negative.
+     */
+    private static double parseMaxDistance(CommandLine cmd) {
+        if (!cmd.hasOption("md"))
+            return Double.POSITIVE_INFINITY;
+        try {
+            double maxDistance = Double.parseDouble(cmd.getOptionValue("md"));
+            if (maxDistance >= 0)
+                return maxDistance;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("ERROR: The maximum distance must be a non negative number, found " + cmd.getOptionValue("md"));
+        System.exit(1);
+        return 0;
+    }
+
+    private static boolean isThresholdSweep(double[] thresholds) {
+        return thresholds != null && thresholds.length > 1;
+    }
+
+    /*
+     * Returns the structure to process for each threshold. A single threshold is set on the structure itself, more
+     * thresholds are processed with a sweep sharing the neighbour lists.
+     */
+    private static List<TertiaryStructure> applyThresholds(TertiaryStructure tertiaryStructure, double[] thresholds) {
+        if (thresholds == null)
+            return Collections.singletonList(tertiaryStructure);
+        if (thresholds.length == 1) {
+            tertiaryStructure.setThreshold(thresholds[0]);
+            return Collections.singletonList(tertiaryStructure);
+        }
+        return tertiaryStructure.getThresholdSweep(thresholds);
+    }
+
     private static int calculateLastSequenceIndex(ArrayList<Pair<Integer>> bondList) {
         int lastIndex = 0;
         for(Pair<Integer> currentPair : bondList)
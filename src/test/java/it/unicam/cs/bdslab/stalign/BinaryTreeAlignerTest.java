@@ -0,0 +1,117 @@
+package it.unicam.cs.bdslab.stalign;
+
+import fr.orsay.lri.varna.models.treealign.AlignedNode;
+import fr.orsay.lri.varna.models.treealign.Tree;
+import fr.orsay.lri.varna.models.treealign.TreeAlign;
+import fr.orsay.lri.varna.models.treealign.TreeAlignException;
+import org.biojava.nbio.structure.contact.Pair;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static it.unicam.cs.bdslab.stalign.TestResources.createScoringFunction;
+import static it.unicam.cs.bdslab.stalign.TestResources.loadLocalFile;
+
+/**
+ * Test class for the alignment of binary trees against the tree alignment of VARNA
+ */
+class BinaryTreeAlignerTest {
+
+    @Test
+    @DisplayName("Same distances as VARNA with the default costs")
+    void testDefaultCosts() throws IOException, TreeAlignException {
+        compareWithVarna(new ScoringFunction(ScoringFunction.DEFAULT_PROPERTY_FILE));
+    }
+
+    @Test
+    @DisplayName("Same distances as VARNA when crossings with different numbers of crossings are aligned")
+    void testCrossingMismatches() throws IOException, TreeAlignException {
+        //Aligning two crossings costs less than replacing an operator only if their numbers of crossings are close
+        compareWithVarna(createScoringFunction("REPLACE_OPERATOR_COST=5\nCROSSING_MISMATCH_COST=2\n"));
+    }
+
+    @Test
+    @DisplayName("Same distances as VARNA with infinite costs")
+    void testInfiniteCosts() throws IOException, TreeAlignException {
+        //Trees with a different number of hairpins are at infinite distance
+        compareWithVarna(createScoringFunction("INSERT_HAIRPIN_COST=Infinity\nDELETE_HAIRPIN_COST=Infinity\n"));
+    }
+
+    /**
+     * Aligns every pair of structural trees of the comparison test resources with VARNA and with the binary tree
+     * aligner, from both the array encoded trees and their views, and checks that the distances are the same and that
+     * the cost of the alignments is the distance
+     * @param f the scoring function
+     */
+    private void compareWithVarna(ScoringFunction f) throws IOException, TreeAlignException {
+        List<CompactStructuralTree> trees = new ArrayList<>();
+        //The first bond files of a family of short and of long sequences
+        String[] folderNames = {"Archaea/5S", "Archaea/16S"};
+        int[] numbersOfFiles = {8, 2};
+        for(int folder = 0; folder < folderNames.length; folder++) {
+            File[] fileList = new File("src/test/resources/resources/TestComparison/" + folderNames[folder]).listFiles((directory, name) -> name.endsWith(".txt"));
+            assertNotNull(fileList, folderNames[folder]);
+            Arrays.sort(fileList);
+            for(int k = 0; k < Math.min(fileList.length, numbersOfFiles[folder]); k++)
+                trees.add(createStructuralTree(TertiaryStructureBondsOptionalSequenceFileReader.readBondsList(fileList[k].getPath())));
+        }
+        for(CompactStructuralTree t1 : trees)
+            for(CompactStructuralTree t2 : trees) {
+                double expected = new TreeAlign<String, String>(f).align(t1.toTree(), t2.toTree()).getDistance();
+
+                BinaryTreeAligner aligner = new BinaryTreeAligner(t1, t2, f, false, Double.POSITIVE_INFINITY);
+                assertEquals(expected, aligner.getDistance());
+                assertEquals(expected, getCost(aligner.getAlignment(), f));
+
+                aligner = new BinaryTreeAligner(t1.toTree(), t2.toTree(), f, false);
+                assertEquals(expected, aligner.getDistance());
+                assertEquals(expected, getCost(aligner.getAlignment(), f));
+
+                assertEquals(expected, new BinaryTreeAligner(t1, t2, f, true, Double.POSITIVE_INFINITY).getDistance());
+            }
+    }
+
+    /**
+     * Returns the sum of the costs of the aligned nodes
+     * @param alignment the alignment
+     * @param f the scoring function
+     * @return the cost of the alignment
+     */
+    private double getCost(Tree<AlignedNode<String, String>> alignment, ScoringFunction f) {
+        double cost = 0;
+        ArrayDeque<Tree<AlignedNode<String, String>>> stack = new ArrayDeque<>();
+        stack.push(alignment);
+        while(!stack.isEmpty()) {
+            Tree<AlignedNode<String, String>> node = stack.pop();
+            Tree<String> left = node.getValue().getLeftNode();
+            Tree<String> right = node.getValue().getRightNode();
+            cost += f.f(left == null ? null : left.getValue(), right == null ? null : right.getValue());
+            for(Tree<AlignedNode<String, String>> child : node.getChildren())
+                stack.push(child);
+        }
+        return cost;
+    }
+
+    /**
+     * Creates the structural tree of the given bonds, with a local structure whose bonds are replaced
+     * @param bonds the bonds
+     * @return the structural tree
+     */
+    private CompactStructuralTree createStructuralTree(ArrayList<Pair<Integer>> bonds) {
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(loadLocalFile("2I25_r_b.pdb"));
+        int sequenceLength = 0;
+        for(Pair<Integer> bond : bonds)
+            sequenceLength = Math.max(sequenceLength, Math.max(bond.getFirst(), bond.getSecond()) + 1);
+        tertiaryStructure.setBondList(bonds);
+        TERSAlignTree treeGenerator = new TERSAlignTree(tertiaryStructure);
+        treeGenerator.setSequenceLength(sequenceLength);
+        return treeGenerator.getCompactStructuralTree();
+    }
+}
@@ -0,0 +1,106 @@
+package it.unicam.cs.bdslab.stalign;
+
+import at.unisalzburg.dbresearch.apted.costmodel.PerEditOperationStringNodeDataCostModel;
+import at.unisalzburg.dbresearch.apted.distance.APTED;
+import at.unisalzburg.dbresearch.apted.node.Node;
+import at.unisalzburg.dbresearch.apted.node.StringNodeData;
+import at.unisalzburg.dbresearch.apted.parser.BracketStringInputParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static it.unicam.cs.bdslab.stalign.TestResources.createScoringFunction;
+import static it.unicam.cs.bdslab.stalign.TestResources.loadLocalFile;
+
+/**
+ * Test class for the edit distance bounded by a maximum distance and for the lower bound used to skip APTED
+ */
+class BoundedEditDistanceTest {
+
+    @Test
+    @DisplayName("Lower bound and maximum distance with the default costs")
+    void testDefaultCosts() {
+        checkBoundedEditDistance(new ScoringFunction(ScoringFunction.DEFAULT_PROPERTY_FILE));
+    }
+
+    @Test
+    @DisplayName("Lower bound and maximum distance when renaming costs more than deleting and inserting")
+    void testExpensiveRename() throws IOException {
+        checkBoundedEditDistance(createScoringFunction("EDITDISTANCE_RENAME_COST=500\nEDITDISTANCE_DELETE_COST=150\nEDITDISTANCE_INSERT_COST=100\n"));
+    }
+
+    @Test
+    @DisplayName("Lower bound and maximum distance with an infinite insertion cost")
+    void testInfiniteInsertion() throws IOException {
+        checkBoundedEditDistance(createScoringFunction("EDITDISTANCE_INSERT_COST=Infinity\n"));
+    }
+
+    /**
+     * Checks, for every pair of structural trees of the test structures at different thresholds, that the lower bound
+     * is at most the distance computed by APTED, and that the distance is reported as above a maximum distance just
+     * below it, or any finite one if the distance is infinite, and not above a maximum distance equal to or just above
+     * it, running APTED only when the lower bound does not exceed the maximum distance
+     * @param f the scoring function
+     */
+    private void checkBoundedEditDistance(ScoringFunction f) {
+        float deleteCost = (float) f.getEditdistanceDeleteCost();
+        float insertCost = (float) f.getEditdistanceInsertCost();
+        float renameCost = (float) f.getEditdistanceRenameCost();
+        List<Node<StringNodeData>> trees = new ArrayList<>();
+        BracketStringInputParser parser = new BracketStringInputParser();
+        for(String fileName : new String[]{"2I25_r_b.pdb", "1IQD_r_b.pdb", "3HMX_l_b.pdb"}) {
+            for(double threshold : new double[]{4.5, 6}) {
+                TertiaryStructure tertiaryStructure = new TertiaryStructure(loadLocalFile(fileName));
+                tertiaryStructure.setThreshold(threshold);
+                CompactStructuralTree tree = new TERSAlignTree(tertiaryStructure).getCompactStructuralTree();
+                trees.add(parser.fromString("{" + TreeOutputter.treeToAptedInput(tree) + "}"));
+            }
+        }
+        boolean positive = false;
+        boolean skipped = false;
+        for(Node<StringNodeData> t1 : trees)
+            for(Node<StringNodeData> t2 : trees) {
+                APTED<PerEditOperationStringNodeDataCostModel, StringNodeData> apted = new APTED<>(new PerEditOperationStringNodeDataCostModel(deleteCost, insertCost, renameCost));
+                double distance = apted.computeEditDistance(t1, t2);
+                double lowerBound = BoundedEditDistance.lowerBound(t1, t2, deleteCost, insertCost, renameCost);
+                assertTrue(lowerBound <= distance, "Lower bound " + lowerBound + " above the distance " + distance);
+                positive |= lowerBound > 0;
+
+                //No maximum distance
+                BoundedEditDistance ed = new BoundedEditDistance(t1, t2, f, Double.POSITIVE_INFINITY);
+                assertTrue(ed.isComputed());
+                assertFalse(ed.isAboveMaxDistance());
+                assertEquals(distance, ed.getDistance());
+
+                //Maximum distance equal to and just above the distance
+                if (distance < Double.POSITIVE_INFINITY)
+                    for(double maxDistance : new double[]{distance, Math.nextUp(distance)}) {
+                        ed = new BoundedEditDistance(t1, t2, f, maxDistance);
+                        assertTrue(ed.isComputed());
+                        assertFalse(ed.isAboveMaxDistance());
+                        assertEquals(distance, ed.getDistance());
+                    }
+
+                //Maximum distance just below the distance and below the lower bound, if they are positive, or any finite
+                //maximum distance if the distance is infinite
+                double[] maxDistances = distance < Double.POSITIVE_INFINITY ? new double[]{Math.nextDown(distance), lowerBound / 2}
+                        : new double[]{Double.MAX_VALUE};
+                for(double maxDistance : maxDistances) {
+                    if (maxDistance < 0 || maxDistance >= distance)
+                        continue;
+                    ed = new BoundedEditDistance(t1, t2, f, maxDistance);
+                    assertTrue(ed.isAboveMaxDistance());
+                    assertEquals(Float.POSITIVE_INFINITY, ed.getDistance());
+                    assertEquals(lowerBound <= maxDistance, ed.isComputed());
+                    skipped |= !ed.isComputed();
+                }
+            }
+        //The bound is not trivially 0 and APTED is skipped for some pairs
+        assertTrue(positive);
+        assertTrue(skipped);
+    }
+}
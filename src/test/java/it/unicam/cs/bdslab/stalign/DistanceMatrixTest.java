@@ -0,0 +1,264 @@
+/**
+ * STAlign - Structural Tree Alignment
+ * 
+ * Copyright (C) 2022 BioShape and Data Science Lab at the University of Camerino, Italy - 
+ * http://www.emanuelamerelli.eu/bigdata/
+ * https://github.com/bdslab
+ *  
+ * This file is part of STAlign.
+ * 
+ * STAlign is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ * 
+ * STAlign is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with STAlign. If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the packed and memory-mapped distance matrices and the kernels computing them
+ *
+ * @author Marco Serenelli
+ *
+ */
+class DistanceMatrixTest {
+
+    @Test
+    @DisplayName("Packed indexes enumerate the upper triangle row by row")
+    void testPackedIndex(){
+        for(int size : new int[]{1, 2, 3, 10, 57}) {
+            long expected = 0;
+            for(int i=0; i<size; i++)
+                for(int j=i+1; j<size; j++)
+                    assertEquals(expected++, PackedDistanceMatrix.packedIndex(size, i, j), "cell " + i + " " + j + " of " + size);
+            assertEquals(expected, PackedDistanceMatrix.packedLength(size));
+        }
+    }
+
+    @Test
+    @DisplayName("Packed indexes of very large matrices do not overflow")
+    void testPackedIndexOverflow(){
+        int size = 70000;
+        //The triangle has more cells than the maximum array length
+        assertEquals(2449965000L, PackedDistanceMatrix.packedLength(size));
+        assertTrue(PackedDistanceMatrix.packedLength(size) > Integer.MAX_VALUE);
+
+        //The last cell is the last index of the triangle
+        assertEquals(PackedDistanceMatrix.packedLength(size) - 1, PackedDistanceMatrix.packedIndex(size, size - 2, size - 1));
+
+        //Row i starts after the (size - 1) + (size - 2) + ... + (size - i) cells of the previous rows
+        int i = 50000;
+        assertEquals((long) i * (size - 1) - (long) i * (i - 1) / 2, PackedDistanceMatrix.packedIndex(size, i, i + 1));
+
+        //Such a matrix cannot be stored in an array
+        assertThrows(IllegalArgumentException.class, () -> new PackedDistanceMatrix(size, true));
+        assertTrue(MappedDistanceMatrix.isRecommended(size, true));
+    }
+
+    @Test
+    @DisplayName("Packed matrix is symmetric and rows are read and written in bulk")
+    void testPackedDistanceMatrix(){
+        int size = 9;
+        PackedDistanceMatrix distanceMatrix = new PackedDistanceMatrix(size, false);
+        PackedDistanceMatrix floatDistanceMatrix = new PackedDistanceMatrix(size, true);
+        for(int i=0; i<size; i++) {
+            double[] distances = new double[size];
+            for(int j=i+1; j<size; j++)
+                distances[j - i - 1] = expectedDistance(i, j);
+            distanceMatrix.setRow(i, i + 1, distances, size - i - 1);
+            for(int j=i+1; j<size; j++)
+                floatDistanceMatrix.set(j, i, expectedDistance(i, j));
+        }
+
+        double[][] matrix = distanceMatrix.toArray();
+        double[] row = new double[size];
+        for(int i=0; i<size; i++) {
+            //A row can be read from any column, including the ones below the diagonal
+            distanceMatrix.getRow(i, 0, row);
+            for(int j=0; j<size; j++) {
+                double expected = i == j ? 0 : expectedDistance(Math.min(i, j), Math.max(i, j));
+                assertEquals(expected, distanceMatrix.get(i, j));
+                assertEquals(expected, distanceMatrix.get(j, i));
+                assertEquals(expected, matrix[i][j]);
+                assertEquals(expected, row[j]);
+                assertEquals((float) expected, floatDistanceMatrix.get(i, j));
+            }
+            distanceMatrix.getRow(i, 3, row);
+            for(int j=3; j<size; j++)
+                assertEquals(distanceMatrix.get(i, j), row[j - 3]);
+        }
+        assertFalse(distanceMatrix.isFloatPrecision());
+        assertTrue(floatDistanceMatrix.isFloatPrecision());
+    }
+
+    @Test
+    @DisplayName("Mapped matrix stores the same distances as the packed one")
+    void testMappedDistanceMatrix(){
+        CoordinateBuffer coordinates = randomCoordinates(300);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for(boolean floatPrecision : new boolean[]{false, true}) {
+                PackedDistanceMatrix expectedMatrix = ParallelDistanceKernel.compute(coordinates, floatPrecision, pool);
+                try (MappedDistanceMatrix distanceMatrix = new MappedDistanceMatrix(coordinates.size(), floatPrecision)) {
+                    ParallelDistanceKernel.compute(coordinates, distanceMatrix, pool);
+                    assertEquals(floatPrecision, distanceMatrix.isFloatPrecision());
+                    double[] row = new double[coordinates.size()];
+                    double[] expectedRow = new double[coordinates.size()];
+                    for(int i=0; i<coordinates.size(); i++) {
+                        distanceMatrix.getRow(i, 0, row);
+                        expectedMatrix.getRow(i, 0, expectedRow);
+                        assertArrayEquals(expectedRow, row);
+                        for(int j=0; j<coordinates.size(); j+=7)
+                            assertEquals(expectedMatrix.get(i, j), distanceMatrix.get(j, i));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Mapped matrix rows across the boundary of two segments")
+    void testMappedDistanceMatrixSegmentBoundary(){
+        //The smallest matrix with more values than a segment of 2^27 values
+        int size = 16385;
+        long boundary = 1L << 27;
+        assertTrue(PackedDistanceMatrix.packedLength(size) > boundary);
+        //Row i starts in the first segment and ends in the second one
+        int i = 0;
+        while(PackedDistanceMatrix.packedIndex(size, i + 1, i + 2) <= boundary)
+            i++;
+        int last = (int) (boundary - PackedDistanceMatrix.packedIndex(size, i, i + 1)) + i + 1;
+        assertEquals(boundary, PackedDistanceMatrix.packedIndex(size, i, last));
+
+        for(boolean floatPrecision : new boolean[]{false, true}) {
+            int temporaryFiles = countTemporaryFiles();
+            try (MappedDistanceMatrix distanceMatrix = new MappedDistanceMatrix(size, floatPrecision)) {
+                //The backing file is deleted as soon as it is mapped
+                if(!System.getProperty("os.name").startsWith("Windows"))
+                    assertEquals(temporaryFiles, countTemporaryFiles());
+
+                //Write the row in bulk and read it cell by cell, across the boundary
+                double[] distances = new double[size - i - 1];
+                for(int k=0; k<distances.length; k++)
+                    distances[k] = k + 0.5;
+                distanceMatrix.setRow(i, i + 1, distances, distances.length);
+                assertEquals(last - i - 1 + 0.5, distanceMatrix.get(i, last));
+                assertEquals(last - i - 2 + 0.5, distanceMatrix.get(last - 1, i));
+                assertEquals(distances.length - 1 + 0.5, distanceMatrix.get(i, size - 1));
+
+                //Read the row in bulk, from below the diagonal and from the last cell of the first segment
+                double[] row = new double[size];
+                distanceMatrix.getRow(i, 0, row);
+                assertEquals(0, row[i]);
+                for(int k=0; k<distances.length; k++)
+                    assertEquals(distances[k], row[i + 1 + k]);
+                distanceMatrix.getRow(i, last - 1, row);
+                for(int j=last - 1; j<size; j++)
+                    assertEquals(distances[j - i - 1], row[j - last + 1]);
+
+                //Write single cells on both sides of the boundary
+                distanceMatrix.set(last - 1, i, 1.25);
+                distanceMatrix.set(i, last, 2.75);
+                assertEquals(1.25, distanceMatrix.get(i, last - 1));
+                assertEquals(2.75, distanceMatrix.get(last, i));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Vector kernel gives exactly the scalar distances")
+    void testVectorDistanceKernel(){
+        CoordinateBuffer coordinates = randomCoordinates(37);
+        double[] x = coordinates.getX(), y = coordinates.getY(), z = coordinates.getZ();
+        double[] distances = new double[coordinates.size()];
+        int[] contacts = new int[coordinates.size()];
+        double threshold = coordinates.getDistance(5, 20);
+        for(int i=0; i<coordinates.size(); i++)
+            //Ranges of every length, so that both the vector loop and the scalar tail are used
+            for(int from=0; from<coordinates.size(); from+=3)
+                for(int to=from; to<=coordinates.size(); to+=5) {
+                    VectorDistanceKernel.getDistances(x, y, z, i, from, to, distances);
+                    for(int j=from; j<to; j++)
+                        assertEquals(coordinates.getDistance(i, j), distances[j - from], "distance " + i + " " + j);
+
+                    //A point exactly at the threshold is in contact
+                    int count = VectorDistanceKernel.getContacts(x, y, z, i, from, to, threshold, contacts);
+                    int expectedCount = 0;
+                    for(int j=from; j<to; j++)
+                        if(coordinates.getDistance(i, j) <= threshold)
+                            assertEquals(j, contacts[expectedCount++]);
+                    assertEquals(expectedCount, count);
+                }
+    }
+
+    @Test
+    @DisplayName("Parallel kernel fills the matrix with the scalar distances")
+    void testParallelDistanceKernel(){
+        //More rows and columns than a tile, so that rows are split and tiles are used
+        CoordinateBuffer coordinates = randomCoordinates(600);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for(boolean floatPrecision : new boolean[]{false, true}) {
+                PackedDistanceMatrix distanceMatrix = ParallelDistanceKernel.compute(coordinates, floatPrecision, pool);
+                for(int i=0; i<coordinates.size(); i++)
+                    for(int j=0; j<coordinates.size(); j++) {
+                        double expected = i == j ? 0 : coordinates.getDistance(i, j);
+                        assertEquals(floatPrecision ? (float) expected : expected, distanceMatrix.get(i, j));
+                    }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Number of backing files of mapped matrices in the temporary directory
+     */
+    private static int countTemporaryFiles(){
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        return Objects.requireNonNull(directory.listFiles((dir, name) -> name.startsWith("stalign-distances"))).length;
+    }
+
+    /*
+     * Points spread in a box of the size of a small protein, always the same for a given number of points
+     */
+    private static CoordinateBuffer randomCoordinates(int size){
+        Random random = new Random(size);
+        Atom[] atoms = new Atom[size];
+        for(int i=0; i<size; i++) {
+            atoms[i] = new AtomImpl();
+            atoms[i].setX(random.nextDouble() * 60 - 30);
+            atoms[i].setY(random.nextDouble() * 60 - 30);
+            atoms[i].setZ(random.nextDouble() * 60 - 30);
+        }
+        return new CoordinateBuffer(atoms);
+    }
+
+    /*
+     * Distance stored in the cell (i, j) of the test matrices, not representable as a float
+     */
+    private static double expectedDistance(int i, int j){
+        return i * 100 + j + 0.1;
+    }
+}
@@ -0,0 +1,119 @@
+package it.unicam.cs.bdslab.stalign;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static it.unicam.cs.bdslab.stalign.TestResources.createScoringFunction;
+
+/**
+ * Test class for the costs of the scoring function against the costs given by the classification of the labels by
+ * their form
+ */
+class ScoringFunctionTest {
+
+    //Gaps, every operator, crossings with different numbers of crossings, hairpins, the root and another label
+    private static final String[] LABELS = {null, "-", Operators.CONCATENATION_LABEL, Operators.NESTING_LABEL,
+            Operators.MEETING_LABEL, Operators.ENDING_LABEL, Operators.STARTING_LABEL, Operators.DIAMOND_LABEL,
+            "(" + Operators.CROSSING_LABEL + ",0)", "(" + Operators.CROSSING_LABEL + ",1)",
+            "(" + Operators.CROSSING_LABEL + ",4)", "(" + Operators.CROSSING_LABEL + ",12)", "L(1,5)", "L(7,30)",
+            Operators.ALGEBRAIC_TREE_ROOT_LABEL, "OTHER"};
+
+    @Test
+    @DisplayName("Costs of every pair of labels with the default costs")
+    void testDefaultCosts() {
+        checkCosts(new ScoringFunction(ScoringFunction.DEFAULT_PROPERTY_FILE), 100, 100, 100, 100, 100, 1);
+    }
+
+    @Test
+    @DisplayName("Costs of every pair of labels with different costs")
+    void testDifferentCosts() throws IOException {
+        //Every cost is different, so that a cost taken from the wrong case is detected
+        checkCosts(createScoringFunction("INSERT_OPERATOR_COST=11\nDELETE_OPERATOR_COST=13\nREPLACE_OPERATOR_COST=17\n"
+                + "INSERT_HAIRPIN_COST=19\nDELETE_HAIRPIN_COST=23\nCROSSING_MISMATCH_COST=3\n"), 11, 13, 17, 19, 23, 3);
+    }
+
+    @Test
+    @DisplayName("Costs of every pair of labels with infinite costs")
+    void testInfiniteCosts() throws IOException {
+        checkCosts(createScoringFunction("INSERT_HAIRPIN_COST=Infinity\nDELETE_OPERATOR_COST=Infinity\n"
+                + "REPLACE_OPERATOR_COST=0\nCROSSING_MISMATCH_COST=0.5\n"),
+                100, Double.POSITIVE_INFINITY, 0, Double.POSITIVE_INFINITY, 100, 0.5);
+    }
+
+    /**
+     * Checks the cost of every pair of labels, given as labels and as opcodes and numbers of crossings, against the
+     * expected cost
+     * @param f the scoring function
+     */
+    private void checkCosts(ScoringFunction f, double insertOperatorCost, double deleteOperatorCost,
+                            double replaceOperatorCost, double insertHairpinCost, double deleteHairpinCost,
+                            double crossingMismatchCost) {
+        double[] costs = {insertOperatorCost, deleteOperatorCost, replaceOperatorCost, insertHairpinCost,
+                deleteHairpinCost, crossingMismatchCost};
+        for(String x : LABELS)
+            for(String y : LABELS) {
+                double expected = expectedCost(x, y, costs);
+                assertEquals(expected, f.f(x, y), x + " " + y);
+                assertEquals(expected, f.f(f.getOpcode(x), f.getCrossings(x), f.getOpcode(y), f.getCrossings(y)),
+                        x + " " + y);
+            }
+    }
+
+    /**
+     * Returns the cost of aligning two labels, classifying them by their form
+     * @param xValue the first label, null for a gap
+     * @param yValue the second label, null for a gap
+     * @param costs the insert, delete and replace operator costs, the insert and delete hairpin costs and the
+     *              crossing mismatch cost
+     * @return the cost
+     */
+    private double expectedCost(String xValue, String yValue, double[] costs) {
+        String x = xValue == null ? "-" : xValue;
+        String y = yValue == null ? "-" : yValue;
+        if (isGap(x) && isGap(y))
+            return 0;
+        if (isOperator(x) && isGap(y))
+            return costs[1];
+        if (isOperator(y) && isGap(x))
+            return costs[0];
+        if (isOperator(x) && isOperator(y)) {
+            if (isCrossing(x) && isCrossing(y))
+                return costs[5] * Math.abs(getCrossings(x) - getCrossings(y));
+            return x.equals(y) ? 0 : costs[2];
+        }
+        if (isHairpin(x) && isGap(y))
+            return costs[4];
+        if (isHairpin(y) && isGap(x))
+            return costs[3];
+        if (isHairpin(x) && isHairpin(y))
+            return 0;
+        if (isHairpin(x) || isHairpin(y))
+            return Double.POSITIVE_INFINITY;
+        return 0;
+    }
+
+    private boolean isGap(String s) {
+        return s.equals("-");
+    }
+
+    private boolean isHairpin(String s) {
+        return s.startsWith(Operators.HAIRPIN_LABEL);
+    }
+
+    private boolean isCrossing(String s) {
+        return s.startsWith("(" + Operators.CROSSING_LABEL);
+    }
+
+    private boolean isOperator(String s) {
+        return isCrossing(s) || s.equals(Operators.CONCATENATION_LABEL) || s.equals(Operators.NESTING_LABEL)
+                || s.equals(Operators.MEETING_LABEL) || s.equals(Operators.ENDING_LABEL)
+                || s.equals(Operators.STARTING_LABEL) || s.equals(Operators.DIAMOND_LABEL);
+    }
+
+    private int getCrossings(String s) {
+        return Integer.parseInt(s.substring(s.indexOf(',') + 1, s.length() - 1));
+    }
+}
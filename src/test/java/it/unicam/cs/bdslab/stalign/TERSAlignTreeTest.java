@@ -27,12 +27,18 @@ import org.biojava.nbio.structure.StructureIO;
 import org.biojava.nbio.structure.contact.Pair;
 import org.biojava.nbio.structure.*;
 import static org.junit.jupiter.api.Assertions.*;
+import static it.unicam.cs.bdslab.stalign.TestResources.loadLocalFile;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
 
 /**
  * Test class for the RNA/Protein's structural tree builder
@@ -277,6 +283,173 @@ class TERSAlignTreeTest {
 
     }
 
+    @Test
+    @DisplayName("Same trees as the recursive builder on real structures")
+    void testSameTreesAsRecursiveBuilder() {
+        for(String fileName : new String[]{"2I25_r_b.pdb", "1IQD_r_b.pdb", "3HMX_l_b.pdb", "4GXU_l_b.pdb"}) {
+            Structure structure = loadLocalFile(fileName);
+            for(double threshold : new double[]{4.5, 6, 8}) {
+                TertiaryStructure tertiaryStructure = new TertiaryStructure(structure);
+                tertiaryStructure.setThreshold(threshold);
+                String expected = buildWithLargeStack(() -> new RecursiveTERSAlignTree(tertiaryStructure).getStructuralTree());
+                TERSAlignTree treeGenerator = new TERSAlignTree(tertiaryStructure);
+                assertEquals(expected, treeToString(treeGenerator.getStructuralTree()), fileName + " " + threshold);
+
+                //The tree is the same when built again
+                assertEquals(expected, treeToString(new TERSAlignTree(tertiaryStructure).getStructuralTree()), fileName + " " + threshold);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Same trees with any number of threads on a long sequence")
+    void testParallelBuild() {
+        for(boolean meet : new boolean[]{false, true}) {
+            TertiaryStructure tertiaryStructure = createLongStructure(meet);
+            int sequenceLength = getLastPosition(tertiaryStructure) + 1;
+            String expected = buildWithLargeStack(() -> {
+                RecursiveTERSAlignTree recursiveTreeGenerator = new RecursiveTERSAlignTree(tertiaryStructure);
+                recursiveTreeGenerator.setSequenceLength(sequenceLength);
+                return recursiveTreeGenerator.getStructuralTree();
+            });
+            for(int parallelism : new int[]{1, 0, 3}) {
+                TERSAlignTree treeGenerator = new TERSAlignTree(tertiaryStructure);
+                treeGenerator.setSequenceLength(sequenceLength);
+                treeGenerator.setParallelism(parallelism);
+                assertEquals(expected, treeToString(treeGenerator.getStructuralTree()), "Meet " + meet + ", parallelism " + parallelism);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Parallel builds always give the sequential tree")
+    void testParallelDeterminism() {
+        for(boolean meet : new boolean[]{false, true}) {
+            TertiaryStructure tertiaryStructure = createLongStructure(meet);
+            int sequenceLength = getLastPosition(tertiaryStructure) + 1;
+            TERSAlignTree sequentialTreeGenerator = new TERSAlignTree(tertiaryStructure);
+            sequentialTreeGenerator.setSequenceLength(sequenceLength);
+            String expected = treeToString(sequentialTreeGenerator.getStructuralTree());
+            for(int parallelism : new int[]{0, 2, 4})
+                for(int k = 0; k < 5; k++) {
+                    TERSAlignTree treeGenerator = new TERSAlignTree(tertiaryStructure);
+                    treeGenerator.setSequenceLength(sequenceLength);
+                    treeGenerator.setParallelism(parallelism);
+                    assertEquals(expected, treeToString(treeGenerator.getStructuralTree()), "Meet " + meet + ", parallelism " + parallelism);
+                }
+        }
+    }
+
+    @Test
+    @DisplayName("Same trees when a secondary structure is built twice")
+    void testSecondaryStructureBuiltTwice() {
+        for(String fileName : new String[]{"2I25_r_b.pdb", "1IQD_r_b.pdb", "4GXU_l_b.pdb"}) {
+            Structure structure = loadLocalFile(fileName);
+            //The recursive builder modifies the partners of its secondary structure
+            String expected = buildWithLargeStack(() -> new RecursiveTERSAlignTree(new SecondaryStructure(structure)).getStructuralTree());
+
+            SecondaryStructure secondaryStructure = new SecondaryStructure(structure);
+            assertEquals(expected, treeToString(new TERSAlignTree(secondaryStructure).getStructuralTree()), fileName);
+            assertEquals(expected, treeToString(new TERSAlignTree(secondaryStructure).getStructuralTree()), fileName);
+        }
+    }
+
+    @Test
+    @DisplayName("Same trees when bonds change as when built from scratch")
+    void testBondDeltaSameAsFullBuild() {
+        Random random = new Random(20);
+        for(String fileName : new String[]{"2I25_r_b.pdb", "1IQD_r_b.pdb", "3HMX_l_b.pdb", "4GXU_l_b.pdb"}) {
+            Structure structure = loadLocalFile(fileName);
+            TertiaryStructure tertiaryStructure = new TertiaryStructure(structure);
+            tertiaryStructure.setThreshold(6);
+            TertiaryStructure candidateStructure = new TertiaryStructure(structure);
+            candidateStructure.setThreshold(8);
+            List<Pair<Integer>> candidates = candidateStructure.getBondList();
+            TERSAlignTree treeGenerator = new TERSAlignTree(tertiaryStructure);
+            treeGenerator.getStructuralTree();
+            for(int step = 0; step < 10; step++) {
+                List<Pair<Integer>> bondList = tertiaryStructure.getBondList();
+                List<Pair<Integer>> added = new ArrayList<>();
+                List<Pair<Integer>> removed = new ArrayList<>();
+                for(int k = random.nextInt(4); k > 0; k--)
+                    removed.add(bondList.get(random.nextInt(bondList.size())));
+                for(int k = random.nextInt(4); k > 0; k--)
+                    added.add(candidates.get(random.nextInt(candidates.size())));
+                treeGenerator.applyBondDelta(added, removed);
+
+                TertiaryStructure expectedStructure = new TertiaryStructure(structure);
+                expectedStructure.setBondList(new ArrayList<>(tertiaryStructure.getBondList()));
+                String expected = treeToString(new TERSAlignTree(expectedStructure).getStructuralTree());
+                assertEquals(expected, treeToString(treeGenerator.getStructuralTree()), fileName + " " + step);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Same trees before and after the build of a very long sequence")
+    void testBuildAfterVeryLongSequence() {
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(loadLocalFile("2I25_r_b.pdb"));
+        String expected = treeToString(new TERSAlignTree(tertiaryStructure).getStructuralTree());
+
+        //The scratch structures of the thread are dropped after this build
+        TERSAlignTree longTreeGenerator = new TERSAlignTree(tertiaryStructure);
+        longTreeGenerator.setSequenceLength(1 << 17);
+        assertEquals(expected, treeToString(longTreeGenerator.getStructuralTree()));
+        assertEquals(expected, treeToString(new TERSAlignTree(tertiaryStructure).getStructuralTree()));
+    }
+
+    @Test
+    @DisplayName("Same output and alignments from the compact tree as from its view")
+    void testCompactStructuralTreeConsumers() throws TreeAlignException {
+        ScoringFunction f = new ScoringFunction(ScoringFunction.DEFAULT_PROPERTY_FILE);
+        List<CompactStructuralTree> trees = new ArrayList<>();
+        for(String fileName : new String[]{"2I25_r_b.pdb", "1IQD_r_b.pdb", "3HMX_l_b.pdb"}) {
+            TertiaryStructure tertiaryStructure = new TertiaryStructure(loadLocalFile(fileName));
+            tertiaryStructure.setThreshold(6);
+            CompactStructuralTree compactTree = new TERSAlignTree(tertiaryStructure).getCompactStructuralTree();
+            Tree<String> tree = compactTree.toTree();
+            assertEquals(TreeOutputter.treeToString(tree), TreeOutputter.treeToString(compactTree), fileName);
+            assertEquals(TreeOutputter.toLatex(tree), TreeOutputter.toLatex(compactTree), fileName);
+            assertEquals(TreeOutputter.treeToAptedInput(tree), TreeOutputter.treeToAptedInput(compactTree), fileName);
+            trees.add(compactTree);
+        }
+        for(CompactStructuralTree t1 : trees)
+            for(CompactStructuralTree t2 : trees) {
+                AlignmentResult expected = new AlignmentResult(t1.toTree(), t2.toTree(), f);
+                AlignmentResult result = new AlignmentResult(t1, t2, f);
+                assertEquals(expected.getDistance(), result.getDistance());
+                assertEquals(TreeOutputter.treeToStringAligned(expected.getAlignedTree()),
+                        TreeOutputter.treeToStringAligned(result.getAlignedTree()));
+                assertEquals(expected.getDistance(), AlignmentResult.distanceOnly(t1, t2, f).getDistance());
+            }
+    }
+
+    @Test
+    @DisplayName("No alignment of trees whose distance exceeds the maximum distance")
+    void testAlignmentWithinDistance() throws TreeAlignException {
+        ScoringFunction f = new ScoringFunction(ScoringFunction.DEFAULT_PROPERTY_FILE);
+        TertiaryStructure tertiaryStructure1 = new TertiaryStructure(loadLocalFile("2I25_r_b.pdb"));
+        TertiaryStructure tertiaryStructure2 = new TertiaryStructure(loadLocalFile("1IQD_r_b.pdb"));
+        tertiaryStructure1.setThreshold(6);
+        tertiaryStructure2.setThreshold(6);
+        CompactStructuralTree t1 = new TERSAlignTree(tertiaryStructure1).getCompactStructuralTree();
+        CompactStructuralTree t2 = new TERSAlignTree(tertiaryStructure2).getCompactStructuralTree();
+        double distance = new AlignmentResult(t1, t2, f).getDistance();
+        assertTrue(distance > 0);
+
+        AlignmentResult within = AlignmentResult.withinDistance(t1, t2, f, distance);
+        assertFalse(within.isAboveMaxDistance());
+        assertEquals(distance, within.getDistance());
+        assertNotNull(within.getAlignedTree());
+
+        for(AlignmentResult above : new AlignmentResult[]{AlignmentResult.withinDistance(t1, t2, f, distance / 2),
+                AlignmentResult.withinDistance(t1.toTree(), t2.toTree(), f, distance / 2)}) {
+            assertTrue(above.isAboveMaxDistance());
+            assertEquals(Double.POSITIVE_INFINITY, above.getDistance());
+            assertThrows(IllegalStateException.class, above::getAlignedTree);
+        }
+    }
+
     private Tree<String> testCrossingMeet() {
         // (1,3); (2,5); (3,4);
         Tree<String> structuralTree = new Tree<>();
@@ -1450,6 +1623,104 @@ class TERSAlignTreeTest {
         return true;
     }
 
+    /**
+     * Creates a structure whose bonds are six copies of the bonds of a real structure, the first three and the last
+     * three enclosed in a bond, so that both the sides of the outermost meet or concatenation are larger than the
+     * parallel cutoff of the builder
+     * @param meet true if the two enclosing bonds meet, false if they are concatenated
+     * @return the structure
+     */
+    private TertiaryStructure createLongStructure(boolean meet) {
+        TertiaryStructure block = new TertiaryStructure(loadLocalFile("4GXU_l_b.pdb"));
+        block.setThreshold(7);
+        int blockLength = block.getSequence().length();
+        assertTrue(3 * blockLength > 4096);
+        ArrayList<Pair<Integer>> bonds = new ArrayList<>();
+        int start = 1;
+        for(int group = 0; group < 2; group++) {
+            for(int k = 0; k < 3; k++) {
+                int shift = start + k * blockLength;
+                for(Pair<Integer> bond : block.getBondList())
+                    bonds.add(new Pair<>(bond.getFirst() + shift, bond.getSecond() + shift));
+            }
+            int end = start + 3 * blockLength + 1;
+            bonds.add(new Pair<>(start, end));
+            start = meet ? end : end + 1;
+        }
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(block.getStructure());
+        tertiaryStructure.setBondList(bonds);
+        return tertiaryStructure;
+    }
+
+    /**
+     * @param tertiaryStructure a structure
+     * @return the last position of the bonds of the structure
+     */
+    private int getLastPosition(TertiaryStructure tertiaryStructure) {
+        int lastPosition = 0;
+        for(Pair<Integer> bond : tertiaryStructure.getBondList())
+            lastPosition = Math.max(lastPosition, Math.max(bond.getFirst(), bond.getSecond()));
+        return lastPosition;
+    }
+
+    /**
+     * Builds a structural tree on a thread with a large stack, as needed by the recursive builder on long sequences
+     * @param builder the builder of the tree
+     * @return the tree as a string
+     */
+    private String buildWithLargeStack(Supplier<Tree<String>> builder) {
+        String[] tree = new String[1];
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                tree[0] = treeToString(builder.get());
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        }, "recursive builder", 1L << 30);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        if(error[0] != null)
+            fail(error[0]);
+        return tree[0];
+    }
+
+    /**
+     * Writes a tree in bracket notation without recursion, so that trees of any depth can be compared
+     * @param tree the tree
+     * @return the tree as a string
+     */
+    private String treeToString(Tree<String> tree) {
+        StringBuilder result = new StringBuilder();
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(tree);
+        while(!stack.isEmpty()) {
+            Object top = stack.pop();
+            if(top instanceof String) {
+                result.append((String) top);
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Tree<String> node = (Tree<String>) top;
+            result.append(node.getValue());
+            List<Tree<String>> children = node.getChildren();
+            if(children != null && !children.isEmpty()) {
+                result.append('(');
+                stack.push(")");
+                for(int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                    if(i > 0)
+                        stack.push(",");
+                }
+            }
+        }
+        return result.toString();
+    }
+
     /**
      * Creates a new structual tree by loading a random structure but replacing the current bonds with
      * the bonds passed as parameter
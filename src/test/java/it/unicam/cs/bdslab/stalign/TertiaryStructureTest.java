@@ -1,13 +1,18 @@
 package it.unicam.cs.bdslab.stalign;
 
 import org.biojava.nbio.structure.*;
+import org.biojava.nbio.structure.contact.Pair;
 import org.biojava.nbio.structure.io.PDBFileReader;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static it.unicam.cs.bdslab.stalign.TestResources.loadLocalFile;
 
 /**
  * Test class for the RNA/Protein's tertiary structure representation and distances calculations methods
@@ -354,6 +359,305 @@ class TertiaryStructureTest {
 
     }
 
+    @Test
+    @DisplayName("Bond list using the contact grid")
+    void testContactGridBondList(){
+        //Load a PROTEIN file
+        Structure struc = loadFile("3mge");
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+        tertiaryStructure.setThreshold(8);
+
+        //The structure is small, so the bond list is taken from the contact matrix
+        ArrayList<Pair<Integer>> expectedBondList = tertiaryStructure.getBondList();
+        ContactGrid contactGrid = new ContactGrid(new CoordinateBuffer(StructureTools.getRepresentativeAtomArray(struc)), 12);
+
+        //The grid should find the same bonds, in the same order, for every threshold up to its cell size
+        assertEquals(expectedBondList, contactGrid.getBondList(8));
+        tertiaryStructure = new TertiaryStructure(struc);
+        tertiaryStructure.setThreshold(12);
+        assertEquals(tertiaryStructure.getBondList(), contactGrid.getBondList(12));
+    }
+
+    @Test
+    @DisplayName("Contact grid against the contact map of a large structure")
+    void testContactGridLargeStructure(){
+        //Load a structure large enough to be scanned with the contact grid
+        Structure struc = loadLocalFile("4GXU_l_b.pdb");
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+        assertTrue(tertiaryStructure.getDistances().size() >= TertiaryStructure.CONTACT_GRID_MIN_SIZE);
+        ContactGrid contactGrid = new ContactGrid(new CoordinateBuffer(StructureTools.getRepresentativeAtomArray(struc)), 12);
+
+        //The grid should find exactly the bonds of the contact map, in the same order
+        for(double threshold : new double[]{4, 6.5, 8, 12})
+            assertEquals(new ContactMap(tertiaryStructure.getDistances(), threshold).getBondList(), contactGrid.getBondList(threshold), "threshold " + threshold);
+
+        //In single precision distances are rounded before being compared with the threshold
+        tertiaryStructure.setFloatPrecision(true);
+        for(double threshold : new double[]{4, 6.5, 8, 12})
+            assertEquals(new ContactMap(tertiaryStructure.getDistances(), threshold).getBondList(), contactGrid.getBonds(threshold, true).toBondList(), "threshold " + threshold);
+
+        //Thresholds above the cell size cannot be answered by the grid
+        assertThrows(IllegalArgumentException.class, () -> contactGrid.getBondList(13));
+    }
+
+    @Test
+    @DisplayName("Distance matrices are cached per method, precision and chains")
+    void testDistanceMatrixCache(){
+        //Load a PROTEIN file with two chains
+        Structure struc = loadLocalFile("1IQD_r_b.pdb");
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+        DistanceMatrix defaultMatrix = tertiaryStructure.getDistances();
+
+        //The matrix does not depend on the threshold
+        assertSame(defaultMatrix, tertiaryStructure.getDistances());
+        tertiaryStructure.setThreshold(8);
+        assertSame(defaultMatrix, tertiaryStructure.getDistances());
+
+        //Each precision has its own matrix
+        tertiaryStructure.setFloatPrecision(true);
+        DistanceMatrix floatMatrix = tertiaryStructure.getDistances();
+        assertNotSame(defaultMatrix, floatMatrix);
+        assertEquals((float) defaultMatrix.get(3, 70), floatMatrix.get(3, 70));
+        tertiaryStructure.setFloatPrecision(false);
+        assertSame(defaultMatrix, tertiaryStructure.getDistances());
+
+        //Each calculation method has its own matrix
+        tertiaryStructure.setDistanceMatrixCalculationMethod("CenterOfMass");
+        DistanceMatrix centerOfMassMatrix = tertiaryStructure.getDistances();
+        assertNotSame(defaultMatrix, centerOfMassMatrix);
+        assertNotEquals(defaultMatrix.get(3, 70), centerOfMassMatrix.get(3, 70));
+        tertiaryStructure.setDistanceMatrixCalculationMethod("Default");
+        assertSame(defaultMatrix, tertiaryStructure.getDistances());
+
+        //Each chain selection has its own matrix, chain ids are case-insensitive
+        tertiaryStructure.setSpecifiedChains(new ArrayList<>(Arrays.asList("A")));
+        DistanceMatrix chainMatrix = tertiaryStructure.getDistances();
+        assertNotSame(defaultMatrix, chainMatrix);
+        assertTrue(chainMatrix.size() < defaultMatrix.size());
+        tertiaryStructure.setSpecifiedChains(new ArrayList<>(Arrays.asList("a")));
+        assertSame(chainMatrix, tertiaryStructure.getDistances());
+        tertiaryStructure.setSpecifiedChains(new ArrayList<>(Arrays.asList("A", "B")));
+        assertEquals(defaultMatrix.get(3, 70), tertiaryStructure.getDistances().get(3, 70));
+
+        //The views of a threshold sweep share the cache with the structure
+        tertiaryStructure = new TertiaryStructure(struc);
+        defaultMatrix = tertiaryStructure.getDistances();
+        for(TertiaryStructure thresholdStructure : tertiaryStructure.getThresholdSweep(4, 8))
+            assertSame(defaultMatrix, thresholdStructure.getDistances());
+    }
+
+    @Test
+    @DisplayName("Center of mass distances against the centers computed one by one")
+    void testCentersOfMass(){
+        //Load a PROTEIN file
+        Structure struc = loadLocalFile("2I25_r_b.pdb");
+        ArrayList<Atom> centers = new ArrayList<>();
+        for(Chain chain : struc.getChains())
+            for(Group group : chain.getAtomGroups())
+                if(group.getType() != GroupType.HETATM)
+                    centers.add(Calc.centerOfMass(group.getAtoms().toArray(new Atom[0])));
+
+        //Every distance should be exactly the one between the centers of mass, whatever the number of threads
+        for(int parallelism : new int[]{0, 1, 3}) {
+            TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+            tertiaryStructure.setParallelism(parallelism);
+            tertiaryStructure.setDistanceMatrixCalculationMethod("CenterOfMass");
+            DistanceMatrix resultMatrix = tertiaryStructure.getDistances();
+            assertEquals(centers.size(), resultMatrix.size());
+            for(int i=0; i<centers.size(); i++)
+                for(int j=0; j<centers.size(); j++)
+                    assertEquals(i == j ? 0 : Calc.getDistance(centers.get(i), centers.get(j)), resultMatrix.get(i, j), "cell " + i + " " + j);
+        }
+    }
+
+    @Test
+    @DisplayName("Neighbour lists cut at different thresholds")
+    void testNeighbourList(){
+        //Load a PROTEIN file
+        Structure struc = loadLocalFile("3HMX_l_b.pdb");
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+        DistanceMatrix distanceMatrix = tertiaryStructure.getDistances();
+        NeighbourList neighbourList = tertiaryStructure.getNeighbourList(10);
+        assertEquals(distanceMatrix.size(), neighbourList.size());
+        assertEquals(new ContactMap(distanceMatrix, 10).getBondList().size(), neighbourList.getNumberOfPairs());
+
+        //Every threshold up to the maximum one gives the bonds of the contact map
+        for(double threshold : new double[]{0, 3.8, 4, 6.5, 8, 10})
+            assertEquals(new ContactMap(distanceMatrix, threshold).getBondList(), neighbourList.getBondList(threshold), "threshold " + threshold);
+
+        //The bonds between two thresholds are the bonds gained when moving from the lower to the upper one
+        ArrayList<Pair<Integer>> expectedBonds = new ContactMap(distanceMatrix, 8).getBondList();
+        expectedBonds.removeAll(new ContactMap(distanceMatrix, 4).getBondList());
+        assertEquals(expectedBonds, neighbourList.getBondsBetween(4, 8).toBondList());
+        assertEquals(0, neighbourList.getBondsBetween(6.5, 6.5).size());
+
+        //Thresholds above the maximum one cannot be answered
+        assertThrows(IllegalArgumentException.class, () -> neighbourList.getBondList(10.5));
+        assertThrows(IllegalArgumentException.class, () -> neighbourList.getBondsBetween(4, 10.5));
+
+        //The views of a sweep keep the order of the thresholds
+        List<TertiaryStructure> sweep = tertiaryStructure.getThresholdSweep(8, 4, 10);
+        assertEquals(3, sweep.size());
+        double[] thresholds = {8, 4, 10};
+        for(int k=0; k<thresholds.length; k++) {
+            assertEquals(thresholds[k], sweep.get(k).getThreshold());
+            assertEquals(new ContactMap(distanceMatrix, thresholds[k]).getBondList(), sweep.get(k).getBondList());
+        }
+    }
+
+    @Test
+    @DisplayName("Streamed bonds against the contact map")
+    void testStreamedBondList(){
+        //A structure scanned row by row and one scanned with the contact grid
+        for(String fileName : new String[]{"2I25_r_b.pdb", "4GXU_l_b.pdb"}) {
+            Structure struc = loadLocalFile(fileName);
+            for(String method : new String[]{"Default", "CenterOfMass"})
+                for(boolean floatPrecision : new boolean[]{false, true})
+                    for(double threshold : new double[]{4, 8}) {
+                        String message = fileName + " " + method + " " + floatPrecision + " " + threshold;
+                        //Bonds streamed from the coordinates, without any matrix
+                        TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+                        tertiaryStructure.setDistanceMatrixCalculationMethod(method);
+                        tertiaryStructure.setFloatPrecision(floatPrecision);
+                        tertiaryStructure.setThreshold(threshold);
+                        ArrayList<Pair<Integer>> streamedBondList = tertiaryStructure.getBondList();
+
+                        //Bonds of the contact map
+                        TertiaryStructure contactMapStructure = new TertiaryStructure(struc);
+                        contactMapStructure.setDistanceMatrixCalculationMethod(method);
+                        contactMapStructure.setFloatPrecision(floatPrecision);
+                        contactMapStructure.setThreshold(threshold);
+                        assertEquals(contactMapStructure.getContactMap().getBondList(), streamedBondList, message);
+
+                        //Bonds streamed from an already computed distance matrix
+                        TertiaryStructure distanceMatrixStructure = new TertiaryStructure(struc);
+                        distanceMatrixStructure.setDistanceMatrixCalculationMethod(method);
+                        distanceMatrixStructure.setFloatPrecision(floatPrecision);
+                        distanceMatrixStructure.setThreshold(threshold);
+                        distanceMatrixStructure.getDistances();
+                        assertEquals(streamedBondList, distanceMatrixStructure.getBondList(), message);
+                    }
+        }
+    }
+
+    @Test
+    @DisplayName("Contacts found in parallel do not depend on the number of threads")
+    void testParallelContacts(){
+        //Load a structure large enough to be scanned with the contact grid, in several blocks of rows
+        Structure struc = loadLocalFile("4GXU_l_b.pdb");
+        TertiaryStructure sequentialStructure = new TertiaryStructure(struc);
+        sequentialStructure.setParallelism(1);
+        sequentialStructure.setThreshold(8);
+        ArrayList<Pair<Integer>> expectedBondList = sequentialStructure.getBondList();
+        NeighbourList expectedNeighbourList = sequentialStructure.getNeighbourList(12);
+
+        for(int parallelism : new int[]{0, 2, 5}) {
+            TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+            tertiaryStructure.setParallelism(parallelism);
+            tertiaryStructure.setThreshold(8);
+            assertEquals(expectedBondList, tertiaryStructure.getBondList(), "parallelism " + parallelism);
+            NeighbourList neighbourList = tertiaryStructure.getNeighbourList(12);
+            assertEquals(expectedNeighbourList.getNumberOfPairs(), neighbourList.getNumberOfPairs());
+            for(double threshold : new double[]{4, 8, 12})
+                assertEquals(expectedNeighbourList.getBondList(threshold), neighbourList.getBondList(threshold), "parallelism " + parallelism);
+            assertEquals(expectedNeighbourList.getBondsBetween(4, 8).toBondList(), neighbourList.getBondsBetween(4, 8).toBondList());
+        }
+    }
+
+    @Test
+    @DisplayName("Off-heap distance matrix and its release")
+    void testOffHeapDistanceMatrix(){
+        //Load a PROTEIN file
+        Structure struc = loadLocalFile("2I25_r_b.pdb");
+        DistanceMatrix expectedMatrix = new TertiaryStructure(struc).getDistances();
+
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+        tertiaryStructure.setOffHeapDistanceMatrix(true);
+        DistanceMatrix distanceMatrix = tertiaryStructure.getDistances();
+        assertTrue(distanceMatrix instanceof MappedDistanceMatrix);
+        assertArrayEquals(expectedMatrix.toArray(), distanceMatrix.toArray());
+
+        //Released matrices are removed from the cache and computed again when needed
+        tertiaryStructure.releaseDistanceMatrices();
+        DistanceMatrix recomputedMatrix = tertiaryStructure.getDistances();
+        assertNotSame(distanceMatrix, recomputedMatrix);
+        assertArrayEquals(expectedMatrix.toArray(), recomputedMatrix.toArray());
+    }
+
+    @Test
+    @DisplayName("Bond list updated when the threshold changes against a full recompute")
+    void testIncrementalThreshold(){
+        for(String fileName : new String[]{"3HMX_l_b.pdb", "4GXU_l_b.pdb"}) {
+            Structure struc = loadLocalFile(fileName);
+            for(boolean floatPrecision : new boolean[]{false, true}) {
+                TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+                tertiaryStructure.setFloatPrecision(floatPrecision);
+                tertiaryStructure.getBondList();
+                //Raise and lower the threshold, also above the maximum threshold of the neighbour lists
+                for(double threshold : new double[]{8, 6, 12, 3.5, 13.5, 7, 7.25}) {
+                    long version = tertiaryStructure.getBondListVersion();
+                    tertiaryStructure.setThreshold(threshold);
+                    assertTrue(tertiaryStructure.getBondListVersion() > version);
+
+                    TertiaryStructure expectedStructure = new TertiaryStructure(struc);
+                    expectedStructure.setFloatPrecision(floatPrecision);
+                    expectedStructure.setThreshold(threshold);
+                    assertEquals(expectedStructure.getBondList(), tertiaryStructure.getBondList(), fileName + " " + floatPrecision + " " + threshold);
+                }
+
+                //Setting the same threshold again does not change the bond list
+                long version = tertiaryStructure.getBondListVersion();
+                tertiaryStructure.setThreshold(7.25);
+                assertEquals(version, tertiaryStructure.getBondListVersion());
+            }
+        }
+
+        //A bond list given explicitly is kept
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(loadLocalFile("3HMX_l_b.pdb"));
+        ArrayList<Pair<Integer>> bondList = new ArrayList<>(Arrays.asList(new Pair<>(1, 5), new Pair<>(3, 9)));
+        tertiaryStructure.setBondList(bondList);
+        tertiaryStructure.setThreshold(10);
+        assertEquals(Arrays.asList(new Pair<>(1, 5), new Pair<>(3, 9)), tertiaryStructure.getBondList());
+    }
+
+    @Test
+    @DisplayName("Bond list changed by a delta against a full recompute")
+    void testBondDelta(){
+        Structure struc = loadLocalFile("3HMX_l_b.pdb");
+        TertiaryStructure lowStructure = new TertiaryStructure(struc);
+        lowStructure.setThreshold(6);
+        TertiaryStructure highStructure = new TertiaryStructure(struc);
+        highStructure.setThreshold(8);
+        List<Pair<Integer>> delta = new ArrayList<>(highStructure.getBondList());
+        delta.removeAll(lowStructure.getBondList());
+        assertFalse(delta.isEmpty());
+
+        //The bonds are added in any order and orientation, and only once
+        List<Pair<Integer>> added = new ArrayList<>();
+        for(Pair<Integer> bond : delta) {
+            added.add(new Pair<>(bond.getSecond(), bond.getFirst()));
+            added.add(bond);
+        }
+        Collections.reverse(added);
+        TertiaryStructure tertiaryStructure = new TertiaryStructure(struc);
+        tertiaryStructure.setThreshold(6);
+        tertiaryStructure.applyBondDelta(added, new ArrayList<>());
+        assertEquals(highStructure.getBondList(), tertiaryStructure.getBondList());
+
+        tertiaryStructure.applyBondDelta(new ArrayList<>(), added);
+        assertEquals(lowStructure.getBondList(), tertiaryStructure.getBondList());
+
+        //A bond both removed and added is kept
+        Pair<Integer> bond = lowStructure.getBondList().get(0);
+        tertiaryStructure.applyBondDelta(List.of(bond), List.of(bond));
+        assertEquals(lowStructure.getBondList(), tertiaryStructure.getBondList());
+
+        //A bond list given unsorted is sorted and its duplicates are dropped
+        tertiaryStructure.setBondList(new ArrayList<>(Arrays.asList(new Pair<>(9, 3), new Pair<>(1, 5), new Pair<>(1, 5))));
+        tertiaryStructure.applyBondDelta(List.of(new Pair<>(4, 2)), List.of(new Pair<>(5, 1)));
+        assertEquals(Arrays.asList(new Pair<>(2, 4), new Pair<>(3, 9)), tertiaryStructure.getBondList());
+    }
+
     @Test
     @DisplayName("Is type right?")
     void testGetType(){
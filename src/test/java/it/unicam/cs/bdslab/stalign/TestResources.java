@@ -0,0 +1,47 @@
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.Structure;
+import org.biojava.nbio.structure.io.PDBFileReader;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Structures and scoring functions shared by the test classes
+ */
+final class TestResources {
+
+    private TestResources() {
+    }
+
+    /**
+     * Load a PDB file from the test resources, returns a structure
+     * @param fileName name of the file to load
+     * @return returns a structure
+     */
+    static Structure loadLocalFile(String fileName) {
+        try {
+            return new PDBFileReader().getStructure("src/test/resources/resources/secondaryStructureTests/pdb/" + fileName);
+        } catch (IOException e) {
+            fail(e);
+        }
+        return null;
+    }
+
+    /**
+     * Creates a scoring function from a configuration file with the given content
+     * @param configuration the content of the configuration file
+     * @return the scoring function
+     */
+    static ScoringFunction createScoringFunction(String configuration) throws IOException {
+        File configurationFile = File.createTempFile("STAlign-Config", ".txt");
+        configurationFile.deleteOnExit();
+        try(FileWriter writer = new FileWriter(configurationFile)) {
+            writer.write(configuration);
+        }
+        return new ScoringFunction(configurationFile.getPath());
+    }
+}
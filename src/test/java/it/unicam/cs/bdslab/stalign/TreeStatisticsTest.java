@@ -0,0 +1,62 @@
+package it.unicam.cs.bdslab.stalign;
+
+import org.biojava.nbio.structure.Structure;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static it.unicam.cs.bdslab.stalign.TestResources.createScoringFunction;
+import static it.unicam.cs.bdslab.stalign.TestResources.loadLocalFile;
+
+/**
+ * Test class for the lower bound of the distance of two structural trees given by their statistics
+ */
+class TreeStatisticsTest {
+
+    @Test
+    @DisplayName("Lower bound not above the distance with the default costs")
+    void testLowerBoundDefaultCosts() throws IOException {
+        checkLowerBound(new ScoringFunction(ScoringFunction.DEFAULT_PROPERTY_FILE));
+    }
+
+    @Test
+    @DisplayName("Lower bound not above the distance with different costs")
+    void testLowerBoundOtherCosts() throws IOException {
+        //Replacing an operator costs less than deleting and inserting it, and crossings can be aligned for less
+        checkLowerBound(createScoringFunction("REPLACE_OPERATOR_COST=30\nCROSSING_MISMATCH_COST=4\nINSERT_HAIRPIN_COST=250\n"));
+    }
+
+    /**
+     * Checks that the lower bound of every pair of structural trees of the test structures, at different thresholds,
+     * is at most their distance
+     * @param f the scoring function
+     */
+    private void checkLowerBound(ScoringFunction f) {
+        List<CompactStructuralTree> trees = new ArrayList<>();
+        for(String fileName : new String[]{"2I25_r_b.pdb", "1IQD_r_b.pdb", "3HMX_l_b.pdb"}) {
+            Structure structure = loadLocalFile(fileName);
+            for(double threshold : new double[]{4.5, 6}) {
+                TertiaryStructure tertiaryStructure = new TertiaryStructure(structure);
+                tertiaryStructure.setThreshold(threshold);
+                trees.add(new TERSAlignTree(tertiaryStructure).getCompactStructuralTree());
+            }
+        }
+        boolean positive = false;
+        for(CompactStructuralTree t1 : trees)
+            for(CompactStructuralTree t2 : trees) {
+                double distance = new BinaryTreeAligner(t1, t2, f, true, Double.POSITIVE_INFINITY).getDistance();
+                double lowerBound = TreeStatistics.lowerBound(new TreeStatistics(t1), new TreeStatistics(t2), f);
+                assertTrue(lowerBound <= distance, "Lower bound " + lowerBound + " above the distance " + distance);
+                positive |= lowerBound > 0;
+            }
+        //The bound is not trivially 0
+        assertTrue(positive);
+        //The lower bound of a tree with itself is 0
+        for(CompactStructuralTree t : trees)
+            assertEquals(0, TreeStatistics.lowerBound(new TreeStatistics(t), new TreeStatistics(t), f));
+    }
+}